@@ -0,0 +1,81 @@
+package com.chakritw.qwiz.springutils.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * Reproducible datasets (fixed seed) in in-memory H2 databases
+ */
+public final class BenchmarkData {
+    public static final long SEED = 20240101L;
+    public static final String SCHEMA = "public";
+    public static final String ITEMS_TABLE = "bench_items";
+    public static final String TAGS_TABLE = "bench_tags";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param dbName Distinct per dataset, as the DB lives until the JVM exits
+     */
+    public static DataSource newDataSource(final String dbName) {
+        return new SimpleDriverDataSource(new org.h2.Driver(),
+            "jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE", "sa", "");
+    }
+
+    /**
+     * (Re)creates the tables, with nRows items (& a tag per item) generated from SEED
+     */
+    public static void createTables(final DataSource dataSource, final int nRows) {
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("DROP TABLE IF EXISTS " + TAGS_TABLE);
+        jdbc.execute("DROP TABLE IF EXISTS " + ITEMS_TABLE);
+        jdbc.execute("CREATE TABLE " + ITEMS_TABLE + " (id BIGINT PRIMARY KEY, name VARCHAR(50),"
+            + " active BOOLEAN, price DECIMAL(12,2), quantity INT, created_by VARCHAR(50))");
+        jdbc.execute("CREATE TABLE " + TAGS_TABLE + " (id BIGINT PRIMARY KEY, item_id BIGINT, label VARCHAR(50))");
+        final Random random = new Random(SEED);
+        jdbc.batchUpdate("INSERT INTO " + ITEMS_TABLE + " (id, name, active, price, quantity, created_by)"
+            + " VALUES (?, ?, ?, ?, ?, ?)", new org.springframework.jdbc.core.BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(java.sql.PreparedStatement ps, int i) throws java.sql.SQLException {
+                    final Item item = newItem(random, i + 1);
+                    ps.setLong(1, item.getId());
+                    ps.setString(2, item.getName());
+                    ps.setBoolean(3, item.isActive());
+                    ps.setBigDecimal(4, item.getPrice());
+                    ps.setInt(5, item.getQuantity());
+                    ps.setString(6, item.getCreatedBy());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return nRows;
+                }
+            });
+        jdbc.update("INSERT INTO " + TAGS_TABLE + " (id, item_id, label) SELECT id, id, CONCAT('tag-', id) FROM "
+            + ITEMS_TABLE);
+    }
+
+    public static Item newItem(final Random random, final long id) {
+        return new Item()
+            .setId(id)
+            .setName(randomString(random, 8 + random.nextInt(16)))
+            .setActive(random.nextBoolean())
+            .setPrice(BigDecimal.valueOf(random.nextInt(1_000_000), 2))
+            .setQuantity(random.nextInt(1000))
+            .setCreatedBy("user" + random.nextInt(100));
+    }
+
+    private static String randomString(final Random random, final int len) {
+        final StringBuilder sb = new StringBuilder(len);
+        for (int i = 0;i < len;i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.chakritw.qwiz.springutils.benchmarks;
+
+import java.math.BigDecimal;
+
+public class Item {
+    private long id;
+    private String name;
+    private boolean active;
+    private BigDecimal price;
+    private int quantity;
+    private String createdBy;
+
+    public long getId() {
+        return id;
+    }
+
+    public Item setId(long id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Item setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public Item setActive(boolean active) {
+        this.active = active;
+        return this;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public Item setPrice(BigDecimal price) {
+        this.price = price;
+        return this;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public Item setQuantity(int quantity) {
+        this.quantity = quantity;
+        return this;
+    }
+
+    public String getCreatedBy() {
+        return createdBy;
+    }
+
+    public Item setCreatedBy(String createdBy) {
+        this.createdBy = createdBy;
+        return this;
+    }
+}
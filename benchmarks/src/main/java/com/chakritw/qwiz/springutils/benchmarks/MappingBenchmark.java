@@ -0,0 +1,111 @@
+package com.chakritw.qwiz.springutils.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+
+import com.chakritw.qwiz.springutils.QueryBuilder;
+import com.chakritw.qwiz.springutils.TableMetadataCache;
+import com.chakritw.qwiz.springutils.TwoWaysJdbcBeanMapper;
+
+/**
+ * Row mapping from an in-memory H2 table, vs Spring's BeanPropertyRowMapper,
+ * and reading bean properties as params (getValue())
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+    private static final String SELECT_SQL = "SELECT id, name, active, price, quantity, created_by FROM "
+        + BenchmarkData.ITEMS_TABLE + " ORDER BY id";
+    private static final String[] PARAM_NAMES = { "id", "name", "active", "price", "quantity", "created_by" };
+    private static final String[] PROP_NAMES = { "id", "name", "active", "price", "quantity", "createdBy" };
+
+    @Param({ "100", "10000" })
+    private int rows;
+
+    private JdbcTemplate jdbcTemplate;
+    private TwoWaysJdbcBeanMapper<Item> twoWaysMapper;
+    private BeanPropertyRowMapper<Item> beanPropertyRowMapper;
+    private QueryBuilder<Item, Long> select;
+    private List<Item> items;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final DataSource dataSource = BenchmarkData.newDataSource("mapping" + rows);
+        BenchmarkData.createTables(dataSource, rows);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        twoWaysMapper = new TwoWaysJdbcBeanMapper<>(Item.class)
+            .mapSameExcept("createdBy")
+            .map("createdBy", "created_by");
+        beanPropertyRowMapper = new BeanPropertyRowMapper<>(Item.class);
+        select = new QueryBuilder<Item, Long>()
+            .setDataSource(dataSource)
+            .setMetadataCache(new TableMetadataCache())
+            .setDialect(QueryBuilder.H2)
+            .setSchemaName(BenchmarkData.SCHEMA)
+            .select((s) -> s.from(BenchmarkData.ITEMS_TABLE)
+                .orderBy(new String[] { "id" }));
+        items = jdbcTemplate.query(SELECT_SQL, beanPropertyRowMapper);
+    }
+
+    @Benchmark
+    public List<Item> twoWaysMapper() {
+        return jdbcTemplate.query(SELECT_SQL, twoWaysMapper);
+    }
+
+    @Benchmark
+    public List<Item> beanPropertyRowMapper() {
+        return jdbcTemplate.query(SELECT_SQL, beanPropertyRowMapper);
+    }
+
+    /**
+     * Rendering (metadata cached) + executing + mapping
+     */
+    @Benchmark
+    public List<Item> queryBuilderExecQuery() {
+        return select.execQuery(EmptySqlParameterSource.INSTANCE, twoWaysMapper);
+    }
+
+    @Benchmark
+    public void twoWaysMapperGetValue(final Blackhole bh) {
+        for (Item item : items) {
+            final TwoWaysJdbcBeanMapper<Item> params = twoWaysMapper.withBean(item);
+            for (String name : PARAM_NAMES) {
+                bh.consume(params.getValue(name));
+            }
+        }
+    }
+
+    @Benchmark
+    public void beanPropertySqlParameterSourceGetValue(final Blackhole bh) {
+        for (Item item : items) {
+            final BeanPropertySqlParameterSource params = new BeanPropertySqlParameterSource(item);
+            for (String name : PROP_NAMES) {
+                bh.consume(params.getValue(name));
+            }
+        }
+    }
+}
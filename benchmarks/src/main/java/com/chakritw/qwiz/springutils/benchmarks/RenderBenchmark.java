@@ -0,0 +1,140 @@
+package com.chakritw.qwiz.springutils.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import com.chakritw.qwiz.springutils.QueryBuilder;
+import com.chakritw.qwiz.springutils.QueryTemplate;
+import com.chakritw.qwiz.springutils.TableMetadataCache;
+
+/**
+ * Rendering SQL only (no execution), with columns discovered from H2 metadata
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    private DataSource dataSource;
+    private Connection connection;
+    private DatabaseMetaData metadata;
+    private QueryBuilder<Item, Long> simpleSelect;
+    private QueryBuilder<Item, Long> complexSelect;
+    private QueryBuilder<Item, Long> conditionalSelect;
+    private QueryTemplate<Item, Long> compiledConditionalSelect;
+    private QueryBuilder<Item, Long> uncachedSelect;
+    private QueryBuilder<Item, Long> insert;
+    private MapSqlParameterSource params;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        dataSource = BenchmarkData.newDataSource("render");
+        BenchmarkData.createTables(dataSource, 10);
+        connection = dataSource.getConnection();
+        metadata = connection.getMetaData();
+
+        simpleSelect = newBuilder(new TableMetadataCache())
+            .select((s) -> s.from(BenchmarkData.ITEMS_TABLE)
+                .where("id = :id"));
+        complexSelect = newBuilder(new TableMetadataCache())
+            .select((s) -> s.allFromMain()
+                .add("t.label")
+                .from(BenchmarkData.ITEMS_TABLE, "i")
+                .leftJoin(BenchmarkData.TAGS_TABLE, "t", "t.item_id = i.id")
+                .where((w) -> w.add("i.active = :active")
+                    .add("i.price >= :min_price")
+                    .add("i.name LIKE :name"))
+                .orderBy(new String[] { "i.price", "i.id" }, new Boolean[] { true, false })
+                .page(40, 20));
+        conditionalSelect = newConditionalSelect(new TableMetadataCache());
+        compiledConditionalSelect = newConditionalSelect(new TableMetadataCache()).compile();
+        uncachedSelect = newBuilder(null)
+            .select((s) -> s.from(BenchmarkData.ITEMS_TABLE)
+                .where("id = :id"));
+        insert = newBuilder(new TableMetadataCache())
+            .insert(BenchmarkData.ITEMS_TABLE, "id", (i) -> {});
+
+        params = new MapSqlParameterSource()
+            .addValue("id", 1L)
+            .addValue("active", true)
+            .addValue("min_price", 10)
+            .addValue("name", "a%")
+            .addValue("created_by", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private QueryBuilder<Item, Long> newBuilder(final TableMetadataCache metadataCache) {
+        return new QueryBuilder<Item, Long>()
+            .setDataSource(dataSource)
+            .setMetadataCache(metadataCache)
+            .setDialect(QueryBuilder.H2)
+            .setSchemaName(BenchmarkData.SCHEMA);
+    }
+
+    private QueryBuilder<Item, Long> newConditionalSelect(final TableMetadataCache metadataCache) {
+        return newBuilder(metadataCache)
+            .select((s) -> s.from(BenchmarkData.ITEMS_TABLE)
+                .where((w) -> w.addIf((p) -> p.getValue("active") != null, "active = :active")
+                    .addIf((p) -> p.getValue("min_price") != null, "price >= :min_price")
+                    .addIf((p) -> p.getValue("name") != null, "name LIKE :name")
+                    .addIf((p) -> p.getValue("created_by") != null, "created_by = :created_by"))
+                .orderBy(new String[] { "id" }));
+    }
+
+    @Benchmark
+    public String simpleSelect() throws SQLException {
+        return simpleSelect.build(params, metadata);
+    }
+
+    @Benchmark
+    public String complexSelect() throws SQLException {
+        return complexSelect.build(params, metadata);
+    }
+
+    @Benchmark
+    public String conditionalSelect() throws SQLException {
+        return conditionalSelect.build(params, metadata);
+    }
+
+    @Benchmark
+    public String compiledConditionalSelect() throws SQLException {
+        return compiledConditionalSelect.render(params, metadata);
+    }
+
+    /**
+     * Same as simpleSelect(), but reading the columns from DatabaseMetaData every time
+     */
+    @Benchmark
+    public String uncachedMetadataSelect() throws SQLException {
+        return uncachedSelect.build(params, metadata);
+    }
+
+    @Benchmark
+    public String insert() throws SQLException {
+        return insert.build(params, metadata);
+    }
+}
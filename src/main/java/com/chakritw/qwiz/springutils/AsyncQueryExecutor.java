@@ -0,0 +1,201 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Runs queries asynchronously (see QueryBuilder.execQueryAsync()), with at most maxConcurrent
+ * of them executing at once, so fan-out cannot exhaust the connection pool (see forDataSource()).
+ * Tasks over the limit wait on the executor's threads, never on the caller's.
+ *
+ * Tasks run on other threads, so outside of the caller's Spring-managed transaction (if any):
+ * each uses its own connection, and doesn't see the caller's uncommitted changes.
+ */
+public class AsyncQueryExecutor {
+    /** Used when the pool size of a DataSource cannot be detected (same as HikariCP's default) */
+    public static final int DEFAULT_POOL_SIZE = 10;
+    /** Share of the pool connections usable by the shared executor of a DataSource */
+    public static final double DEFAULT_POOL_SHARE = 0.5;
+
+    private static final String[] POOL_SIZE_GETTERS = new String[] {
+        "getMaximumPoolSize", //HikariCP
+        "getMaxTotal", //Commons DBCP2
+        "getMaxActive" //Tomcat JDBC
+    };
+    private static final Map<DataSource, AsyncQueryExecutor> SHARED = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final AtomicInteger THREADS_COUNT = new AtomicInteger();
+
+    protected final Executor executor;
+    protected final int maxConcurrent;
+    protected final Semaphore permits;
+    /** Set while the current thread runs a task of this executor */
+    private final ThreadLocal<Boolean> inTask = new ThreadLocal<>();
+
+    public AsyncQueryExecutor(final int maxConcurrent) {
+        this(newDefaultExecutor(maxConcurrent), maxConcurrent);
+    }
+    public AsyncQueryExecutor(final Executor executor, final int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be > 0");
+        }
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * @return Shared executor for the DataSource (unless set by setForDataSource()), limited to
+     *   maxConcurrentFor() its pool size, so synchronous callers keep connections available
+     */
+    public static AsyncQueryExecutor forDataSource(final DataSource dataSource) {
+        return SHARED.computeIfAbsent(dataSource,
+            (ds) -> new AsyncQueryExecutor(maxConcurrentFor(detectPoolSize(ds), DEFAULT_POOL_SHARE)));
+    }
+
+    /**
+     * Sets the shared executor for the DataSource, e.g. with another limit than the default,
+     * for the QueryBuilders (without their own executor) & SlowQueryLogs using it from now on
+     */
+    public static void setForDataSource(final DataSource dataSource, final AsyncQueryExecutor executor) {
+        SHARED.put(dataSource, executor);
+    }
+
+    /**
+     * @param poolShare Share of the pool usable (0..1]
+     * @return Concurrent tasks allowed for a pool: its share, leaving at least one connection
+     *   unless the pool has a single one
+     */
+    public static int maxConcurrentFor(final int poolSize, final double poolShare) {
+        if ((poolShare <= 0) || (poolShare > 1)) {
+            throw new IllegalArgumentException("poolShare must be in (0, 1]");
+        }
+        return Math.max(1, Math.min(poolSize - 1, (int) (poolSize * poolShare)));
+    }
+
+    /**
+     * @return Virtual-thread-per-task executor when running on a JDK supporting it,
+     *   else a pool of (daemon) threads
+     */
+    public static ExecutorService newDefaultExecutor(final int nThreads) {
+        try {
+            final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            //Pre-virtual threads JDK
+        }
+        final ThreadFactory threadFactory = (r) -> {
+            final Thread t = new Thread(r, "qwiz-async-" + THREADS_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return Max. pool size of a HikariCP, DBCP2 or Tomcat JDBC DataSource (also when wrapped),
+     *   else DEFAULT_POOL_SIZE
+     */
+    public static int detectPoolSize(final DataSource dataSource) {
+        Object target = dataSource;
+        for (int i = 0;(i < 2) && (target != null);i++) {
+            for (String getter : POOL_SIZE_GETTERS) {
+                try {
+                    final Method m = target.getClass().getMethod(getter);
+                    final Object n = m.invoke(target);
+                    if ((n instanceof Number) && (((Number) n).intValue() > 0)) {
+                        return ((Number) n).intValue();
+                    }
+                } catch (ReflectiveOperationException | RuntimeException ex) {
+                    //Not this kind of pool
+                }
+            }
+            target = unwrapDataSource(target);
+        }
+        return DEFAULT_POOL_SIZE;
+    }
+    private static Object unwrapDataSource(final Object ds) {
+        if (ds instanceof DelegatingDataSource) {
+            return ((DelegatingDataSource) ds).getTargetDataSource();
+        }
+        return null;
+    }
+
+    public <R> CompletableFuture<R> submit(final Supplier<R> task) {
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    future.completeExceptionally(ex);
+                    return;
+                }
+                //Release before completing, so dependent stages can get the permit
+                R result = null;
+                Throwable failure = null;
+                inTask.set(Boolean.TRUE);
+                try {
+                    result = task.get();
+                } catch (Throwable ex) {
+                    failure = ex;
+                } finally {
+                    inTask.remove();
+                    permits.release();
+                }
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * @return Whether the current thread runs a task of this executor: tasks it submits must not be
+     *   waited for then, as waiting keeps the thread & permit they may need (see QueryBuilder.execAll())
+     */
+    public boolean isInTask() {
+        return inTask.get() != null;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return Number of tasks that could start executing right now
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+}
@@ -0,0 +1,84 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a batched execution (see QueryBuilder.execBatch()/execInsertBatch()):
+ * update counts per row & generated keys (if requested and supported by the driver), in items order.
+ */
+public class BatchResult<TKey> {
+    protected final int[] updateCounts;
+    protected final List<TKey> generatedKeys;
+
+    public BatchResult(final int[] updateCounts, final List<TKey> generatedKeys) {
+        this.updateCounts = updateCounts;
+        this.generatedKeys = Collections.unmodifiableList(generatedKeys);
+    }
+
+    public int getRowCount() {
+        return updateCounts.length;
+    }
+
+    /**
+     * @return Update count for each row (may be Statement.SUCCESS_NO_INFO, depending on driver)
+     */
+    public int[] getUpdateCounts() {
+        return updateCounts;
+    }
+
+    /**
+     * @return Sum of known update counts
+     */
+    public long getTotalUpdateCount() {
+        long total = 0;
+        for (int n : updateCounts) {
+            if (n > 0) {
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    public List<TKey> getGeneratedKeys() {
+        return generatedKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[rows=" + getRowCount() + ",updated=" + getTotalUpdateCount()
+            + ",keys=" + generatedKeys.size() + "]";
+    }
+
+    /**
+     * Accumulates results of successive batches
+     */
+    public static class Collector<TKey> {
+        private int[] updateCounts;
+        private int nRows;
+        private final List<TKey> keys;
+
+        public Collector(final int expectedRows) {
+            this.updateCounts = new int[Math.max(expectedRows, 16)];
+            this.keys = new ArrayList<>(expectedRows);
+        }
+
+        public void addUpdateCounts(final int[] counts) {
+            if (nRows + counts.length > updateCounts.length) {
+                updateCounts = Arrays.copyOf(updateCounts, Math.max(updateCounts.length * 2, nRows + counts.length));
+            }
+            System.arraycopy(counts, 0, updateCounts, nRows, counts.length);
+            nRows += counts.length;
+        }
+
+        public void addKey(final TKey key) {
+            keys.add(key);
+        }
+
+        public BatchResult<TKey> toResult() {
+            return new BatchResult<>(Arrays.copyOf(updateCounts, nRows), keys);
+        }
+    }
+}
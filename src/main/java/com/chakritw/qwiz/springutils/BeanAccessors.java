@@ -0,0 +1,554 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Ways to instantiate a bean class, read & write its properties (getters & setters, incl. fluent
+ * ones returning the bean, or else public fields), generated once per class (see of()).
+ *
+ * Accessors of public members of public classes visible from this library are generated
+ * with LambdaMetafactory, so calls are as cheap as direct ones once inlined by the JIT;
+ * other members are reached through MethodHandles.
+ * Writers of long/int/double/boolean properties also take unboxed values (see Writer.writeLong() etc.).
+ */
+public class BeanAccessors<T> {
+    private static final ClassValue<BeanAccessors<?>> ACCESSORS = new ClassValue<BeanAccessors<?>>() {
+        @Override
+        protected BeanAccessors<?> computeValue(Class<?> type) {
+            return new BeanAccessors<>(type);
+        }
+    };
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    protected final Class<T> beanClass;
+    protected final Supplier<T> constructor;
+    protected final Map<String, Reader> readers;
+    protected final Map<String, Writer> writers;
+
+    protected BeanAccessors(final Class<T> beanClass) {
+        this.beanClass = beanClass;
+        this.constructor = findConstructor(beanClass);
+        this.readers = Collections.unmodifiableMap(findReaders(beanClass));
+        this.writers = Collections.unmodifiableMap(findWriters(beanClass));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> BeanAccessors<T> of(final Class<T> beanClass) {
+        return (BeanAccessors<T>) ACCESSORS.get(beanClass);
+    }
+
+    public Class<T> getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * @return Whether newInstance() can be used (no-args constructor)
+     */
+    public boolean isInstantiable() {
+        return constructor != null;
+    }
+
+    public T newInstance() {
+        if (constructor == null) {
+            throw new IllegalStateException("No accessible no-args constructor: " + beanClass.getName());
+        }
+        return constructor.get();
+    }
+
+    /**
+     * @return Reader of the property, or null if not readable
+     */
+    public Reader getReader(final String propName) {
+        return readers.get(propName);
+    }
+
+    /**
+     * @return Writer of the property, or null if not writable
+     */
+    public Writer getWriter(final String propName) {
+        return writers.get(propName);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static <T> Supplier<T> findConstructor(final Class<T> beanClass) {
+        if ((beanClass.isInterface()) || (Modifier.isAbstract(beanClass.getModifiers()))
+            || ((beanClass.getEnclosingClass() != null) && (!Modifier.isStatic(beanClass.getModifiers()))))
+        {
+            return null;
+        }
+        final Constructor<T> ctor;
+        try {
+            //Non-public ones too, as Jackson does
+            ctor = beanClass.getDeclaredConstructor();
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+        try {
+            final MethodHandle mh = LOOKUP.unreflectConstructor(setAccessible(ctor));
+            if (isLambdaAccessible(beanClass, ctor.getModifiers())) {
+                final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), mh, MethodType.methodType(beanClass));
+                return (Supplier<T>) site.getTarget().invoke();
+            }
+            final MethodHandle generic = mh.asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (T) generic.invokeExact();
+                } catch (Throwable ex) {
+                    throw rethrow(ex);
+                }
+            };
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Properties named as in TwoWaysJdbcBeanMapper.getPropNamesAndTypesMap(); getters win over public fields.
+     */
+    protected static Map<String, Reader> findReaders(final Class<?> beanClass) {
+        final Map<String, Reader> readers = new HashMap<>();
+        for (Field fld : beanClass.getFields()) {
+            if (!Modifier.isStatic(fld.getModifiers())) {
+                addIfResolved(readers, fld.getName(), () -> fieldReader(fld));
+            }
+        }
+        for (Method method : beanClass.getMethods()) {
+            final int prefixLen = getterPrefixLength(method);
+            if (prefixLen > 0) {
+                addIfResolved(readers, propNameOf(method.getName(), prefixLen), () -> getterReader(method));
+            }
+        }
+        return readers;
+    }
+
+    /**
+     * Setters win over public fields. Among overloaded setters, the one taking the type of the getter wins.
+     */
+    protected static Map<String, Writer> findWriters(final Class<?> beanClass) {
+        final Map<String, Writer> writers = new HashMap<>();
+        for (Field fld : beanClass.getFields()) {
+            final int mods = fld.getModifiers();
+            if ((!Modifier.isStatic(mods)) && (!Modifier.isFinal(mods))) {
+                addIfResolved(writers, fld.getName(), () -> fieldWriter(fld));
+            }
+        }
+        final Map<String, Class<?>> getterTypes = new HashMap<>();
+        for (Method method : beanClass.getMethods()) {
+            final int prefixLen = getterPrefixLength(method);
+            if (prefixLen > 0) {
+                getterTypes.put(propNameOf(method.getName(), prefixLen), method.getReturnType());
+            }
+        }
+        final Map<String, Class<?>> setterTypes = new HashMap<>();
+        for (Method method : beanClass.getMethods()) {
+            final String mName = method.getName();
+            if ((!mName.startsWith("set")) || (mName.length() <= 3) || (method.getParameterCount() != 1)
+                || (Modifier.isStatic(method.getModifiers())) || (method.isBridge()))
+            {
+                continue;
+            }
+            final String name = propNameOf(mName, 3);
+            final Class<?> type = method.getParameterTypes()[0];
+            if ((setterTypes.containsKey(name)) && (!type.equals(getterTypes.get(name)))) {
+                continue;
+            }
+            setterTypes.put(name, type);
+            addIfResolved(writers, name, () -> setterWriter(method));
+        }
+        return writers;
+    }
+    protected static int getterPrefixLength(final Method method) {
+        final String mName = method.getName();
+        final int prefixLen = (mName.startsWith("get")) ? 3 : ((mName.startsWith("is")) ? 2 : 0);
+        return ((prefixLen > 0) && (mName.length() > prefixLen) && (method.getParameterCount() == 0)
+            && (method.getReturnType() != void.class) && (!Modifier.isStatic(method.getModifiers()))
+            && (!"getClass".equals(mName)))
+            ? prefixLen : 0;
+    }
+    protected static String propNameOf(final String methodName, final int prefixLen) {
+        return methodName.substring(prefixLen, prefixLen + 1).toLowerCase() + methodName.substring(prefixLen + 1);
+    }
+
+    /**
+     * Skips members which cannot be accessed at all (e.g. denied by a SecurityManager or module)
+     */
+    protected static <A> void addIfResolved(final Map<String, A> m, final String name,
+        final ThrowingSupplier<A> accessorFn)
+    {
+        try {
+            m.put(name, accessorFn.get());
+        } catch (Throwable ex) {
+            //Not accessible
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Reader getterReader(final Method getter) throws Throwable {
+        final Class<?> beanClass = getter.getDeclaringClass();
+        final Class<?> type = getter.getReturnType();
+        final MethodHandle mh = LOOKUP.unreflect(setAccessible(getter));
+        if (isLambdaAccessible(beanClass, getter.getModifiers())) {
+            final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class), mh,
+                MethodType.methodType(ClassUtils.resolvePrimitiveIfNecessary(type), beanClass));
+            return new LambdaReader(type, (Function<Object, Object>) site.getTarget().invoke());
+        }
+        return new HandleReader(type, mh);
+    }
+    protected static Reader fieldReader(final Field field) throws IllegalAccessException {
+        return new HandleReader(field.getType(), LOOKUP.unreflectGetter(setAccessible(field)));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Writer setterWriter(final Method setter) throws Throwable {
+        final Class<?> beanClass = setter.getDeclaringClass();
+        final Class<?> type = setter.getParameterTypes()[0];
+        final MethodHandle mh = LOOKUP.unreflect(setAccessible(setter));
+        if (isLambdaAccessible(beanClass, setter.getModifiers())) {
+            if (type.isPrimitive()) {
+                final Writer writer = primitiveLambdaWriter(beanClass, type, mh);
+                if (writer != null) {
+                    return writer;
+                }
+            }
+            //Return value of fluent setters discarded
+            final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class), mh,
+                MethodType.methodType(void.class, beanClass, ClassUtils.resolvePrimitiveIfNecessary(type)));
+            return new LambdaWriter(type, (BiConsumer<Object, Object>) site.getTarget().invoke());
+        }
+        return new HandleWriter(type, mh);
+    }
+    /**
+     * @return Writer generated as ObjLongConsumer etc., or null if not of such a primitive type
+     */
+    protected static Writer primitiveLambdaWriter(final Class<?> beanClass, final Class<?> type,
+        final MethodHandle mh) throws Throwable
+    {
+        final Class<?> samType = (type == long.class) ? ObjLongConsumer.class
+            : ((type == int.class) ? ObjIntConsumer.class
+            : ((type == double.class) ? ObjDoubleConsumer.class
+            : ((type == boolean.class) ? ObjBooleanConsumer.class : null)));
+        if (samType == null) {
+            return null;
+        }
+        final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(samType),
+            MethodType.methodType(void.class, Object.class, type), mh,
+            MethodType.methodType(void.class, beanClass, type));
+        final Object setter = site.getTarget().invoke();
+        return new PrimitiveLambdaWriter(type, setter);
+    }
+    protected static Writer fieldWriter(final Field field) throws IllegalAccessException {
+        return new HandleWriter(field.getType(), LOOKUP.unreflectSetter(setAccessible(field)));
+    }
+
+    /**
+     * LambdaMetafactory classes are defined next to this class, so must be able to link the bean class
+     */
+    protected static boolean isLambdaAccessible(final Class<?> beanClass, final int memberModifiers) {
+        return (Modifier.isPublic(beanClass.getModifiers())) && (Modifier.isPublic(memberModifiers))
+            && ((beanClass.getEnclosingClass() == null) || (Modifier.isPublic(beanClass.getEnclosingClass().getModifiers())))
+            && (ClassUtils.isVisible(beanClass, BeanAccessors.class.getClassLoader()));
+    }
+
+    /**
+     * Public members of non-public classes (e.g. nested test beans) need it
+     */
+    protected static <A extends AccessibleObject> A setAccessible(final A member) {
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException ex) {
+            //Keep as is: public members of public classes work without it
+        }
+        return member;
+    }
+
+    /**
+     * @return Exception to throw for a failure of a MethodHandle: unchecked ones as is
+     */
+    protected static RuntimeException rethrow(final Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex.getMessage(), ex);
+    }
+
+    @FunctionalInterface
+    protected interface ThrowingSupplier<R> {
+        R get() throws Throwable;
+    }
+
+    /**
+     * Reads a property of beans of a class
+     */
+    public interface Reader {
+        /**
+         * @return Type of the property (may be primitive)
+         */
+        Class<?> getType();
+
+        /**
+         * @return Value of the property (boxed if primitive)
+         */
+        Object read(Object bean);
+    }
+
+    /**
+     * Writes a property of beans of a class
+     */
+    public interface Writer {
+        /**
+         * @return Type of the property (may be primitive)
+         */
+        Class<?> getType();
+
+        /**
+         * @param value Of the property type (boxed if primitive)
+         */
+        void write(Object bean, Object value);
+
+        /**
+         * For long properties only: without boxing, if supported
+         */
+        default void writeLong(Object bean, long value) {
+            write(bean, value);
+        }
+
+        /**
+         * For int properties only: without boxing, if supported
+         */
+        default void writeInt(Object bean, int value) {
+            write(bean, value);
+        }
+
+        /**
+         * For double properties only: without boxing, if supported
+         */
+        default void writeDouble(Object bean, double value) {
+            write(bean, value);
+        }
+
+        /**
+         * For boolean properties only: without boxing, if supported
+         */
+        default void writeBoolean(Object bean, boolean value) {
+            write(bean, value);
+        }
+    }
+
+    /**
+     * The boolean counterpart of ObjLongConsumer etc.
+     */
+    @FunctionalInterface
+    protected interface ObjBooleanConsumer<T> {
+        void accept(T t, boolean value);
+    }
+
+    protected static class LambdaReader implements Reader {
+        protected final Class<?> type;
+        protected final Function<Object, Object> getter;
+
+        protected LambdaReader(final Class<?> type, final Function<Object, Object> getter) {
+            this.type = type;
+            this.getter = getter;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object read(Object bean) {
+            return getter.apply(bean);
+        }
+    }
+
+    protected static class HandleReader implements Reader {
+        protected final Class<?> type;
+        protected final MethodHandle getter;
+
+        protected HandleReader(final Class<?> type, final MethodHandle getter) {
+            this.type = type;
+            this.getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public Object read(Object bean) {
+            try {
+                return (Object) getter.invokeExact(bean);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+    }
+
+    protected static class LambdaWriter implements Writer {
+        protected final Class<?> type;
+        protected final BiConsumer<Object, Object> setter;
+
+        protected LambdaWriter(final Class<?> type, final BiConsumer<Object, Object> setter) {
+            this.type = type;
+            this.setter = setter;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public void write(Object bean, Object value) {
+            setter.accept(bean, value);
+        }
+    }
+
+    /**
+     * Setter of a long/int/double/boolean property, generated as ObjLongConsumer etc.
+     */
+    protected static class PrimitiveLambdaWriter implements Writer {
+        protected final Class<?> type;
+        protected final Object setter;
+
+        protected PrimitiveLambdaWriter(final Class<?> type, final Object setter) {
+            this.type = type;
+            this.setter = setter;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public void write(Object bean, Object value) {
+            if (type == long.class) {
+                writeLong(bean, (Long) value);
+            } else if (type == int.class) {
+                writeInt(bean, (Integer) value);
+            } else if (type == double.class) {
+                writeDouble(bean, (Double) value);
+            } else {
+                writeBoolean(bean, (Boolean) value);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeLong(Object bean, long value) {
+            ((ObjLongConsumer<Object>) setter).accept(bean, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeInt(Object bean, int value) {
+            ((ObjIntConsumer<Object>) setter).accept(bean, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeDouble(Object bean, double value) {
+            ((ObjDoubleConsumer<Object>) setter).accept(bean, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeBoolean(Object bean, boolean value) {
+            ((ObjBooleanConsumer<Object>) setter).accept(bean, value);
+        }
+    }
+
+    protected static class HandleWriter implements Writer {
+        protected final Class<?> type;
+        protected final MethodHandle setter;
+        /** Typed as (Object, <primitive type>)void, for primitive properties */
+        protected final MethodHandle primitiveSetter;
+
+        protected HandleWriter(final Class<?> type, final MethodHandle setter) {
+            this.type = type;
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.primitiveSetter = (type.isPrimitive())
+                ? setter.asType(MethodType.methodType(void.class, Object.class, type)) : null;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return type;
+        }
+
+        @Override
+        public void write(Object bean, Object value) {
+            try {
+                setter.invokeExact(bean, value);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void writeLong(Object bean, long value) {
+            try {
+                primitiveSetter.invokeExact(bean, value);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void writeInt(Object bean, int value) {
+            try {
+                primitiveSetter.invokeExact(bean, value);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void writeDouble(Object bean, double value) {
+            try {
+                primitiveSetter.invokeExact(bean, value);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+
+        @Override
+        public void writeBoolean(Object bean, boolean value) {
+            try {
+                primitiveSetter.invokeExact(bean, value);
+            } catch (Throwable ex) {
+                throw rethrow(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Bitmask of IfExpr outcomes, in the order they are reached when walking a query tree.
+ *
+ * Since the outcome of each condition decides which conditions are reached next,
+ * equal signatures always mean the same rendered SQL (see QueryTemplate).
+ * Up to 64 outcomes fit in a long; any more spill over into a BitSet.
+ */
+public final class ConditionSignature {
+    private long bits;
+    private int length;
+    private BitSet overflow;
+
+    public ConditionSignature add(final boolean outcome) {
+        if (length < Long.SIZE) {
+            if (outcome) {
+                bits |= (1L << length);
+            }
+        } else {
+            if (overflow == null) {
+                overflow = new BitSet();
+            }
+            if (outcome) {
+                overflow.set(length - Long.SIZE);
+            }
+        }
+        length++;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean get(final int i) {
+        if ((i < 0) || (i >= length)) {
+            throw new IndexOutOfBoundsException("Condition index: " + i);
+        }
+        return (i < Long.SIZE) ? ((bits & (1L << i)) != 0) : overflow.get(i - Long.SIZE);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConditionSignature)) {
+            return false;
+        }
+        final ConditionSignature other = (ConditionSignature) obj;
+        return (bits == other.bits) && (length == other.length) && (Objects.equals(overflow, other.overflow));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Long.hashCode(bits) * 31 + length;
+        return (overflow != null) ? (h * 31 + overflow.hashCode()) : h;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0;i < length;i++) {
+            sb.append(get(i) ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.AbstractSqlParameterSource;
+
+/**
+ * Base of the mappers generated for JdbcMapped beans (named "<Bean>_JdbcMapper", in the same package),
+ * which map rows & bind params like the equivalent TwoWaysJdbcBeanMapper, without reflection.
+ * Use them as any RowMapper/SqlParameterSource (see withBean()).
+ */
+public abstract class GeneratedJdbcMapper<T> extends AbstractSqlParameterSource implements RowMapper<T> {
+    public static final String CLASS_NAME_SUFFIX = "_JdbcMapper";
+    private static final ConversionService CONVERSION_SERVICE = DefaultConversionService.getSharedInstance();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    /** Mapper (without bean) of each bean class, looked up once */
+    private static final ClassValue<GeneratedJdbcMapper<?>> PROTOTYPES = new ClassValue<GeneratedJdbcMapper<?>>() {
+        @Override
+        protected GeneratedJdbcMapper<?> computeValue(final Class<?> beanClass) {
+            final String name = beanClass.getName().replace('$', '_') + CLASS_NAME_SUFFIX;
+            try {
+                return (GeneratedJdbcMapper<?>) Class.forName(name, true, beanClass.getClassLoader())
+                    .getConstructor()
+                    .newInstance();
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalArgumentException("No generated mapper " + name + " (is " + beanClass.getName()
+                    + " annotated with @JdbcMapped?)", ex);
+            }
+        }
+    };
+    /**
+     * Column indexes of the ResultSet being mapped on each thread, as all its rows are mapped in a row
+     * (per thread, as a mapper may map ResultSets of several threads at once, e.g. partitioned queries)
+     */
+    private static final ThreadLocal<ResultSetIndexes> LAST_INDEXES = new ThreadLocal<>();
+
+    protected final T bean;
+
+    protected GeneratedJdbcMapper(final T bean) {
+        this.bean = bean;
+    }
+
+    /**
+     * @return Mapper generated for the JdbcMapped bean class: looked up by name once per class,
+     *   then copied from it (see withBean()) without reflection
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> GeneratedJdbcMapper<T> of(final Class<T> beanClass) {
+        return ((GeneratedJdbcMapper<T>) PROTOTYPES.get(beanClass)).withBean(null);
+    }
+
+    public abstract Class<T> getBeanClass();
+
+    /**
+     * @return New mapper for the bean (e.g. as SqlParameterSource)
+     */
+    public abstract GeneratedJdbcMapper<T> withBean(T bean);
+
+    public T getBean() {
+        return bean;
+    }
+
+    /**
+     * @return Mapped column names, in the order of the indexes given to mapRow(ResultSet, int[])
+     */
+    protected abstract String[] getColumnNames();
+
+    /**
+     * @param columnIndexes Per mapped column, its index in the ResultSet (0 if missing)
+     */
+    protected abstract T mapRow(ResultSet rs, int[] columnIndexes) throws SQLException;
+
+    @Override
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return mapRow(rs, getColumnIndexes(rs));
+    }
+
+    /**
+     * @return Per mapped column, index of the 1st column with the same label (case-insensitive), or 0
+     */
+    protected int[] getColumnIndexes(final ResultSet rs) throws SQLException {
+        final ResultSetIndexes last = LAST_INDEXES.get();
+        if ((last != null) && (last.resultSet.get() == rs) && (last.mapperClass == getClass())) {
+            return last.indexes;
+        }
+        final ResultSetMetaData rsmd = rs.getMetaData();
+        final int nCols = rsmd.getColumnCount();
+        final Map<String, Integer> indexesByLabel = new HashMap<>();
+        for (int i = 1;i <= nCols;i++) {
+            final String label = rsmd.getColumnLabel(i);
+            if (label != null) {
+                indexesByLabel.putIfAbsent(label.toLowerCase(), i);
+            }
+        }
+        final String[] colNames = getColumnNames();
+        final int[] indexes = new int[colNames.length];
+        for (int i = 0;i < colNames.length;i++) {
+            final Integer idx = indexesByLabel.get(colNames[i].toLowerCase());
+            indexes[i] = (idx != null) ? idx : 0;
+        }
+        LAST_INDEXES.set(new ResultSetIndexes(rs, getClass(), indexes));
+        return indexes;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return getColumnNames().clone();
+    }
+
+    /**
+     * Converts a column value as TwoWaysJdbcBeanMapper does: with Spring's ConversionService,
+     * else with Jackson
+     * @param value Not null
+     * @param type Boxed if primitive
+     */
+    @SuppressWarnings("unchecked")
+    protected static <V> V convert(final Object value, final Class<V> type) {
+        if (type.isInstance(value)) {
+            return (V) value;
+        }
+        if (CONVERSION_SERVICE.canConvert(value.getClass(), type)) {
+            try {
+                return CONVERSION_SERVICE.convert(value, type);
+            } catch (ConversionException ex) {
+                //Left to Jackson
+            }
+        }
+        return OBJECT_MAPPER.convertValue(value, type);
+    }
+
+    protected static IllegalArgumentException noSuchParameter(final String paramName) {
+        return new IllegalArgumentException("No bean property mapped for column/parameter: " + paramName);
+    }
+
+    private static class ResultSetIndexes {
+        private final WeakReference<ResultSet> resultSet;
+        /** Indexes depend only on the columns of the generated mapper */
+        private final Class<?> mapperClass;
+        private final int[] indexes;
+
+        private ResultSetIndexes(final ResultSet resultSet, final Class<?> mapperClass, final int[] indexes) {
+            this.resultSet = new WeakReference<>(resultSet);
+            this.mapperClass = mapperClass;
+            this.indexes = indexes;
+        }
+    }
+}
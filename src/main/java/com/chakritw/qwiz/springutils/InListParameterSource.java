@@ -0,0 +1,129 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Resolves the derived parameters rendered by QueryBuilder.InClause from the list param "p":
+ * "p__pad" (the list padded to a bucket size, repeating its last element) &
+ * "p__arr" (the list as an array, e.g. for "= ANY(:p__arr)"). Other names are passed through.
+ */
+public class InListParameterSource implements SqlParameterSource {
+    public static final String PADDED_SUFFIX = "__pad";
+    public static final String ARRAY_SUFFIX = "__arr";
+
+    protected final SqlParameterSource base;
+
+    public InListParameterSource(final SqlParameterSource base) {
+        this.base = base;
+    }
+
+    /**
+     * @return Smallest power of 2 >= n (n if <= 1)
+     */
+    public static int paddedSize(final int n) {
+        return (n <= 1) ? n : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * @return Values of a Collection/array param as a List (a single value as singleton list, null as null)
+     */
+    public static List<?> toList(final Object val) {
+        if (val == null) {
+            return null;
+        } else if (val instanceof List) {
+            return (List<?>) val;
+        } else if (val instanceof Collection) {
+            return new ArrayList<>((Collection<?>) val);
+        } else if (val instanceof Object[]) {
+            return Arrays.asList((Object[]) val);
+        } else if (val.getClass().isArray()) {
+            final int n = Array.getLength(val);
+            final List<Object> l = new ArrayList<>(n);
+            for (int i = 0;i < n;i++) {
+                l.add(Array.get(val, i));
+            }
+            return l;
+        }
+        return Collections.singletonList(val);
+    }
+
+    public static List<?> pad(final List<?> vals) {
+        final int n = vals.size();
+        final int padded = paddedSize(n);
+        if (padded == n) {
+            return vals;
+        }
+        final List<Object> l = new ArrayList<>(padded);
+        l.addAll(vals);
+        final Object last = vals.get(n - 1);
+        while (l.size() < padded) {
+            l.add(last);
+        }
+        return l;
+    }
+
+    /**
+     * @return Array typed by the 1st element's class (e.g. Long[]), as drivers infer the SQL array type from it
+     */
+    public static Object[] toArray(final List<?> vals) {
+        final Class<?> elemCls = ((vals.isEmpty()) || (vals.get(0) == null)) ? Object.class : vals.get(0).getClass();
+        final Object[] arr = (Object[]) Array.newInstance(elemCls, vals.size());
+        return vals.toArray(arr);
+    }
+
+    protected String baseNameOf(final String paramName) {
+        if (paramName.endsWith(PADDED_SUFFIX)) {
+            return paramName.substring(0, paramName.length() - PADDED_SUFFIX.length());
+        } else if (paramName.endsWith(ARRAY_SUFFIX)) {
+            return paramName.substring(0, paramName.length() - ARRAY_SUFFIX.length());
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasValue(String paramName) {
+        if (base.hasValue(paramName)) {
+            return true;
+        }
+        final String baseName = baseNameOf(paramName);
+        return (baseName != null) && (base.hasValue(baseName));
+    }
+
+    @Override
+    public Object getValue(String paramName) throws IllegalArgumentException {
+        if (base.hasValue(paramName)) {
+            return base.getValue(paramName);
+        }
+        final String baseName = baseNameOf(paramName);
+        if (baseName == null) {
+            return base.getValue(paramName);
+        }
+        final List<?> vals = toList(base.getValue(baseName));
+        if ((vals == null) || (vals.isEmpty())) {
+            return vals;
+        }
+        return (paramName.endsWith(PADDED_SUFFIX)) ? pad(vals) : toArray(vals);
+    }
+
+    @Override
+    public int getSqlType(String paramName) {
+        return (base.hasValue(paramName)) ? base.getSqlType(paramName) : TYPE_UNKNOWN;
+    }
+
+    @Override
+    public String getTypeName(String paramName) {
+        return (base.hasValue(paramName)) ? base.getTypeName(paramName) : null;
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        return base.getParameterNames();
+    }
+}
@@ -0,0 +1,17 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Column/parameter name of a property of a JdbcMapped bean (on its field, getter or setter)
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ ElementType.FIELD, ElementType.METHOD })
+public @interface JdbcColumn {
+    String value();
+}
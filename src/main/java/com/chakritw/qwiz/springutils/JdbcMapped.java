@@ -0,0 +1,22 @@
+package com.chakritw.qwiz.springutils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates, at compile time (see JdbcMapperProcessor), a mapper "<Bean>_JdbcMapper" (see GeneratedJdbcMapper)
+ * equivalent to TwoWaysJdbcBeanMapper.mapSameExcept(), mapping each readable property to the column
+ * of the same name, unless renamed with JdbcColumn or excluded with JdbcTransient.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JdbcMapped {
+    /**
+     * @return Properties not mapped
+     */
+    String[] exclude() default {};
+}
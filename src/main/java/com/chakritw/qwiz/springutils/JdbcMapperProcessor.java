@@ -0,0 +1,351 @@
+package com.chakritw.qwiz.springutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the GeneratedJdbcMapper of each JdbcMapped bean, as "<Bean>_JdbcMapper" in the same package
+ * (nested beans: "<Outer>_<Bean>_JdbcMapper").
+ *
+ * Opt-in: not registered in META-INF/services, so enable it explicitly, e.g. with Maven:
+ * <pre>
+ * &lt;plugin&gt;
+ *   &lt;artifactId&gt;maven-compiler-plugin&lt;/artifactId&gt;
+ *   &lt;configuration&gt;
+ *     &lt;annotationProcessors&gt;
+ *       &lt;annotationProcessor&gt;com.chakritw.qwiz.springutils.JdbcMapperProcessor&lt;/annotationProcessor&gt;
+ *     &lt;/annotationProcessors&gt;
+ *   &lt;/configuration&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ * (found on the compile classpath then; or list this artifact in annotationProcessorPaths as well),
+ * or javac -processor com.chakritw.qwiz.springutils.JdbcMapperProcessor.
+ * It loads none of the other classes of this library, so needs no Spring/Jackson on the processor path.
+ */
+@SupportedAnnotationTypes("com.chakritw.qwiz.springutils.JdbcMapped")
+public class JdbcMapperProcessor extends AbstractProcessor {
+    /** Same as TwoWaysJdbcBeanMapper.GETTER_PATTERN, without loading that class */
+    private static final Pattern GETTER_PATTERN = Pattern.compile("^(get|is)([A-Z]{1})([A-Za-z0-9_\\$]*)$");
+    /** Not GeneratedJdbcMapper.class, which would load Spring classes */
+    private static final String GENERATED_MAPPER_CLASS = "com.chakritw.qwiz.springutils.GeneratedJdbcMapper";
+    private static final String JDBC_COLUMN = JdbcColumn.class.getCanonicalName();
+    private static final String JDBC_TRANSIENT = JdbcTransient.class.getCanonicalName();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(JdbcMapped.class)) {
+            if ((element.getKind() != ElementKind.CLASS) || (!checkMappable((TypeElement) element))) {
+                error(element, "@JdbcMapped bean must be a non-private, non-abstract (static) class"
+                    + " with a non-private no-args constructor");
+                continue;
+            }
+            try {
+                generate((TypeElement) element);
+            } catch (IOException ex) {
+                error(element, "Cannot generate mapper: " + ex);
+            }
+        }
+        return true;
+    }
+
+    protected boolean checkMappable(final TypeElement type) {
+        final Set<Modifier> mods = type.getModifiers();
+        if ((mods.contains(Modifier.PRIVATE)) || (mods.contains(Modifier.ABSTRACT))
+            || ((type.getNestingKind() == NestingKind.MEMBER) && (!mods.contains(Modifier.STATIC)))
+            || ((type.getNestingKind() != NestingKind.TOP_LEVEL) && (type.getNestingKind() != NestingKind.MEMBER)))
+        {
+            return false;
+        }
+        for (ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if ((ctor.getParameters().isEmpty()) && (!ctor.getModifiers().contains(Modifier.PRIVATE))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void generate(final TypeElement type) throws IOException {
+        final String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        final String mapperName = flatName(type) + GeneratedJdbcMapper.CLASS_NAME_SUFFIX;
+        final String beanName = type.getQualifiedName().toString();
+        final List<Property> props = findProperties(type);
+
+        final StringBuilder sb = new StringBuilder(4096);
+        if (!pkg.isEmpty()) {
+            sb.append("package ").append(pkg).append(";\n\n");
+        }
+        sb.append("/**\n * Generated by ").append(JdbcMapperProcessor.class.getName()).append(" for ")
+            .append(beanName).append(": do not edit\n */\n");
+        sb.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        sb.append("public class ").append(mapperName).append(" extends ")
+            .append(GENERATED_MAPPER_CLASS).append('<').append(beanName).append("> {\n");
+        sb.append("    private static final String[] COLUMNS = {");
+        for (int i = 0;i < props.size();i++) {
+            sb.append((i > 0) ? ", " : " ").append(stringLiteral(props.get(i).column));
+        }
+        sb.append(" };\n\n");
+
+        sb.append("    public ").append(mapperName).append("() {\n        super(null);\n    }\n\n");
+        sb.append("    public ").append(mapperName).append('(').append(beanName).append(" bean) {\n")
+            .append("        super(bean);\n    }\n\n");
+        sb.append("    @Override\n    public Class<").append(beanName).append("> getBeanClass() {\n")
+            .append("        return ").append(beanName).append(".class;\n    }\n\n");
+        sb.append("    @Override\n    public ").append(mapperName).append(" withBean(").append(beanName)
+            .append(" bean) {\n        return new ").append(mapperName).append("(bean);\n    }\n\n");
+        sb.append("    @Override\n    protected String[] getColumnNames() {\n        return COLUMNS;\n    }\n\n");
+
+        sb.append("    @Override\n    protected ").append(beanName)
+            .append(" mapRow(java.sql.ResultSet rs, int[] idx) throws java.sql.SQLException {\n")
+            .append("        final ").append(beanName).append(" item = new ").append(beanName).append("();\n")
+            .append("        Object v;\n");
+        for (int i = 0;i < props.size();i++) {
+            final Property prop = props.get(i);
+            if (prop.writeExpr == null) {
+                continue;
+            }
+            final String boxed = boxedName(prop.writeType);
+            if (prop.writeType.getKind().isPrimitive()) {
+                //Nulls keep the default
+                sb.append("        if ((idx[").append(i).append("] > 0) && ((v = rs.getObject(idx[").append(i)
+                    .append("])) != null)) {\n")
+                    .append("            ").append(String.format(prop.writeExpr, "item",
+                        "convert(v, " + boxed + ".class)")).append(";\n")
+                    .append("        }\n");
+            } else {
+                sb.append("        if (idx[").append(i).append("] > 0) {\n")
+                    .append("            v = rs.getObject(idx[").append(i).append("]);\n")
+                    .append("            ").append(String.format(prop.writeExpr, "item",
+                        "(v != null) ? convert(v, " + boxed + ".class) : null")).append(";\n")
+                    .append("        }\n");
+            }
+        }
+        sb.append("        return item;\n    }\n\n");
+
+        sb.append("    @Override\n    public boolean hasValue(String paramName) {\n")
+            .append("        switch (paramName) {\n");
+        for (Property prop : props) {
+            sb.append("            case ").append(stringLiteral(prop.column)).append(":\n");
+        }
+        sb.append("                return true;\n            default:\n                return false;\n")
+            .append("        }\n    }\n\n");
+
+        sb.append("    @Override\n    public Object getValue(String paramName) {\n")
+            .append("        switch (paramName) {\n");
+        for (Property prop : props) {
+            sb.append("            case ").append(stringLiteral(prop.column)).append(":\n")
+                .append("                return ").append(String.format(prop.readExpr, "bean")).append(";\n");
+        }
+        sb.append("            default:\n                throw noSuchParameter(paramName);\n")
+            .append("        }\n    }\n}\n");
+
+        final String qualifiedName = (pkg.isEmpty()) ? mapperName : (pkg + "." + mapperName);
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(sb.toString());
+        }
+    }
+
+    /**
+     * Readable properties as in TwoWaysJdbcBeanMapper.getPropNamesAndTypesMap() (public fields, then
+     * getters), with the setter taking the getter type (else any), or the public field, to write them
+     */
+    protected List<Property> findProperties(final TypeElement type) {
+        final Set<String> excluded = new HashSet<>(Arrays.asList(type.getAnnotation(JdbcMapped.class).exclude()));
+        final List<? extends Element> members = processingEnv.getElementUtils().getAllMembers(type);
+        final Map<String, Property> props = new LinkedHashMap<>();
+        for (VariableElement fld : ElementFilter.fieldsIn(members)) {
+            if ((!fld.getModifiers().contains(Modifier.PUBLIC)) || (fld.getModifiers().contains(Modifier.STATIC))) {
+                continue;
+            }
+            final String name = fld.getSimpleName().toString();
+            final Property prop = new Property(name, "%s." + name);
+            if (!fld.getModifiers().contains(Modifier.FINAL)) {
+                prop.writeExpr = "%s." + name + " = %s";
+                prop.writeType = fld.asType();
+            }
+            props.put(name, prop);
+        }
+        final List<ExecutableElement> methods = ElementFilter.methodsIn(members);
+        final Map<String, TypeMirror> getterTypes = new LinkedHashMap<>();
+        for (ExecutableElement method : methods) {
+            final String name = getterPropName(method);
+            if (name == null) {
+                continue;
+            }
+            final Property prop = new Property(name, "%s." + method.getSimpleName() + "()");
+            final Property fldProp = props.get(name);
+            if (fldProp != null) {
+                prop.writeExpr = fldProp.writeExpr;
+                prop.writeType = fldProp.writeType;
+            }
+            props.put(name, prop);
+            getterTypes.put(name, method.getReturnType());
+        }
+        final Set<String> settersOfGetterType = new HashSet<>();
+        for (ExecutableElement method : methods) {
+            final String mName = method.getSimpleName().toString();
+            if ((!mName.startsWith("set")) || (mName.length() <= 3) || (method.getParameters().size() != 1)
+                || (!method.getModifiers().contains(Modifier.PUBLIC)) || (method.getModifiers().contains(Modifier.STATIC)))
+            {
+                continue;
+            }
+            final String name = mName.substring(3, 4).toLowerCase() + mName.substring(4);
+            final Property prop = props.get(name);
+            if ((prop == null) || (settersOfGetterType.contains(name))) {
+                continue;
+            }
+            final TypeMirror paramType = method.getParameters().get(0).asType();
+            final TypeMirror getterType = getterTypes.get(name);
+            if ((getterType != null) && (processingEnv.getTypeUtils().isSameType(paramType, getterType))) {
+                settersOfGetterType.add(name);
+            }
+            prop.writeExpr = "%s." + mName + "(%s)";
+            prop.writeType = paramType;
+        }
+
+        final List<Property> result = new ArrayList<>(props.size());
+        for (Property prop : props.values()) {
+            if ((excluded.contains(prop.name)) || (hasMemberAnnotation(type, prop.name, JDBC_TRANSIENT) != null)) {
+                continue;
+            }
+            final String column = getColumnName(type, prop.name);
+            prop.column = (column != null) ? column : prop.name;
+            result.add(prop);
+        }
+        return result;
+    }
+
+    /**
+     * @return Property name if a getter as matched by TwoWaysJdbcBeanMapper.GETTER_PATTERN, else null
+     */
+    protected static String getterPropName(final ExecutableElement method) {
+        final String mName = method.getSimpleName().toString();
+        if ((!method.getModifiers().contains(Modifier.PUBLIC)) || (method.getModifiers().contains(Modifier.STATIC))
+            || (!method.getParameters().isEmpty()) || (method.getReturnType().getKind() == TypeKind.VOID))
+        {
+            return null;
+        }
+        final int prefixLen = (mName.startsWith("get")) ? 3 : ((mName.startsWith("is")) ? 2 : 0);
+        if ((prefixLen == 0) || (mName.length() <= prefixLen)
+            || (!GETTER_PATTERN.matcher(mName).matches()))
+        {
+            return null;
+        }
+        final String name = mName.substring(prefixLen, prefixLen + 1).toLowerCase() + mName.substring(prefixLen + 1);
+        return ("class".equals(name)) ? null : name;
+    }
+
+    protected String getColumnName(final TypeElement type, final String propName) {
+        final Element annotated = hasMemberAnnotation(type, propName, JDBC_COLUMN);
+        if (annotated == null) {
+            return null;
+        }
+        return annotated.getAnnotation(JdbcColumn.class).value();
+    }
+
+    /**
+     * @return Field (any visibility), getter or setter of the property annotated with the annotation, or null
+     */
+    protected Element hasMemberAnnotation(final TypeElement type, final String propName, final String annotationName) {
+        final String capName = propName.substring(0, 1).toUpperCase() + propName.substring(1);
+        final Set<String> names = new HashSet<>(Arrays.asList(propName, "get" + capName, "is" + capName, "set" + capName));
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if ((member.getKind() != ElementKind.FIELD) && (member.getKind() != ElementKind.METHOD)) {
+                continue;
+            }
+            if (!names.contains(member.getSimpleName().toString())) {
+                continue;
+            }
+            if ((member.getKind() == ElementKind.METHOD) && (member.getSimpleName().contentEquals(propName))) {
+                continue;
+            }
+            for (javax.lang.model.element.AnnotationMirror am : member.getAnnotationMirrors()) {
+                if (((TypeElement) am.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                    return member;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected String boxedName(final TypeMirror type) {
+        final TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+        if (erased.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) erased)
+                .getQualifiedName().toString();
+        }
+        return erased.toString();
+    }
+
+    protected static String flatName(final TypeElement type) {
+        final StringBuilder sb = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while ((enclosing != null) && (!(enclosing instanceof PackageElement))) {
+            sb.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return sb.toString();
+    }
+
+    protected static String stringLiteral(final String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (char c : s.toCharArray()) {
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\').append(c);
+            } else if ((c < 0x20) || (c > 0x7e)) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    protected void error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    protected static class Property {
+        protected final String name;
+        /** Format of the read expression, given the bean variable */
+        protected final String readExpr;
+        /** Format of the write statement, given the bean variable & value, or null if read-only */
+        protected String writeExpr;
+        protected TypeMirror writeType;
+        protected String column;
+
+        protected Property(final String name, final String readExpr) {
+            this.name = name;
+            this.readExpr = readExpr;
+        }
+    }
+}
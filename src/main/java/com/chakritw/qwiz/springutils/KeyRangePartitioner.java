@@ -0,0 +1,139 @@
+package com.chakritw.qwiz.springutils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Splits [lo, hi] of a numeric or date/time key into contiguous ranges
+ * (see QueryBuilder.SelectClause.partitionBy()).
+ * Each range is lo <= k < hi, except the last one, which includes its hi.
+ */
+public final class KeyRangePartitioner {
+    private KeyRangePartitioner() {
+    }
+
+    public static final class Range {
+        private final Object lo;
+        private final Object hi;
+        private final boolean last;
+
+        public Range(final Object lo, final Object hi, final boolean last) {
+            this.lo = lo;
+            this.hi = hi;
+            this.last = last;
+        }
+
+        public Object getLo() {
+            return lo;
+        }
+
+        public Object getHi() {
+            return hi;
+        }
+
+        /**
+         * @return Whether hi is included
+         */
+        public boolean isLast() {
+            return last;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lo + "," + hi + (last ? "]" : ")");
+        }
+    }
+
+    /**
+     * @param lo Lowest key (inclusive): integral/decimal Number, java.util.Date (incl. java.sql types),
+     *   LocalDate or LocalDateTime
+     * @param hi Highest key (inclusive), of the same type
+     * @return At most n ranges (fewer if there aren't enough distinct integral values)
+     */
+    public static List<Range> split(final Object lo, final Object hi, final int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be > 0");
+        }
+        if ((lo instanceof BigDecimal) || (lo instanceof Double) || (lo instanceof Float)
+            || (hi instanceof BigDecimal) || (hi instanceof Double) || (hi instanceof Float))
+        {
+            return splitDecimal(new BigDecimal(lo.toString()), new BigDecimal(hi.toString()), n);
+        }
+        final long loVal = toLong(lo);
+        final long hiVal = toLong(hi);
+        final List<Range> ranges = new ArrayList<>(n);
+        if (hiVal <= loVal) {
+            ranges.add(new Range(lo, hi, true));
+            return ranges;
+        }
+        final BigInteger span = BigInteger.valueOf(hiVal).subtract(BigInteger.valueOf(loVal)).add(BigInteger.ONE);
+        final int nRanges = (span.compareTo(BigInteger.valueOf(n)) < 0) ? span.intValue() : n;
+        for (int i = 0;i < nRanges;i++) {
+            final long from = loVal + span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(nRanges)).longValue();
+            final boolean last = (i == nRanges - 1);
+            final long to = (last) ? hiVal
+                : loVal + span.multiply(BigInteger.valueOf(i + 1)).divide(BigInteger.valueOf(nRanges)).longValue();
+            //The original bounds, as converting back drops sub-millisecond parts of date/times
+            ranges.add(new Range((i == 0) ? lo : fromLong(from, lo), (last) ? hi : fromLong(to, hi), last));
+        }
+        return ranges;
+    }
+
+    private static List<Range> splitDecimal(final BigDecimal lo, final BigDecimal hi, final int n) {
+        final List<Range> ranges = new ArrayList<>(n);
+        if (hi.compareTo(lo) <= 0) {
+            ranges.add(new Range(lo, hi, true));
+            return ranges;
+        }
+        final int scale = Math.max(Math.max(lo.scale(), hi.scale()), 0) + 6;
+        final BigDecimal step = hi.subtract(lo).divide(BigDecimal.valueOf(n), scale, RoundingMode.DOWN);
+        for (int i = 0;i < n;i++) {
+            final boolean last = (i == n - 1);
+            final BigDecimal from = lo.add(step.multiply(BigDecimal.valueOf(i)));
+            final BigDecimal to = (last) ? hi : lo.add(step.multiply(BigDecimal.valueOf(i + 1)));
+            ranges.add(new Range(from, to, last));
+        }
+        return ranges;
+    }
+
+    private static long toLong(final Object val) {
+        if (val instanceof Number) {
+            return ((Number) val).longValue();
+        } else if (val instanceof Date) {
+            return ((Date) val).getTime();
+        } else if (val instanceof LocalDate) {
+            return ((LocalDate) val).toEpochDay();
+        } else if (val instanceof LocalDateTime) {
+            return Timestamp.valueOf((LocalDateTime) val).getTime();
+        }
+        throw new IllegalArgumentException("Unsupported key type for partitioning: "
+            + ((val != null) ? val.getClass().getName() : "null"));
+    }
+
+    private static Object fromLong(final long val, final Object sample) {
+        if (sample instanceof Integer) {
+            return (int) val;
+        } else if (sample instanceof Short) {
+            return (short) val;
+        } else if (sample instanceof Number) {
+            return val;
+        } else if (sample instanceof java.sql.Date) {
+            return new java.sql.Date(val);
+        } else if (sample instanceof Date) {
+            return new Timestamp(val);
+        } else if (sample instanceof LocalDate) {
+            return LocalDate.ofEpochDay(val);
+        } else if (sample instanceof LocalDateTime) {
+            return new Timestamp(val).toLocalDateTime();
+        }
+        throw new IllegalArgumentException("Unsupported key type for partitioning: "
+            + ((sample != null) ? sample.getClass().getName() : "null"));
+    }
+}
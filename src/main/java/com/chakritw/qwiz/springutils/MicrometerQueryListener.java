@@ -0,0 +1,81 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes QueryEvents to a Micrometer MeterRegistry, as timers "qwiz.query.render",
+ * "qwiz.query.connection.wait", "qwiz.query.execute" & "qwiz.query.mapping", and
+ * distribution summary "qwiz.query.rows", tagged with "query" (QueryEvent.getKey()) & "outcome".
+ *
+ * Needs micrometer-core on the classpath (an optional dependency), see isAvailable().
+ * Keep keys bounded (e.g. name queries with QueryBuilder.setQueryName()), as each one makes new meters.
+ */
+public class MicrometerQueryListener implements QueryListener {
+    public static final String PREFIX = "qwiz.query.";
+
+    protected final MeterRegistry registry;
+    protected final Map<String, Meters> metersByKey = new ConcurrentHashMap<>();
+
+    public MicrometerQueryListener(final MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return Whether Micrometer is on the classpath
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName("io.micrometer.core.instrument.MeterRegistry", false,
+                MicrometerQueryListener.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public void onQuery(QueryEvent event) {
+        final String key = (event.getKey() != null) ? event.getKey() : QueryMetricsRegistry.OTHER_KEY;
+        final String outcome = (event.isFailed()) ? "failure" : "success";
+        final Meters meters = metersByKey.computeIfAbsent(key + '\n' + outcome, (k) -> new Meters(key, outcome));
+        meters.render.record(event.getRenderNanos(), TimeUnit.NANOSECONDS);
+        meters.connectionWait.record(event.getConnectionWaitNanos(), TimeUnit.NANOSECONDS);
+        meters.execute.record(event.getExecuteNanos(), TimeUnit.NANOSECONDS);
+        meters.mapping.record(event.getMappingNanos(), TimeUnit.NANOSECONDS);
+        if (event.getRows() >= 0) {
+            meters.rows.record(event.getRows());
+        }
+    }
+
+    protected class Meters {
+        protected final Timer render;
+        protected final Timer connectionWait;
+        protected final Timer execute;
+        protected final Timer mapping;
+        protected final DistributionSummary rows;
+
+        protected Meters(final String key, final String outcome) {
+            this.render = timer("render", key, outcome);
+            this.connectionWait = timer("connection.wait", key, outcome);
+            this.execute = timer("execute", key, outcome);
+            this.mapping = timer("mapping", key, outcome);
+            this.rows = DistributionSummary.builder(PREFIX + "rows")
+                .tag("query", key)
+                .tag("outcome", outcome)
+                .register(registry);
+        }
+
+        private Timer timer(final String name, final String key, final String outcome) {
+            return Timer.builder(PREFIX + name)
+                .tag("query", key)
+                .tag("outcome", outcome)
+                .register(registry);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Parameters for a multi-row statement (see QueryBuilder.InsertClause.appendRowsTo()),
+ * resolving row-suffixed names (e.g. "name__2") against the source of that row ("name").
+ */
+public class MultiRowParameterSource implements SqlParameterSource {
+    public static final String ROW_SUFFIX_SEPARATOR = "__";
+
+    protected final List<? extends SqlParameterSource> rows;
+
+    public MultiRowParameterSource(final List<? extends SqlParameterSource> rows) {
+        this.rows = rows;
+    }
+
+    public static String rowParamName(final String name, final int row) {
+        return name + ROW_SUFFIX_SEPARATOR + row;
+    }
+
+    public int getRowsCount() {
+        return rows.size();
+    }
+
+    @Override
+    public boolean hasValue(String paramName) {
+        final int p = paramName.lastIndexOf(ROW_SUFFIX_SEPARATOR);
+        final int row = rowIndexOf(paramName, p);
+        return (row >= 0) && (rows.get(row).hasValue(paramName.substring(0, p)));
+    }
+
+    @Override
+    public Object getValue(String paramName) throws IllegalArgumentException {
+        final int p = paramName.lastIndexOf(ROW_SUFFIX_SEPARATOR);
+        final int row = rowIndexOf(paramName, p);
+        if (row < 0) {
+            throw new IllegalArgumentException("No value registered for key '" + paramName + "'");
+        }
+        return rows.get(row).getValue(paramName.substring(0, p));
+    }
+
+    @Override
+    public int getSqlType(String paramName) {
+        final int p = paramName.lastIndexOf(ROW_SUFFIX_SEPARATOR);
+        final int row = rowIndexOf(paramName, p);
+        return (row >= 0) ? rows.get(row).getSqlType(paramName.substring(0, p)) : TYPE_UNKNOWN;
+    }
+
+    @Override
+    public String getTypeName(String paramName) {
+        final int p = paramName.lastIndexOf(ROW_SUFFIX_SEPARATOR);
+        final int row = rowIndexOf(paramName, p);
+        return (row >= 0) ? rows.get(row).getTypeName(paramName.substring(0, p)) : null;
+    }
+
+    protected int rowIndexOf(final String paramName, final int sepPos) {
+        if (sepPos <= 0) {
+            return -1;
+        }
+        final int start = sepPos + ROW_SUFFIX_SEPARATOR.length();
+        final int len = paramName.length();
+        if (start >= len) {
+            return -1;
+        }
+        int row = 0;
+        for (int i = start;i < len;i++) {
+            final char c = paramName.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return -1;
+            }
+            row = row * 10 + (c - '0');
+        }
+        return (row < rows.size()) ? row : -1;
+    }
+}
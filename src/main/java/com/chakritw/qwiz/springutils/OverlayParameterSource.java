@@ -0,0 +1,72 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Adds (or overrides) values on top of other params, without copying them
+ * (e.g. the key range of a partitioned query, see QueryBuilder.execPartitioned()).
+ */
+public class OverlayParameterSource implements SqlParameterSource {
+    protected final SqlParameterSource base;
+    protected final Map<String, Object> values;
+
+    public OverlayParameterSource(final SqlParameterSource base) {
+        this.base = base;
+        this.values = new LinkedHashMap<>();
+    }
+
+    public OverlayParameterSource addValue(final String paramName, final Object value) {
+        values.put(paramName, value);
+        return this;
+    }
+
+    public SqlParameterSource getBase() {
+        return base;
+    }
+
+    @Override
+    public boolean hasValue(String paramName) {
+        return (values.containsKey(paramName)) || ((base != null) && (base.hasValue(paramName)));
+    }
+
+    @Override
+    public Object getValue(String paramName) throws IllegalArgumentException {
+        if (values.containsKey(paramName)) {
+            return values.get(paramName);
+        }
+        if (base == null) {
+            throw new IllegalArgumentException("No value registered for key '" + paramName + "'");
+        }
+        return base.getValue(paramName);
+    }
+
+    @Override
+    public int getSqlType(String paramName) {
+        return ((values.containsKey(paramName)) || (base == null)) ? TYPE_UNKNOWN : base.getSqlType(paramName);
+    }
+
+    @Override
+    public String getTypeName(String paramName) {
+        return ((values.containsKey(paramName)) || (base == null)) ? null : base.getTypeName(paramName);
+    }
+
+    @Override
+    public String[] getParameterNames() {
+        final Set<String> names = new LinkedHashSet<>();
+        if (base != null) {
+            final String[] baseNames = base.getParameterNames();
+            if (baseNames != null) {
+                for (String name : baseNames) {
+                    names.add(name);
+                }
+            }
+        }
+        names.addAll(values.keySet());
+        return names.toArray(new String[names.size()]);
+    }
+}
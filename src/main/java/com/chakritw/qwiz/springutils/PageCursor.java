@@ -0,0 +1,90 @@
+package com.chakritw.qwiz.springutils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+/**
+ * Last-seen key values of a page, for keyset paging (see QueryBuilder.SelectClause.pageByKeyset()),
+ * with an opaque string token form to hand out to API callers.
+ *
+ * Values should be JSON scalars (numbers, strings, booleans) to survive the token round-trip.
+ */
+public class PageCursor {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    protected final List<Object> keys;
+
+    public PageCursor(final List<?> keys) {
+        this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+    }
+
+    public static PageCursor of(final Object... keys) {
+        return new PageCursor(Arrays.asList(keys));
+    }
+
+    /**
+     * @param keyFn Extracts the ORDER BY column values of an item
+     * @return Cursor after the last item, or null if page is empty (no more pages)
+     */
+    public static <T> PageCursor after(final List<T> page, final Function<T, Object[]> keyFn) {
+        if ((page == null) || (page.isEmpty())) {
+            return null;
+        }
+        return of(keyFn.apply(page.get(page.size() - 1)));
+    }
+
+    /**
+     * @param token As returned by encode(); null or empty for the first page
+     * @return Decoded cursor, or null for the first page
+     */
+    public static PageCursor decode(final String token) {
+        if ((token == null) || (token.isEmpty())) {
+            return null;
+        }
+        try {
+            final byte[] json = Base64.getUrlDecoder().decode(token);
+            return new PageCursor(Arrays.asList(OBJECT_MAPPER.readValue(json, Object[].class)));
+        } catch (IOException | IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid page cursor: " + token, ex);
+        }
+    }
+
+    public String encode() {
+        try {
+            final byte[] json = OBJECT_MAPPER.writeValueAsBytes(keys);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot encode page cursor: " + ex.getMessage(), ex);
+        }
+    }
+
+    public List<Object> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Adds the key values as "keyset_0".."keyset_N" params
+     */
+    public MapSqlParameterSource addTo(final MapSqlParameterSource params) {
+        final int n = keys.size();
+        for (int i = 0;i < n;i++) {
+            params.addValue(QueryBuilder.KeysetPagingClause.PARAM_PREFIX + i, keys.get(i));
+        }
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "PageCursor" + keys;
+    }
+}
@@ -2,17 +2,33 @@ package com.chakritw.qwiz.springutils;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
@@ -21,12 +37,29 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.util.StringBuilderFormattable;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * TODO: Copy to qwiz-spring-utils
@@ -36,6 +69,18 @@ public class QueryBuilder<T, TKey> {
     public static final String POSTGRESQL = "postgresql";
     public static final String MSSQL = "mssql";
     public static final String SQLITE = "sqlite";
+    public static final String H2 = "h2";
+
+    protected static final int PARSED_SQL_CACHE_LIMIT = 64;
+    protected static final int DEFAULT_RENDER_BUFFER_SIZE = 256;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    /** Bind parameters per statement, when dialect is unknown */
+    public static final int DEFAULT_MAX_BIND_PARAMETERS = 999;
+    /** Column of the total count, for CountStrategy.WINDOW */
+    public static final String TOTAL_COUNT_COL = "qwiz_total_count";
+    /** Max. values per IN list before it gets chunked (see InStrategy) */
+    public static final int DEFAULT_IN_CHUNK_SIZE = 1024;
 
     protected String schemaName;
     protected String dialect;
@@ -44,29 +89,73 @@ public class QueryBuilder<T, TKey> {
     protected DataSource dataSource;
     protected NamedParameterJdbcTemplate jdbcTemplate;
     protected SqlParameterSource parameters;
+    protected TableMetadataCache metadataCache;
+    /** Whether the cache shared per DataSource is used, as long as none is set */
+    protected boolean sharedMetadataCache = true;
+    protected SchemaSnapshot schemaSnapshot;
+    protected final Map<String, ParsedSql> parsedSqlCache = new ConcurrentHashMap<>();
 
     protected OpClause opClause;
+    protected volatile boolean frozen;
+    protected int renderSizeHint = DEFAULT_RENDER_BUFFER_SIZE;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected int commitEveryBatches;
+    protected int maxBindParameters;
+    protected Class<TKey> keyType;
+    protected AsyncQueryExecutor asyncExecutor;
+    protected QueryResultCache resultCache;
+    protected int inChunkSize = DEFAULT_IN_CHUNK_SIZE;
+    protected final List<InClause> inClauses = new ArrayList<>();
+    protected String queryName;
+    protected final List<QueryListener> listeners = new ArrayList<>();
+    protected StatementHints statementHints = StatementHints.NONE;
+    /** Event of the statement executing on this thread, if any listener */
+    protected static final ThreadLocal<QueryEvent> CURRENT_EVENT = new ThreadLocal<>();
     //protected WhereClause whereClause;
 
     public QueryBuilder() {
     }
 
+    /**
+     * Makes this builder (and all of its clauses) read-only, so it can be shared,
+     * e.g. as a singleton bean, and executed concurrently without copying.
+     * Any later attempt to reconfigure it throws IllegalStateException.
+     */
+    public QueryBuilder<T, TKey> freeze() {
+        this.frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    protected void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("QueryBuilder is frozen, cannot be modified");
+        }
+    }
+
     public QueryBuilder<T, TKey> setSchemaName(String schema) {
+        checkNotFrozen();
         this.schemaName = schema;
         return this;
     }
 
     public QueryBuilder<T, TKey> setDialect(String dialect) {
+        checkNotFrozen();
         this.dialect = dialect;
         return this;
     }
     
     public QueryBuilder<T, TKey> setClausesDelimiter(String delim) {
+        checkNotFrozen();
         this.clausesDelimiter = delim;
         return this;
     }
 
     public QueryBuilder<T, TKey> setDataSource(DataSource dataSource) {
+        checkNotFrozen();
         this.dataSource = dataSource;
         this.jdbcTemplate = (dataSource != null)
             ? new NamedParameterJdbcTemplate(dataSource)
@@ -74,6 +163,209 @@ public class QueryBuilder<T, TKey> {
         return this;
     }
 
+    /**
+     * @param cache Cache for table columns discovered from metadata (null to disable caching), instead of
+     *   the one shared per DataSource (see TableMetadataCache.forDataSource()). Must not be shared with
+     *   builders of other databases, as tables are told apart by schema & name only.
+     */
+    public QueryBuilder<T, TKey> setMetadataCache(TableMetadataCache cache) {
+        checkNotFrozen();
+        this.metadataCache = cache;
+        this.sharedMetadataCache = false;
+        return this;
+    }
+
+    /**
+     * @return Cache set, else the one shared by builders of the DataSource (null without DataSource)
+     */
+    public TableMetadataCache getMetadataCache() {
+        if (sharedMetadataCache) {
+            return (dataSource != null) ? TableMetadataCache.forDataSource(dataSource) : null;
+        }
+        return metadataCache;
+    }
+
+    /**
+     * @param snapshot Pre-captured columns, consulted before the metadata cache (for the same schema only)
+     */
+    public QueryBuilder<T, TKey> setSchemaSnapshot(SchemaSnapshot snapshot) {
+        checkNotFrozen();
+        this.schemaSnapshot = snapshot;
+        return this;
+    }
+
+    /**
+     * @param batchSize Default number of rows per JDBC batch, for execBatch()/execInsertBatch()
+     */
+    public QueryBuilder<T, TKey> setBatchSize(int batchSize) {
+        checkNotFrozen();
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param commitEveryBatches Default no. of batches between commits (0 = no intermediate commits),
+     *   for execBatch()/execInsertBatch(); ignored within a Spring-managed transaction
+     */
+    public QueryBuilder<T, TKey> setCommitEveryBatches(int commitEveryBatches) {
+        checkNotFrozen();
+        this.commitEveryBatches = commitEveryBatches;
+        return this;
+    }
+
+    /**
+     * @param maxBindParameters Max. bind parameters per statement, for execInsertMultiRow()
+     *   (0 = by dialect, see maxBindParametersOf())
+     */
+    public QueryBuilder<T, TKey> setMaxBindParameters(int maxBindParameters) {
+        checkNotFrozen();
+        this.maxBindParameters = maxBindParameters;
+        return this;
+    }
+
+    public int getMaxBindParameters() {
+        return (maxBindParameters > 0) ? maxBindParameters : maxBindParametersOf(dialect);
+    }
+
+    /**
+     * @return Bind parameters usable per statement with the dialect's server/driver
+     *   (MSSQL: 2098, as statements with 2100 are rejected)
+     */
+    public static int maxBindParametersOf(String dialect) {
+        if (dialect == null) {
+            return DEFAULT_MAX_BIND_PARAMETERS;
+        }
+        switch (dialect) {
+            case POSTGRESQL:
+                return 32767;
+            case MSSQL:
+                return 2098;
+            case SQLITE:
+                return 999;
+            default:
+                return DEFAULT_MAX_BIND_PARAMETERS;
+        }
+    }
+
+    /**
+     * @return Rows limit of an INSERT ... VALUES list of the dialect (MSSQL: 1000), else Integer.MAX_VALUE
+     */
+    public static int maxValuesRowsOf(String dialect) {
+        return (MSSQL.equals(dialect)) ? 1000 : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return Rows per multi-row INSERT of nCols columns (see execInsertMultiRow()): at most batchSize,
+     *   maxValuesRowsOf() the dialect & as many as getMaxBindParameters() allows, but at least 1
+     */
+    public int getRowsPerInsert(int nCols) {
+        final int rows = Math.min(Math.min(batchSize, maxValuesRowsOf(dialect)),
+            getMaxBindParameters() / Math.max(nCols, 1));
+        return Math.max(rows, 1);
+    }
+
+    /**
+     * @param inChunkSize Max. values per IN list rendered as bind markers (see InStrategy)
+     */
+    public QueryBuilder<T, TKey> setInChunkSize(int inChunkSize) {
+        checkNotFrozen();
+        if (inChunkSize <= 0) {
+            throw new IllegalArgumentException("inChunkSize must be > 0");
+        }
+        this.inChunkSize = inChunkSize;
+        return this;
+    }
+
+    /**
+     * @return inChunkSize, lowered to a power of 2 leaving at least half of getMaxBindParameters()
+     *   to other params, so padded lists never exceed it
+     */
+    public int getInChunkSize() {
+        return Integer.highestOneBit(Math.max(Math.min(inChunkSize, getMaxBindParameters() / 2), 1));
+    }
+
+    /**
+     * @param name Key for metrics of this builder's statements (null = by SQL fingerprint, see QueryEvent)
+     */
+    public QueryBuilder<T, TKey> setQueryName(String name) {
+        checkNotFrozen();
+        this.queryName = name;
+        return this;
+    }
+
+    public String getQueryName() {
+        return queryName;
+    }
+
+    /**
+     * @param listener Notified after each statement executed (e.g. a QueryMetricsRegistry), incl. each
+     *   JDBC batch of execBatch()/execInsertBatch()/execUpsertBatch() & each statement of execInsertMultiRow()
+     */
+    public QueryBuilder<T, TKey> addListener(QueryListener listener) {
+        checkNotFrozen();
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @param hints Defaults for all statements of this builder (overridden per query by SelectClause.hints())
+     */
+    public QueryBuilder<T, TKey> setStatementHints(StatementHints hints) {
+        checkNotFrozen();
+        this.statementHints = (hints != null) ? hints : StatementHints.NONE;
+        return this;
+    }
+
+    /**
+     * @return Defaults of this builder, overridden by those of the op. clause
+     */
+    public StatementHints getStatementHints() {
+        final StatementHints clauseHints = (opClause != null) ? opClause.statementHints : null;
+        return statementHints.overriddenBy(clauseHints);
+    }
+
+    /**
+     * @return IN clauses of all WHERE/ON clauses, in creation order
+     */
+    public List<InClause> getInClauses() {
+        return Collections.unmodifiableList(inClauses);
+    }
+
+    /**
+     * @param keyType Type generated keys are converted to (null = as returned by the driver)
+     */
+    public QueryBuilder<T, TKey> setKeyType(Class<TKey> keyType) {
+        checkNotFrozen();
+        this.keyType = keyType;
+        return this;
+    }
+
+    /**
+     * @param executor For exec*Async() (null = shared one for the DataSource, see AsyncQueryExecutor.forDataSource())
+     */
+    public QueryBuilder<T, TKey> setAsyncExecutor(AsyncQueryExecutor executor) {
+        checkNotFrozen();
+        this.asyncExecutor = executor;
+        return this;
+    }
+
+    public AsyncQueryExecutor getAsyncExecutor() {
+        return (asyncExecutor != null) ? asyncExecutor : AsyncQueryExecutor.forDataSource(dataSource);
+    }
+
+    /**
+     * @param cache Cache for execQuery() results of the SELECT clause (null = no caching),
+     *   bypassed within transactions, whose reads may see their own uncommitted writes
+     */
+    public QueryBuilder<T, TKey> setResultCache(QueryResultCache cache) {
+        checkNotFrozen();
+        this.resultCache = cache;
+        return this;
+    }
+
     public QueryBuilder<T, TKey> select() {
         setOpClause(this.new SelectClause(), null);
         return this;
@@ -99,6 +391,14 @@ public class QueryBuilder<T, TKey> {
         return this;
     }
 
+    /**
+     * @param keyCols Columns identifying an existing row (a unique/primary key)
+     */
+    public QueryBuilder<T, TKey> upsert(String table, String[] keyCols, Consumer<UpsertClause> processFn) {
+        setOpClause(this.new UpsertClause(table, Arrays.asList(keyCols)), processFn);
+        return this;
+    }
+
     public QueryBuilder<T, TKey> update(String table, Consumer<UpdateClause> processFn) {
         setOpClause(this.new UpdateClause(table), processFn);
         return this;
@@ -118,6 +418,7 @@ public class QueryBuilder<T, TKey> {
     }
 
     protected void setOpClause(OpClause clause, Consumer<? extends OpClause> processFn) {
+        checkNotFrozen();
         if (processFn != null) {
             ((Consumer<OpClause>)processFn).accept(clause);
         }
@@ -125,64 +426,1155 @@ public class QueryBuilder<T, TKey> {
     }
 
     public List<T> execQuery(SqlParameterSource params, TwoWaysJdbcBeanMapper<T> mapper) {
-        return execQuery(mapper, mapper);
+        return execQuery(params, (RowMapper<T>) mapper);
     }
     public List<T> execQuery(SqlParameterSource params, RowMapper<T> rowMapper) throws DataAccessException {
-        
-        String sql;
+        return execQuery(this::build, params, rowMapper);
+    }
+    protected List<T> execQuery(final SqlRenderer renderer, final SqlParameterSource params,
+        final RowMapper<T> rowMapper) throws DataAccessException
+    {
+        final InClause chunkedIn = getChunkedInClause(params);
+        if (chunkedIn != null) {
+            checkChunkable(chunkedIn);
+            return execQueryChunked(chunkedIn, renderer, params, rowMapper);
+        }
+        return execQueryUnchunked(renderer, params, rowMapper);
+    }
+    protected List<T> execQueryUnchunked(final SqlRenderer renderer, final SqlParameterSource params,
+        final RowMapper<T> rowMapper) throws DataAccessException
+    {
+        if ((resultCache != null) && (opClause instanceof QueryBuilder.SelectClause)
+            && (!TransactionSynchronizationManager.isActualTransactionActive()))
+        {
+            return execQueryCached(renderer, params, rowMapper);
+        }
+        return execOnConnection(renderer, params, (con, sql) -> query(con, sql, params, rowMapper));
+    }
+    /**
+     * Renders first (borrowing a Connection only for columns not known yet), so hits need no Connection
+     */
+    protected List<T> execQueryCached(final SqlRenderer renderer, final SqlParameterSource params,
+        final RowMapper<T> rowMapper) throws DataAccessException
+    {
+        final String sql;
         try {
-            sql = build(params);
+            sql = renderer.render(params, null);
         } catch (SQLException ex) {
-            throw new DataAccessResourceFailureException(ex.getMessage(), ex);
+            throw jdbcTemplate.getJdbcTemplate().getExceptionTranslator().translate("execQuery", null, ex);
+        }
+        final Object[] values = getCacheKeyValues(sql, params);
+        final Set<String> tables = ((SelectClause) opClause).getTableNames();
+        final Integer maxRows = getStatementHints().getMaxRows();
+        final Object mappingKey = (maxRows != null) ? Arrays.asList(getMappingKey(rowMapper), maxRows)
+            : getMappingKey(rowMapper);
+        return resultCache.get(sql, values, mappingKey, tables,
+            () -> execOnConnection((p, metadata) -> sql, params, (con, s) -> query(con, s, params, rowMapper)));
+    }
+    /**
+     * @return Values of the bind markers of the SQL, then the lists of IN clauses filling temp. tables
+     *   (which the SQL has no markers for)
+     */
+    protected Object[] getCacheKeyValues(final String sql, final SqlParameterSource params) {
+        final Object[] values = NamedParameterUtils.buildValueArray(getParsedSql(sql), withInLists(params), null);
+        List<Object> tempTableLists = null;
+        for (InClause in : inClauses) {
+            if (in.resolveStrategy(params) == InStrategy.TEMP_TABLE) {
+                if (tempTableLists == null) {
+                    tempTableLists = new ArrayList<>(Arrays.asList(values));
+                }
+                tempTableLists.add(in.getValues(params));
+            }
+        }
+        return (tempTableLists != null) ? tempTableLists.toArray() : values;
+    }
+    protected List<T> query(final Connection con, final String sql, final SqlParameterSource params,
+        final RowMapper<T> rowMapper) throws SQLException
+    {
+        final QueryEvent event = CURRENT_EVENT.get();
+        try (PreparedStatement ps = prepareStatement(con, sql, params);
+            ResultSet rs = ps.executeQuery())
+        {
+            if (event == null) {
+                return new RowMapperResultSetExtractor<>(rowMapper).extractData(rs);
+            }
+            final List<T> result = new RowMapperResultSetExtractor<>((RowMapper<T>) (r, rowNum) -> {
+                final long start = System.nanoTime();
+                try {
+                    return rowMapper.mapRow(r, rowNum);
+                } finally {
+                    event.mappingNanos += System.nanoTime() - start;
+                }
+            }).extractData(rs);
+            event.rows = result.size();
+            return result;
+        }
+    }
+    /**
+     * Runs the query once per chunk of the IN list, in parallel on the async executor,
+     * concatenating results in chunk order.
+     */
+    protected List<T> execQueryChunked(final InClause chunkedIn, final SqlRenderer renderer,
+        final SqlParameterSource params, final RowMapper<T> rowMapper) throws DataAccessException
+    {
+        final List<Supplier<List<T>>> tasks = new ArrayList<>();
+        for (SqlParameterSource chunkParams : chunkedIn.chunk(params)) {
+            tasks.add(() -> execQueryUnchunked(renderer, chunkParams, rowMapper));
+        }
+        return concat(execAll(tasks));
+    }
+    /**
+     * Runs the tasks in parallel on the async executor, or one after the other on the current thread:
+     * within a transaction (so all see its data, as a single statement would), or if already running
+     * a task of the executor (e.g. from execQueryAsync()), as waiting there for sub-tasks would hold
+     * the thread & permit they need, deadlocking once all are held so.
+     * @return Results, in the order of the tasks
+     */
+    protected <R> List<R> execAll(final List<Supplier<R>> tasks) throws DataAccessException {
+        final AsyncQueryExecutor executor = getAsyncExecutor();
+        final List<R> results = new ArrayList<>(tasks.size());
+        if ((TransactionSynchronizationManager.isActualTransactionActive()) || (executor.isInTask())) {
+            for (Supplier<R> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        }
+        final List<CompletableFuture<R>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<R> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        for (CompletableFuture<R> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+    /**
+     * Rejects chunking a SELECT whose result would differ from the concatenated results of its chunks:
+     * paged, ordered, grouped or DISTINCT, or with the IN list not ANDed with all other conditions
+     */
+    protected void checkChunkable(final InClause chunkedIn) {
+        if (opClause instanceof QueryBuilder.SelectClause) {
+            final SelectClause selectClause = (SelectClause) opClause;
+            if ((selectClause.pagingClause != null) || (selectClause.isOrdered())
+                || (selectClause.isGroupedOrDistinct()))
+            {
+                throw new IllegalStateException("Paged, ordered, grouped or DISTINCT SELECT cannot be chunked"
+                    + " (IN list " + chunkedIn.pName + ")");
+            }
+        }
+        for (QueryPart part = chunkedIn.parent;(part != null) && (part != opClause);part = part.parent) {
+            if (((part instanceof QueryBuilder.WhereClause) && (!"AND".equalsIgnoreCase(((WhereClause) part).conj)))
+                || (part instanceof QueryBuilder.SelectClause))
+            {
+                throw new IllegalStateException("IN list " + chunkedIn.pName
+                    + " cannot be chunked: not ANDed with all other conditions");
+            }
         }
+    }
+    /**
+     * @return 1st IN clause to be chunked with the params (see InStrategy.CHUNKED), or null
+     */
+    protected InClause getChunkedInClause(final SqlParameterSource params) {
+        for (InClause in : inClauses) {
+            if (in.resolveStrategy(params) == InStrategy.CHUNKED) {
+                return in;
+            }
+        }
+        return null;
+    }
 
-        return jdbcTemplate.query(sql, params, rowMapper);
+    /**
+     * @return What tells apart results of the same query mapped differently: the mapping of
+     *   TwoWaysJdbcBeanMapper (a copy, as it may be remapped later), the mapped class of
+     *   BeanPropertyRowMapper, the class of generated mappers; else the mapper instance itself,
+     *   as mappers of the same class (e.g. lambdas) may map differently
+     */
+    protected Object getMappingKey(final RowMapper<T> rowMapper) {
+        if (rowMapper instanceof TwoWaysJdbcBeanMapper) {
+            final TwoWaysJdbcBeanMapper<T> mapper = (TwoWaysJdbcBeanMapper<T>) rowMapper;
+            return Arrays.asList(mapper.beanClass, new HashMap<>(mapper.invMap));
+        }
+        if (rowMapper.getClass() == BeanPropertyRowMapper.class) {
+            return Arrays.asList(BeanPropertyRowMapper.class, ((BeanPropertyRowMapper<T>) rowMapper).getMappedClass());
+        }
+        if (rowMapper instanceof GeneratedJdbcMapper) {
+            return rowMapper.getClass();
+        }
+        return rowMapper;
     }
-    public int exec(SqlParameterSource params) throws DataAccessException {
-        String sql;
+
+    /**
+     * Drops cached results (in all QueryResultCaches) depending on the table written by the op. clause;
+     * again on completion of the surrounding transaction, if any.
+     */
+    protected void invalidateWrittenTables() {
+        if (!(opClause instanceof QueryBuilder.UpdateClause)) {
+            return;
+        }
+        final List<String> tables = Collections.singletonList(
+            QueryResultCache.tableName(((UpdateClause) opClause).tableName));
+        QueryResultCache.invalidateTablesEverywhere(tables);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    QueryResultCache.invalidateTablesEverywhere(tables);
+                }
+            });
+        }
+    }
+    /**
+     * Runs the (paged) SELECT along with its count query (see SelectClause.appendCountQueryTo()):
+     * concurrently on the async executor, unless within a transaction (then one after the other,
+     * so both see the same data) or already on a task of the executor (see execAll()).
+     */
+    public Page<T> execPage(SqlParameterSource params, RowMapper<T> rowMapper) throws DataAccessException {
+        return execPage(params, rowMapper, CountStrategy.CONCURRENT_QUERY);
+    }
+    /**
+     * @param countStrategy WINDOW is used only if supportsWindowCount(), & the select is not DISTINCT
+     */
+    public Page<T> execPage(SqlParameterSource params, RowMapper<T> rowMapper, CountStrategy countStrategy)
+        throws DataAccessException
+    {
+        if (!(opClause instanceof QueryBuilder.SelectClause)) {
+            throw new IllegalStateException("No SELECT clause set");
+        }
+        final SelectClause selectClause = (SelectClause) opClause;
+        final Pageable pageable = selectClause.getPageable();
+        final SqlRenderer countRenderer = (p, metadata) -> {
+            final StringBuilder sqlb = new StringBuilder(renderSizeHint);
+            selectClause.appendCountQueryTo(sqlb, p, metadata);
+            return sqlb.toString();
+        };
+        if ((countStrategy == CountStrategy.WINDOW) && (supportsWindowCount())
+            && (!selectClause.isDistinct()) && (getChunkedInClause(params) == null))
+        {
+            return execPageWithWindowCount(selectClause, pageable, countRenderer, params, rowMapper);
+        }
+        if ((TransactionSynchronizationManager.isActualTransactionActive()) || (getAsyncExecutor().isInTask())) {
+            final List<T> content = execQuery(params, rowMapper);
+            return new PageImpl<>(content, pageable, execCount(countRenderer, params));
+        }
+        final CompletableFuture<Long> count = getAsyncExecutor().submit(() -> execCount(countRenderer, params));
+        final List<T> content;
         try {
-            sql = build(params);
+            content = execQuery(params, rowMapper);
+        } catch (RuntimeException ex) {
+            count.cancel(false);
+            throw ex;
+        }
+        return new PageImpl<>(content, pageable, join(count));
+    }
+    /**
+     * Single statement, with the total count selected as an extra column of each row
+     */
+    protected Page<T> execPageWithWindowCount(final SelectClause selectClause, final Pageable pageable,
+        final SqlRenderer countRenderer, final SqlParameterSource params, final RowMapper<T> rowMapper)
+        throws DataAccessException
+    {
+        final SqlRenderer renderer = (p, metadata) -> {
+            final StringBuilder sqlb = new StringBuilder(renderSizeHint);
+            selectClause.appendTo(sqlb, p, metadata, "COUNT(*) OVER() AS " + TOTAL_COUNT_COL, true);
+            return sqlb.toString();
+        };
+        final long[] total = new long[] { -1L };
+        final RowMapper<T> countingMapper = (rs, rowNum) -> {
+            if (rowNum == 0) {
+                total[0] = rs.getLong(TOTAL_COUNT_COL);
+            }
+            return rowMapper.mapRow(rs, rowNum);
+        };
+        final List<T> content = execOnConnection(renderer, params,
+            (con, sql) -> query(con, sql, params, countingMapper));
+        if (total[0] < 0) {
+            //No rows: past the last page, or none at all
+            total[0] = ((pageable.isPaged()) && (pageable.getOffset() > 0)) ? execCount(countRenderer, params) : 0L;
+        }
+        return new PageImpl<>(content, pageable, total[0]);
+    }
+    /**
+     * Sums the counts of all chunks if an IN list is chunked
+     */
+    protected long execCount(final SqlRenderer countRenderer, final SqlParameterSource params)
+        throws DataAccessException
+    {
+        final InClause chunkedIn = getChunkedInClause(params);
+        if (chunkedIn != null) {
+            checkChunkable(chunkedIn);
+            long n = 0L;
+            for (SqlParameterSource chunkParams : chunkedIn.chunk(params)) {
+                n += execCount(countRenderer, chunkParams);
+            }
+            return n;
+        }
+        return execOnConnection(countRenderer, params, (con, sql) -> {
+            try (PreparedStatement ps = prepareStatement(con, sql, params);
+                ResultSet rs = ps.executeQuery())
+            {
+                return (rs.next()) ? rs.getLong(1) : 0L;
+            }
+        });
+    }
+    /**
+     * @return Whether the dialect supports window functions, for CountStrategy.WINDOW
+     */
+    public boolean supportsWindowCount() {
+        return (POSTGRESQL.equals(dialect)) || (MSSQL.equals(dialect)) || (SQLITE.equals(dialect))
+            || (H2.equals(dialect));
+    }
+    /**
+     * Joins the future, rethrowing its failure if unchecked
+     */
+    protected static <R> R join(final CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    public CompletableFuture<List<T>> execQueryAsync(SqlParameterSource params, RowMapper<T> rowMapper) {
+        return getAsyncExecutor().submit(() -> execQuery(params, rowMapper));
+    }
+    public CompletableFuture<Integer> execAsync(SqlParameterSource params) {
+        return getAsyncExecutor().submit(() -> exec(params));
+    }
+    public CompletableFuture<TKey> execInsertAsync(SqlParameterSource params) {
+        return getAsyncExecutor().submit(() -> execInsert(params));
+    }
+
+    /**
+     * Runs the SELECT (see SelectClause.partitionBy()) as one query per key range, in parallel
+     * on the async executor (so on at most as many connections as it allows), with rows of each
+     * range mapped on its own thread; one after the other if already on an async task (see execAll()).
+     * Results are concatenated in key range order.
+     * Paged selects are rejected, as each range would be paged instead of the whole result.
+     * A maxRows hint limits the whole result, not each range.
+     */
+    public List<T> execPartitioned(SqlParameterSource params, RowMapper<T> rowMapper) throws DataAccessException {
+        return execPartitioned(params, rowMapper, null);
+    }
+    /**
+     * @param comparator If not null, results of all ranges (each sorted by the ORDER BY clause)
+     *   are k-way merged with it, to keep the ORDER BY order across ranges
+     */
+    public List<T> execPartitioned(SqlParameterSource params, RowMapper<T> rowMapper, Comparator<? super T> comparator)
+        throws DataAccessException
+    {
+        if ((!(opClause instanceof QueryBuilder.SelectClause)) || (((SelectClause) opClause).partitionClause == null)) {
+            throw new IllegalStateException("No partitioned SELECT clause set");
+        }
+        final SelectClause selectClause = (SelectClause) opClause;
+        if (selectClause.pagingClause != null) {
+            throw new IllegalStateException("Paged SELECT cannot be partitioned");
+        }
+        final PartitionClause partition = selectClause.partitionClause;
+        Object lo = partition.lo;
+        Object hi = partition.hi;
+        if ((lo == null) || (hi == null)) {
+            final SqlRenderer boundsRenderer = (p, metadata) -> {
+                final StringBuilder sqlb = new StringBuilder(renderSizeHint);
+                selectClause.appendBoundsQueryTo(sqlb, p, metadata);
+                return sqlb.toString();
+            };
+            final Object[] bounds = execOnConnection(boundsRenderer, params, (con, sql) -> {
+                try (PreparedStatement ps = prepareStatement(con, sql, params);
+                    ResultSet rs = ps.executeQuery())
+                {
+                    return (rs.next()) ? new Object[] { rs.getObject(1), rs.getObject(2) } : new Object[2];
+                }
+            });
+            lo = (lo != null) ? lo : bounds[0];
+            hi = (hi != null) ? hi : bounds[1];
+            if ((lo == null) || (hi == null)) {
+                //No rows
+                return new ArrayList<>();
+            }
+        }
+
+        final List<KeyRangePartitioner.Range> ranges = KeyRangePartitioner.split(lo, hi, partition.nPartitions);
+        final List<Supplier<List<T>>> tasks = new ArrayList<>(ranges.size());
+        for (KeyRangePartitioner.Range range : ranges) {
+            final SqlParameterSource rangeParams = partition.bind(params, range);
+            tasks.add(() -> execQuery(rangeParams, rowMapper));
+        }
+        final List<List<T>> results = execAll(tasks);
+
+        final List<T> merged = (comparator != null) ? mergeSorted(results, comparator) : concat(results);
+        //Each range returns up to maxRows rows (its first ones in order), so the first maxRows of all suffice
+        final Integer maxRows = getStatementHints().getMaxRows();
+        return ((maxRows != null) && (maxRows > 0) && (merged.size() > maxRows))
+            ? new ArrayList<>(merged.subList(0, maxRows)) : merged;
+    }
+    protected static <E> List<E> concat(final List<List<E>> lists) {
+        int n = 0;
+        for (List<E> l : lists) {
+            n += l.size();
+        }
+        final List<E> result = new ArrayList<>(n);
+        lists.forEach(result::addAll);
+        return result;
+    }
+    /**
+     * K-way merge of sorted lists
+     */
+    protected static <E> List<E> mergeSorted(final List<List<E>> lists, final Comparator<? super E> comparator) {
+        final int k = lists.size();
+        //Heap of {list index, position}
+        final PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(k, 1),
+            (a, b) -> comparator.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+        int n = 0;
+        for (int i = 0;i < k;i++) {
+            final int size = lists.get(i).size();
+            if (size > 0) {
+                heap.add(new int[] { i, 0 });
+                n += size;
+            }
+        }
+        final List<E> result = new ArrayList<>(n);
+        while (!heap.isEmpty()) {
+            final int[] top = heap.poll();
+            final List<E> l = lists.get(top[0]);
+            result.add(l.get(top[1]));
+            if (++top[1] < l.size()) {
+                heap.add(top);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Executes the query & maps rows lazily as the Stream is consumed, with at most
+     * DEFAULT_FETCH_SIZE rows (or the fetch size hinted, see getStatementHints()) buffered by the driver.
+     * The Stream holds its Connection until closed: always use it in try-with-resources.
+     */
+    public Stream<T> execStream(SqlParameterSource params, RowMapper<T> rowMapper) throws DataAccessException {
+        final Integer hintedFetchSize = getStatementHints().getFetchSize();
+        return execStream(params, rowMapper, (hintedFetchSize != null) ? hintedFetchSize : DEFAULT_FETCH_SIZE);
+    }
+    /**
+     * @param fetchSize Rows fetched per round-trip (0 = driver default). For POSTGRESQL, a cursor
+     *   (autocommit off) is used unless already in a transaction, as otherwise the driver reads all rows.
+     */
+    public Stream<T> execStream(SqlParameterSource params, RowMapper<T> rowMapper, int fetchSize)
+        throws DataAccessException
+    {
+        return execStream(this::build, params, rowMapper, fetchSize);
+    }
+    protected Stream<T> execStream(final SqlRenderer renderer, final SqlParameterSource params,
+        final RowMapper<T> rowMapper, final int fetchSize) throws DataAccessException
+    {
+        final JdbcTemplate jdbc = jdbcTemplate.getJdbcTemplate();
+        final Connection con = DataSourceUtils.getConnection(dataSource);
+        boolean useCursor = false;
+        boolean readOnlySet = false;
+        String sql = null;
+        PreparedStatement ps = null;
+        try {
+            useCursor = (POSTGRESQL.equals(dialect)) && (fetchSize > 0)
+                && (!DataSourceUtils.isConnectionTransactional(con, dataSource)) && (con.getAutoCommit());
+            if (useCursor) {
+                con.setAutoCommit(false);
+            }
+            readOnlySet = setReadOnlyIfHinted(con);
+            sql = renderer.render(params, con.getMetaData());
+            ps = prepareStatement(con, sql, params);
+            if (fetchSize > 0) {
+                StatementHints.setFetchSize(ps, fetchSize);
+            }
+            final ResultSet rs = ps.executeQuery();
+            final PreparedStatement stmt = ps;
+            final boolean restoreAutoCommit = useCursor;
+            final boolean restoreReadOnly = readOnlySet;
+            return StreamSupport.stream(new ResultSetSpliterator<>(rs, rowMapper, jdbc.getExceptionTranslator(), sql), false)
+                .onClose(() -> closeStream(con, stmt, rs, restoreAutoCommit, restoreReadOnly, null));
         } catch (SQLException ex) {
-            throw new DataAccessResourceFailureException(ex.getMessage(), ex);
+            final DataAccessException translated = jdbc.getExceptionTranslator().translate("execStream", sql, ex);
+            closeStream(con, ps, null, useCursor, readOnlySet, translated);
+            throw translated;
+        } catch (RuntimeException ex) {
+            closeStream(con, ps, null, useCursor, readOnlySet, ex);
+            throw ex;
+        }
+    }
+    /**
+     * Ends the cursor transaction (committed, or rolled back on failure) & restores the autocommit
+     * & read-only flags, each even if the previous step failed, then releases the Connection
+     * @param failure Failure being thrown, if any: failures to close are added to it as suppressed,
+     *   else thrown
+     */
+    protected void closeStream(final Connection con, final PreparedStatement ps, final ResultSet rs,
+        final boolean restoreAutoCommit, final boolean restoreReadOnly, final Throwable failure)
+    {
+        SQLException closeFailure = null;
+        try {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(ps);
+            if (restoreAutoCommit) {
+                try {
+                    if (failure != null) {
+                        con.rollback();
+                    } else {
+                        con.commit();
+                    }
+                } catch (SQLException ex) {
+                    closeFailure = ex;
+                }
+                try {
+                    con.setAutoCommit(true);
+                } catch (SQLException ex) {
+                    closeFailure = withSuppressed(closeFailure, ex);
+                }
+            }
+            if (restoreReadOnly) {
+                try {
+                    con.setReadOnly(false);
+                } catch (SQLException ex) {
+                    closeFailure = withSuppressed(closeFailure, ex);
+                }
+            }
+        } finally {
+            DataSourceUtils.releaseConnection(con, dataSource);
+        }
+        if (closeFailure == null) {
+            return;
         }
+        if (failure != null) {
+            failure.addSuppressed(closeFailure);
+            return;
+        }
+        throw jdbcTemplate.getJdbcTemplate().getExceptionTranslator().translate("closeStream", null, closeFailure);
+    }
+    /**
+     * @return The first failure (with the next one suppressed), or the next one if none yet
+     */
+    protected static SQLException withSuppressed(final SQLException first, final SQLException next) {
+        if (first == null) {
+            return next;
+        }
+        first.addSuppressed(next);
+        return first;
+    }
+    /**
+     * Like execStream(), passing each mapped row to the action.
+     * @return Number of rows processed
+     */
+    public long forEach(SqlParameterSource params, RowMapper<T> rowMapper, Consumer<? super T> action)
+        throws DataAccessException
+    {
+        return forEach(params, rowMapper, DEFAULT_FETCH_SIZE, action);
+    }
+    public long forEach(SqlParameterSource params, RowMapper<T> rowMapper, int fetchSize, Consumer<? super T> action)
+        throws DataAccessException
+    {
+        long n = 0;
+        try (Stream<T> stream = execStream(params, rowMapper, fetchSize)) {
+            final Iterator<T> it = stream.iterator();
+            while (it.hasNext()) {
+                action.accept(it.next());
+                n++;
+            }
+        }
+        return n;
+    }
+    public int exec(SqlParameterSource params) throws DataAccessException {
+        return exec(this::build, params);
+    }
+    protected int exec(final SqlRenderer renderer, final SqlParameterSource params) throws DataAccessException {
+        final InClause chunkedIn = getChunkedInClause(params);
+        if (chunkedIn != null) {
+            //Sequentially, so chunks of a write run in order (& in the surrounding transaction, if any)
+            int n = 0;
+            for (SqlParameterSource chunkParams : chunkedIn.chunk(params)) {
+                n += exec(renderer, chunkParams);
+            }
+            return n;
+        }
+        try {
+            return execOnConnection(renderer, params, (con, sql) -> {
+                try (PreparedStatement ps = prepareStatement(con, sql, params)) {
+                    final int n = ps.executeUpdate();
+                    final QueryEvent event = CURRENT_EVENT.get();
+                    if (event != null) {
+                        event.rows = n;
+                    }
+                    return n;
+                }
+            });
+        } finally {
+            invalidateWrittenTables();
+        }
+    }
+    /**
+     * Renders the statement once (with the 1st item) & executes it for every item, in JDBC batches
+     * (e.g. for UPDATE/DELETE by id).
+     */
+    public BatchResult<TKey> execBatch(Collection<T> items, TwoWaysJdbcBeanMapper<T> mapper)
+        throws DataAccessException
+    {
+        return execBatch(items, mapper, batchSize, commitEveryBatches, false);
+    }
+    /**
+     * Like execBatch(), for the INSERT clause, also returning the generated keys (if any) in items order,
+     * one round trip per batch. Some drivers (e.g. for MSSQL) return no keys for batches:
+     * use execInsertMultiRow() instead.
+     */
+    public BatchResult<TKey> execInsertBatch(Collection<T> items, TwoWaysJdbcBeanMapper<T> mapper)
+        throws DataAccessException
+    {
+        return execInsertBatch(items, mapper, batchSize, commitEveryBatches);
+    }
+    /**
+     * @param batchSize Rows per JDBC batch
+     * @param commitEveryBatches Commit after every N batches (0 = no intermediate commits). Ignored if
+     *   within a Spring-managed transaction; otherwise, on failure, batches already committed stay committed.
+     */
+    public BatchResult<TKey> execInsertBatch(Collection<T> items, TwoWaysJdbcBeanMapper<T> mapper,
+        int batchSize, int commitEveryBatches) throws DataAccessException
+    {
+        if (!(opClause instanceof QueryBuilder.InsertClause)) {
+            throw new IllegalStateException("No INSERT clause set");
+        }
+        return execBatch(items, mapper, batchSize, commitEveryBatches, true);
+    }
+    protected BatchResult<TKey> execBatch(final Collection<T> items, final TwoWaysJdbcBeanMapper<T> mapper,
+        final int batchSize, final int commitEveryBatches, final boolean returnKeys) throws DataAccessException
+    {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        if (items.isEmpty()) {
+            return new BatchResult<>(new int[0], new ArrayList<>());
+        }
+        final String idCol = (opClause instanceof QueryBuilder.UpdateClause) ? ((UpdateClause) opClause).idCol : null;
+        try {
+            return jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<BatchResult<TKey>>) (con) -> {
+                final SqlParameterSource firstParams = mapper.withBean(items.iterator().next());
+                final String sql = build(firstParams, con.getMetaData());
+                final ParsedSql parsedSql = getParsedSql(sql);
+                final String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, firstParams);
+                final PreparedStatementCreatorFactory pscf = new PreparedStatementCreatorFactory(sqlToUse,
+                    NamedParameterUtils.buildSqlParameterList(parsedSql, firstParams));
+                final BatchResult.Collector<TKey> collector = new BatchResult.Collector<>(items.size());
+                final boolean manageCommits = (commitEveryBatches > 0)
+                    && (!DataSourceUtils.isConnectionTransactional(con, dataSource));
+                final boolean prevAutoCommit = con.getAutoCommit();
+                if ((manageCommits) && (prevAutoCommit)) {
+                    con.setAutoCommit(false);
+                }
+                try (PreparedStatement ps = createStatement(con, sqlToUse, returnKeys, idCol)) {
+                    final ConnectionSqlCallback<Void> flush = (c, s) -> {
+                        flushBatch(ps, collector, returnKeys);
+                        return null;
+                    };
+                    int nPending = 0;
+                    int nBatches = 0;
+                    SqlParameterSource batchParams = null;
+                    for (T item : items) {
+                        final SqlParameterSource itemParams = mapper.withBean(item);
+                        final Object[] values = NamedParameterUtils.buildValueArray(parsedSql, itemParams, null);
+                        pscf.newPreparedStatementSetter(values).setValues(ps);
+                        ps.addBatch();
+                        if (nPending == 0) {
+                            batchParams = itemParams;
+                        }
+                        if (++nPending >= batchSize) {
+                            execWithEvent(con, sql, batchParams, nPending, flush);
+                            nPending = 0;
+                            if ((manageCommits) && ((++nBatches % commitEveryBatches) == 0)) {
+                                con.commit();
+                            }
+                        }
+                    }
+                    if (nPending > 0) {
+                        execWithEvent(con, sql, batchParams, nPending, flush);
+                    }
+                    if (manageCommits) {
+                        con.commit();
+                    }
+                } catch (SQLException | RuntimeException ex) {
+                    if (manageCommits) {
+                        con.rollback();
+                    }
+                    throw ex;
+                } finally {
+                    if ((manageCommits) && (prevAutoCommit)) {
+                        con.setAutoCommit(true);
+                    }
+                }
 
-        return jdbcTemplate.update(sql, params);
+                return collector.toResult();
+            });
+        } finally {
+            invalidateWrittenTables();
+        }
     }
+    /**
+     * Like execBatch(), for the UPSERT clause: inserts or updates every item, in JDBC batches.
+     */
+    public BatchResult<TKey> execUpsertBatch(Collection<T> items, TwoWaysJdbcBeanMapper<T> mapper)
+        throws DataAccessException
+    {
+        if (!(opClause instanceof QueryBuilder.UpsertClause)) {
+            throw new IllegalStateException("No UPSERT clause set");
+        }
+        return execBatch(items, mapper, batchSize, commitEveryBatches, false);
+    }
+    /**
+     * Inserts the items with multi-row INSERT ... VALUES (...),(...) statements, as many rows per
+     * statement as allowed by getRowsPerInsert(), on a single connection.
+     * Update counts are per row (Statement.SUCCESS_NO_INFO if the driver didn't report all rows).
+     * If the INSERT clause has an id column, the generated keys are returned as well, one round trip
+     * per statement (with RETURNING/OUTPUT for POSTGRESQL/MSSQL).
+     */
+    public BatchResult<TKey> execInsertMultiRow(Collection<T> items, TwoWaysJdbcBeanMapper<T> mapper)
+        throws DataAccessException
+    {
+        if (!(opClause instanceof QueryBuilder.InsertClause)) {
+            throw new IllegalStateException("No INSERT clause set");
+        }
+        final InsertClause insertClause = (InsertClause) opClause;
+        if (items.isEmpty()) {
+            return new BatchResult<>(new int[0], new ArrayList<>());
+        }
+        final int nItems = items.size();
+        try {
+            return jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<BatchResult<TKey>>) (con) -> {
+                final DatabaseMetaData metadata = con.getMetaData();
+                final int nCols = insertClause.getInsertColumns(metadata).size();
+                final int rowsPerStmt = Math.min(nItems, getRowsPerInsert(nCols));
+                final String idCol = insertClause.idCol;
+                final boolean inlineKeys = isKeyReturnedInline(idCol);
+                final BatchResult.Collector<TKey> collector = new BatchResult.Collector<>(nItems);
+                final List<SqlParameterSource> rows = new ArrayList<>(rowsPerStmt);
+                String fullSql = null;
+                for (T item : items) {
+                    rows.add(mapper.withBean(item));
+                    if (rows.size() == rowsPerStmt) {
+                        if (fullSql == null) {
+                            fullSql = buildInsertRows(insertClause, rowsPerStmt, metadata, inlineKeys);
+                        }
+                        execInsertRows(con, fullSql, rows, idCol, inlineKeys, collector);
+                        rows.clear();
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    execInsertRows(con, buildInsertRows(insertClause, rows.size(), metadata, inlineKeys),
+                        rows, idCol, inlineKeys, collector);
+                }
+
+                return collector.toResult();
+            });
+        } finally {
+            invalidateWrittenTables();
+        }
+    }
+    protected String buildInsertRows(final InsertClause insertClause, final int nRows, final DatabaseMetaData metadata,
+        final boolean returnKey) throws SQLException
+    {
+        final StringBuilder sqlb = new StringBuilder(renderSizeHint * 2);
+        insertClause.appendRowsTo(sqlb, nRows, metadata, returnKey);
+        return sqlb.toString();
+    }
+    protected void execInsertRows(final Connection con, final String sql, final List<SqlParameterSource> rows,
+        final String idCol, final boolean inlineKeys, final BatchResult.Collector<TKey> collector) throws SQLException
+    {
+        final int nRows = rows.size();
+        final SqlParameterSource params = new MultiRowParameterSource(rows);
+        //The caller reuses rows, while listeners may read params later (e.g. SlowQueryLog's EXPLAIN)
+        final SqlParameterSource eventParams = (listeners.isEmpty()) ? params
+            : new MultiRowParameterSource(new ArrayList<>(rows));
+        final int n = execWithEvent(con, sql, eventParams, nRows, (c, s) -> {
+            if (inlineKeys) {
+                int nKeys = 0;
+                try (PreparedStatement ps = prepareStatement(c, s, params, false, null);
+                    ResultSet rs = ps.executeQuery())
+                {
+                    while (rs.next()) {
+                        collector.addKey(readKey(rs));
+                        nKeys++;
+                    }
+                }
+                return nKeys;
+            }
+            final boolean returnKeys = (idCol != null);
+            try (PreparedStatement ps = prepareStatement(c, s, params, returnKeys, idCol)) {
+                final int nUpdated = ps.executeUpdate();
+                if (returnKeys) {
+                    readKeys(ps.getGeneratedKeys(), collector);
+                }
+                return nUpdated;
+            }
+        });
+        final int[] counts = new int[nRows];
+        Arrays.fill(counts, (n == nRows) ? 1 : Statement.SUCCESS_NO_INFO);
+        collector.addUpdateCounts(counts);
+    }
+
+    protected void flushBatch(final PreparedStatement ps, final BatchResult.Collector<TKey> collector,
+        final boolean returnKeys) throws SQLException
+    {
+        collector.addUpdateCounts(ps.executeBatch());
+        if (returnKeys) {
+            readKeys(ps.getGeneratedKeys(), collector);
+        }
+    }
+    protected void readKeys(final ResultSet keysRS, final BatchResult.Collector<TKey> collector) throws SQLException {
+        try (ResultSet rs = keysRS) {
+            while (rs.next()) {
+                collector.addKey(readKey(rs));
+            }
+        }
+    }
+    protected TKey readKey(final ResultSet keysRS) throws SQLException {
+        return (TKey) ((keyType != null) ? JdbcUtils.getResultSetValue(keysRS, 1, keyType)
+            : JdbcUtils.getResultSetValue(keysRS, 1));
+    }
+
+    /**
+     * Inserts the item, with columns mapped to same-named properties
+     */
     public TKey execInsert(T item, Consumer<TKey> keySetter) throws DataAccessException {
-        TwoWaysJdbcBeanMapper beanMapper = new TwoWaysJdbcBeanMapper<T>(item);
-        TKey key = execInsert(beanMapper, (Class<T>)item.getClass());
+        return execInsert(item, new TwoWaysJdbcBeanMapper<T>(item).mapSame(), keySetter);
+    }
+    public TKey execInsert(T item, TwoWaysJdbcBeanMapper<T> mapper, Consumer<TKey> keySetter) throws DataAccessException {
+        TKey key = execInsert(mapper.withBean(item));
         if ((key != null) && (keySetter != null)) {
             keySetter.accept(key);
         }
         return key;
     }
     public TKey execInsert(SqlParameterSource params, Class<T> resultType) throws DataAccessException {
-        String sql;
+        return execInsert(params);
+    }
+    /**
+     * Executes the INSERT clause & returns the generated key (if the clause has an id column) in the
+     * same round trip: with RETURNING for POSTGRESQL, OUTPUT INSERTED for MSSQL, or else
+     * through Statement.getGeneratedKeys(). The key is converted to keyType, if set.
+     * @return Generated key, or null if none
+     */
+    public TKey execInsert(SqlParameterSource params) throws DataAccessException {
+        if (!(opClause instanceof QueryBuilder.InsertClause)) {
+            throw new IllegalStateException("No INSERT clause set");
+        }
+        final InsertClause insertClause = (InsertClause) opClause;
+        final String idCol = insertClause.idCol;
+        final boolean inlineKey = isKeyReturnedInline(idCol);
+        final SqlRenderer renderer = (p, metadata) -> {
+            final StringBuilder sqlb = new StringBuilder(renderSizeHint);
+            insertClause.appendInsertTo(sqlb, p, metadata, -1, inlineKey);
+            return sqlb.toString();
+        };
         try {
-            sql = build(params);
-        } catch (SQLException ex) {
-            throw new DataAccessResourceFailureException(ex.getMessage(), ex);
+            return execOnConnection(renderer, params, (con, sql) -> {
+                if (inlineKey) {
+                    try (PreparedStatement ps = prepareStatement(con, sql, params, false, null);
+                        ResultSet rs = ps.executeQuery())
+                    {
+                        return (rs.next()) ? readKey(rs) : null;
+                    }
+                }
+                final boolean returnKeys = (idCol != null);
+                try (PreparedStatement ps = prepareStatement(con, sql, params, returnKeys, idCol)) {
+                    ps.executeUpdate();
+                    if (!returnKeys) {
+                        return null;
+                    }
+                    try (ResultSet keysRS = ps.getGeneratedKeys()) {
+                        return (keysRS.next()) ? readKey(keysRS) : null;
+                    }
+                }
+            });
+        } finally {
+            invalidateWrittenTables();
         }
-        //final ObjectMapper objectMapper = new ObjectMapper();
-        
-        return jdbcTemplate.execute(sql, params, (result) -> {
-            ResultSet keysRS = result.getGeneratedKeys();
-            //TODO:
-            Object key = keysRS.getObject(0);
-            return (TKey)key;
-            //return objectMapper.convertValue(fromValue, toValueType);
-        });
     }
 
+    /**
+     * @return Whether the generated key is returned by the INSERT statement itself
+     *   (RETURNING/OUTPUT), rather than through Statement.getGeneratedKeys()
+     */
+    protected boolean isKeyReturnedInline(final String idCol) {
+        return (idCol != null) && ((POSTGRESQL.equals(dialect)) || (MSSQL.equals(dialect)));
+    }
+
+    /**
+     * Renders SQL without borrowing a Connection, as long as all needed columns are
+     * either explicit, in the schema snapshot or in the metadata cache.
+     */
     public String build(SqlParameterSource params) throws SQLException {
-        final StringBuilder sqlb = new StringBuilder();
-        try (Connection conn = dataSource.getConnection()) {
-            final DatabaseMetaData metadata = conn.getMetaData();
-            sqlb.append(opClause.build(params, metadata));
+        return build(params, null);
+    }
+    /**
+     * @param metadata Consulted only for columns not known yet (if null, a Connection
+     *   is borrowed from the DataSource just for that lookup)
+     */
+    public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+        final StringBuilder sqlb = new StringBuilder(renderSizeHint);
+        appendTo(sqlb, params, metadata);
+        //Racy but harmless: only used to pre-size the next buffer
+        final int len = sqlb.length();
+        if (len > renderSizeHint) {
+            renderSizeHint = len + (len >> 3);
         }
-
         return sqlb.toString();
     }
+    /**
+     * Renders the whole statement at the end of the given buffer.
+     */
+    public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+        opClause.appendTo(sqlb, params, metadata);
+    }
+
+    /**
+     * Renders & runs the statement on the same checked-out Connection
+     * (SQLExceptions get translated by the JdbcTemplate).
+     */
+    protected <R> R execOnConnection(final SqlParameterSource params, final ConnectionSqlCallback<R> action)
+        throws DataAccessException
+    {
+        return execOnConnection(this::build, params, action);
+    }
+    protected <R> R execOnConnection(final SqlRenderer renderer, final SqlParameterSource params,
+        final ConnectionSqlCallback<R> action) throws DataAccessException
+    {
+        if (!listeners.isEmpty()) {
+            return execOnConnectionWithEvent(renderer, params, action);
+        }
+        return jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<R>) (con) -> {
+            final String sql = renderer.render(params, con.getMetaData());
+            return execWithInLists(con, sql, params, action);
+        });
+    }
+    /**
+     * Like execOnConnection(), timing each phase into a QueryEvent for the listeners
+     */
+    protected <R> R execOnConnectionWithEvent(final SqlRenderer renderer, final SqlParameterSource params,
+        final ConnectionSqlCallback<R> action) throws DataAccessException
+    {
+        final QueryEvent event = new QueryEvent(queryName, params);
+        final long start = System.nanoTime();
+        try {
+            return jdbcTemplate.getJdbcOperations().execute((ConnectionCallback<R>) (con) -> {
+                final long connected = System.nanoTime();
+                event.connectionWaitNanos = connected - start;
+                event.sql = renderer.render(params, con.getMetaData());
+                final long rendered = System.nanoTime();
+                event.renderNanos = rendered - connected;
+                final QueryEvent outerEvent = CURRENT_EVENT.get();
+                CURRENT_EVENT.set(event);
+                try {
+                    return execWithInLists(con, event.sql, params, action);
+                } finally {
+                    CURRENT_EVENT.set(outerEvent);
+                    event.executeNanos = Math.max(System.nanoTime() - rendered - event.mappingNanos, 0L);
+                }
+            });
+        } catch (RuntimeException | Error ex) {
+            event.failure = ex;
+            throw ex;
+        } finally {
+            fireQueryEvent(event);
+        }
+    }
+    /**
+     * Runs one statement (or JDBC batch) of a bulk write on its Connection, timed into a QueryEvent
+     * for the listeners, if any (execution only: bulk writes render once & hold one Connection)
+     * @param params Params of the (1st) row
+     * @param rows Rows written by the statement
+     */
+    protected <R> R execWithEvent(final Connection con, final String sql, final SqlParameterSource params,
+        final long rows, final ConnectionSqlCallback<R> action) throws SQLException
+    {
+        if (listeners.isEmpty()) {
+            return action.doWithSql(con, sql);
+        }
+        final QueryEvent event = new QueryEvent(queryName, params);
+        event.sql = sql;
+        final long start = System.nanoTime();
+        try {
+            final R result = action.doWithSql(con, sql);
+            event.rows = rows;
+            return result;
+        } catch (SQLException | RuntimeException | Error ex) {
+            event.failure = ex;
+            throw ex;
+        } finally {
+            event.executeNanos = System.nanoTime() - start;
+            fireQueryEvent(event);
+        }
+    }
+    protected void fireQueryEvent(final QueryEvent event) {
+        for (QueryListener listener : listeners) {
+            try {
+                listener.onQuery(event);
+            } catch (RuntimeException ex) {
+                //Metrics must never fail the statement
+            }
+        }
+    }
+    /**
+     * Runs the action, with the temp. tables of IN lists filled meanwhile (see InStrategy.TEMP_TABLE)
+     */
+    protected <R> R execWithInLists(final Connection con, final String sql, final SqlParameterSource params,
+        final ConnectionSqlCallback<R> action) throws SQLException
+    {
+        final List<InClause> tempTableIns = getTempTableInClauses(params);
+        if (tempTableIns.isEmpty()) {
+            return execWithReadOnly(con, sql, action);
+        }
+        final QueryEvent event = CURRENT_EVENT.get();
+        if (event != null) {
+            event.usingTempTables = true;
+        }
+        for (InClause in : tempTableIns) {
+            in.fillTempTable(con, params);
+        }
+        try {
+            return execWithReadOnly(con, sql, action);
+        } finally {
+            for (InClause in : tempTableIns) {
+                in.clearTempTable(con);
+            }
+        }
+    }
+    /**
+     * Runs the action with the Connection flagged read-only meanwhile, if hinted (see StatementHints.withReadOnly())
+     */
+    protected <R> R execWithReadOnly(final Connection con, final String sql, final ConnectionSqlCallback<R> action)
+        throws SQLException
+    {
+        final boolean readOnlySet = setReadOnlyIfHinted(con);
+        try {
+            return action.doWithSql(con, sql);
+        } finally {
+            if (readOnlySet) {
+                con.setReadOnly(false);
+            }
+        }
+    }
+    /**
+     * @return Whether the Connection was flagged read-only (so must be reset), i.e. if hinted,
+     *   not already read-only & not in a Spring-managed transaction
+     */
+    protected boolean setReadOnlyIfHinted(final Connection con) throws SQLException {
+        if ((!getStatementHints().isReadOnly()) || (DataSourceUtils.isConnectionTransactional(con, dataSource))
+            || (con.isReadOnly()))
+        {
+            return false;
+        }
+        con.setReadOnly(true);
+        return true;
+    }
+    protected List<InClause> getTempTableInClauses(final SqlParameterSource params) {
+        List<InClause> result = Collections.emptyList();
+        for (InClause in : inClauses) {
+            if (in.resolveStrategy(params) == InStrategy.TEMP_TABLE) {
+                if (result.isEmpty()) {
+                    result = new ArrayList<>();
+                }
+                result.add(in);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Turns this builder into a template caching rendered SQL per combination of IfExpr outcomes.
+     * The builder gets frozen.
+     */
+    public QueryTemplate<T, TKey> compile() {
+        if (opClause == null) {
+            throw new IllegalStateException("Nothing to compile: no SELECT/INSERT/UPDATE/DELETE clause set");
+        }
+        freeze();
+        return new QueryTemplate<>(this);
+    }
+
+    /**
+     * @return Outcomes of all IfExpr reached with the params (without rendering anything)
+     */
+    public ConditionSignature evalConditions(SqlParameterSource params) {
+        final ConditionSignature sig = new ConditionSignature();
+        opClause.evalConditions(params, sig);
+        return sig;
+    }
+
+    protected PreparedStatement prepareStatement(final Connection con, final String sql,
+        final SqlParameterSource params) throws SQLException
+    {
+        return prepareStatement(con, sql, params, false, null);
+    }
+    /**
+     * @param returnKeys Whether generated keys are requested
+     * @param keyCol Key column requested, or null for Statement.RETURN_GENERATED_KEYS
+     */
+    protected PreparedStatement prepareStatement(final Connection con, final String sql,
+        final SqlParameterSource rawParams, final boolean returnKeys, final String keyCol) throws SQLException
+    {
+        final SqlParameterSource params = withInLists(rawParams);
+        final ParsedSql parsedSql = getParsedSql(sql);
+        final String sqlToUse = NamedParameterUtils.substituteNamedParameters(parsedSql, params);
+        final Object[] values = NamedParameterUtils.buildValueArray(parsedSql, params, null);
+        final List<SqlParameter> declaredParams = NamedParameterUtils.buildSqlParameterList(parsedSql, params);
+        final PreparedStatementCreatorFactory pscf = new PreparedStatementCreatorFactory(sqlToUse, declaredParams);
+        final PreparedStatement ps = createStatement(con, sqlToUse, returnKeys, keyCol);
+        try {
+            pscf.newPreparedStatementSetter(values).setValues(ps);
+        } catch (SQLException | RuntimeException ex) {
+            JdbcUtils.closeStatement(ps);
+            throw ex;
+        }
+        return ps;
+    }
+    /**
+     * @return Params also resolving the derived params of IN lists (see InListParameterSource)
+     */
+    protected SqlParameterSource withInLists(final SqlParameterSource params) {
+        if ((inClauses.isEmpty()) || (params == null) || (params instanceof InListParameterSource)) {
+            return params;
+        }
+        return new InListParameterSource(params);
+    }
+    /**
+     * Prepares the statement with the hints of getStatementHints()
+     * (but the result set type/concurrency/holdability, when returning keys)
+     */
+    protected PreparedStatement createStatement(final Connection con, final String sqlToUse,
+        final boolean returnKeys, final String keyCol) throws SQLException
+    {
+        final StatementHints hints = getStatementHints();
+        final PreparedStatement ps;
+        if (!returnKeys) {
+            ps = hints.prepare(con, sqlToUse);
+        } else {
+            ps = (keyCol != null) ? con.prepareStatement(sqlToUse, new String[] { keyCol })
+                : con.prepareStatement(sqlToUse, Statement.RETURN_GENERATED_KEYS);
+        }
+        try {
+            hints.applyTo(ps);
+        } catch (SQLException | RuntimeException ex) {
+            JdbcUtils.closeStatement(ps);
+            throw ex;
+        }
+        return ps;
+    }
+
+    protected ParsedSql getParsedSql(final String sql) {
+        ParsedSql parsedSql = parsedSqlCache.get(sql);
+        if (parsedSql == null) {
+            if (parsedSqlCache.size() >= PARSED_SQL_CACHE_LIMIT) {
+                parsedSqlCache.clear();
+            }
+            parsedSql = NamedParameterUtils.parseSqlStatement(sql);
+            parsedSqlCache.put(sql, parsedSql);
+        }
+        return parsedSql;
+    }
 
     protected void appendFullTableName(final String tableName, final StringBuilder sb) {
         if ((schemaName != null) && (!schemaName.isEmpty())) {
@@ -196,9 +1588,10 @@ public class QueryBuilder<T, TKey> {
         final List<String> columns, final List<String> excludedColumns,
         final DatabaseMetaData metadata) throws SQLException
     {
-        final List<String> cols2 = ((columns == null) || (columns.isEmpty()))
+        //Copy, as both the clause's own columns & cached metadata must stay untouched
+        final List<String> cols2 = new ArrayList<>(((columns == null) || (columns.isEmpty()))
             ? getColumnsFromMetadata(tableName, metadata)
-            : columns;
+            : columns);
         if (excludedColumns != null) {
             cols2.removeAll(excludedColumns);
         }
@@ -208,29 +1601,143 @@ public class QueryBuilder<T, TKey> {
     protected List<String> getColumnsFromMetadata(final String tableName, final DatabaseMetaData metadata)
             throws SQLException
     {
+        if ((schemaSnapshot != null) && (Objects.equals(schemaSnapshot.getSchemaName(), schemaName))) {
+            final List<String> cols = schemaSnapshot.getColumns(tableName);
+            if (cols != null) {
+                return cols;
+            }
+        }
+        final TableMetadataCache cache = getMetadataCache();
+        if (cache == null) {
+            return readColumnsFromMetadata(tableName, metadata);
+        }
+        return cache.getColumns(schemaName, tableName,
+            () -> readColumnsFromMetadata(tableName, metadata));
+    }
+    protected List<String> readColumnsFromMetadata(final String tableName, final DatabaseMetaData metadata)
+            throws SQLException
+    {
+        if (metadata == null) {
+            if (dataSource == null) {
+                throw new IllegalStateException("No DataSource to read metadata of table: " + tableName);
+            }
+            final Connection conn = DataSourceUtils.getConnection(dataSource);
+            try {
+                return readColumnsFromMetadata(tableName, conn.getMetaData());
+            } finally {
+                DataSourceUtils.releaseConnection(conn, dataSource);
+            }
+        }
         final List<String> cols = new ArrayList<>();
-        final ResultSet colsRS = metadata.getColumns(null, this.schemaName, tableName, null);
-        while (colsRS.next()) {
-            String name = colsRS.getString("COLUMN_NAME");
-            //String type = colsRS.getString("TYPE_NAME");
-            //int size = colsRS.getInt("COLUMN_SIZE");
-            cols.add(name);
+        try (ResultSet colsRS = metadata.getColumns(null, this.schemaName, tableName, null)) {
+            while (colsRS.next()) {
+                String name = colsRS.getString("COLUMN_NAME");
+                //String type = colsRS.getString("TYPE_NAME");
+                //int size = colsRS.getInt("COLUMN_SIZE");
+                cols.add(name);
+            }
         }
 
         return cols;
     }
 
+    /**
+     * How an IN list param is rendered (see WhereClause.addIn())
+     */
+    public enum InStrategy {
+        /** ARRAY for POSTGRESQL, else PADDED (never CHUNKED: lists beyond the bind parameters limit
+         *  of the dialect need CHUNKED, ARRAY or TEMP_TABLE) */
+        AUTO,
+        /** "col IN (:p)": one bind marker per value, so one SQL shape per list length */
+        PLAIN,
+        /** "col IN (:p__pad)": list padded to the next power of 2 (repeating its last value),
+         *  so lengths share a few SQL shapes */
+        PADDED,
+        /** "col = ANY(:p__arr)": a single array bind (POSTGRESQL, H2) */
+        ARRAY,
+        /** PADDED, but lists longer than getInChunkSize() get split, running the statement once per chunk
+         *  (opt-in only: rejected for SELECTs paged, ordered, grouped or DISTINCT, see InClause) */
+        CHUNKED,
+        /** "col IN (SELECT v FROM tmp_in_p)", filled on the same Connection before executing
+         *  (never chosen by AUTO) */
+        TEMP_TABLE
+    }
+
+    /**
+     * How execPage() counts the total rows
+     */
+    public enum CountStrategy {
+        /** Derived COUNT(*) query, run concurrently with the page query */
+        CONCURRENT_QUERY,
+        /** "COUNT(*) OVER()" selected along with the page rows, in a single statement */
+        WINDOW
+    }
+
+    @FunctionalInterface
+    public interface SqlRenderer {
+        String render(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException;
+    }
+
+    @FunctionalInterface
+    protected interface ConnectionSqlCallback<R> {
+        R doWithSql(Connection con, String sql) throws SQLException;
+    }
+
     public static abstract class QueryPart {
         protected final QueryPart parent;
 
-        protected QueryPart() {
-            this(null);
+        protected QueryPart() {
+            this(null);
+        }
+        protected QueryPart(final QueryPart parent) {
+            this.parent = parent;
+        }
+            
+        /**
+         * Renders into a new buffer (prefer appendTo() when rendering into a parent's buffer).
+         */
+        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+            final StringBuilder sb = new StringBuilder(DEFAULT_RENDER_BUFFER_SIZE);
+            appendTo(sb, params, metadata);
+            return sb.toString();
+        }
+
+        /**
+         * Renders this part at the end of the given buffer.
+         */
+        public abstract void appendTo(StringBuilder sb, SqlParameterSource params, DatabaseMetaData metadata)
+            throws SQLException;
+
+        protected boolean isFrozen() {
+            return (parent != null) && (parent.isFrozen());
+        }
+        protected void checkNotFrozen() {
+            if (isFrozen()) {
+                throw new IllegalStateException("QueryBuilder is frozen, cannot be modified");
+            }
+        }
+
+        /**
+         * Evaluates the conditional parts (IfExpr) reached with the params, in a fixed order,
+         * appending each outcome to the signature. Parts holding sub-parts must override.
+         */
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+        }
+
+        protected static void evalConditionsOf(final QueryPart part, final SqlParameterSource params,
+            final ConditionSignature sig)
+        {
+            if (part != null) {
+                part.evalConditions(params, sig);
+            }
         }
-        protected QueryPart(final QueryPart parent) {
-            this.parent = parent;
+        protected static void evalConditionsOf(final Collection<? extends QueryPart> parts,
+            final SqlParameterSource params, final ConditionSignature sig)
+        {
+            for (QueryPart part : parts) {
+                evalConditionsOf(part, params, sig);
+            }
         }
-            
-        public abstract String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException;
     }
 
     public static class StaticQueryClause extends QueryPart {
@@ -245,6 +1752,11 @@ public class QueryBuilder<T, TKey> {
         public String build(SqlParameterSource params, DatabaseMetaData metadata) {
             return sql;
         }
+
+        @Override
+        public void appendTo(StringBuilder sb, SqlParameterSource params, DatabaseMetaData metadata) {
+            sb.append(sql);
+        }
     }
     
 
@@ -270,6 +1782,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public IfExpr ifTrue(QueryPart clause) {
+            checkNotFrozen();
             this.onTrueClause = clause;
             return this;
         }
@@ -278,22 +1791,36 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public IfExpr orElse(QueryPart clause) {
+            checkNotFrozen();
             this.onFalseClause = clause;
             return this;
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            Boolean condResult = condFn.apply(params);
+            final boolean isTrue = (condResult != null) && (condResult.booleanValue());
+            sig.add(isTrue);
+            evalConditionsOf((isTrue) ? onTrueClause : onFalseClause, params, sig);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             Boolean condResult = condFn.apply(params);
             QueryPart resultClause = ((condResult != null) && (condResult.booleanValue()))
                 ? onTrueClause
                 : onFalseClause;
 
-            return (resultClause != null) ? resultClause.build(params, metadata) : "";
+            if (resultClause != null) {
+                resultClause.appendTo(sb, params, metadata);
+            }
         }
     }
     
     public static abstract class OpClause extends QueryPart {
+        /** Overrides of the builder's statement hints, or null */
+        protected StatementHints statementHints;
+
         public OpClause() {
         }
         public OpClause(QueryPart parent) {
@@ -312,6 +1839,7 @@ public class QueryBuilder<T, TKey> {
         protected WhereClause whereClause;
         protected final List<QueryPart> afterWhereClauses;
         protected PagingClause pagingClause;
+        protected PartitionClause partitionClause;
 
         protected String asName;
 
@@ -337,6 +1865,7 @@ public class QueryBuilder<T, TKey> {
         }
 
         public void setAsName(String asName) {
+            checkNotFrozen();
             this.asName = asName;
         }
 
@@ -345,19 +1874,23 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public SelectClause add(String col) {
+            checkNotFrozen();
             subClauses.add(new StaticQueryClause(this, col));
             return this;
         }
         public SelectClause add(String col, String asName) {
+            checkNotFrozen();
             subClauses.add(new StaticQueryClause(this, col + " AS " + asName));
             return this;
         }
 
         public SelectClause allFromMain() {
+            checkNotFrozen();
             this.allFromMain = true;
             return this;
         }
         public SelectClause allFrom(String tbl) {
+            checkNotFrozen();
             allFromTables.add(tbl);
             return this;
         }
@@ -366,10 +1899,12 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public SelectClause except(List<String> cols) {
+            checkNotFrozen();
             excludedCols.addAll(cols);
             return this;
         } 
         public SelectClause except(String col) {
+            checkNotFrozen();
             excludedCols.add(col);
             return this;
         } 
@@ -388,6 +1923,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         protected void addSubSelectClause(final SelectClause subClause, final Consumer<? extends SelectClause> processFn) {
+            checkNotFrozen();
             //Subquery select
             if (processFn != null) {
                 ((Consumer<SelectClause>)processFn).accept(subClause);
@@ -420,6 +1956,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         protected void setFromClause(final FromClause clause, final Consumer<? extends FromClause> processFn) {
+            checkNotFrozen();
             if (processFn != null) {
                 ((Consumer<FromClause>)processFn).accept(clause);
             }
@@ -486,6 +2023,7 @@ public class QueryBuilder<T, TKey> {
         protected void addJoinClause(final JoinClause clause,
             final Consumer<? extends JoinClause> processFn)
         {
+            checkNotFrozen();
             if (processFn != null) {
                 ((Consumer<JoinClause>)processFn).accept(clause);
             }
@@ -514,6 +2052,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         protected void setWhereClause(final WhereClause clause, final Consumer<WhereClause> processFn) {
+            checkNotFrozen();
             if (processFn != null) {
                 processFn.accept(clause);
             }
@@ -572,6 +2111,7 @@ public class QueryBuilder<T, TKey> {
         protected void addAfterWhereClause(final AfterWhereClause clause,
             final Consumer<? extends AfterWhereClause> processFn)
         {
+            checkNotFrozen();
             if (processFn != null) {
                 ((Consumer<AfterWhereClause>)processFn).accept(clause);
             }
@@ -594,9 +2134,63 @@ public class QueryBuilder<T, TKey> {
             setPagingClause(new PagingClause(this, offset, pageSize), processFn);
             return this;
         }
+        /**
+         * @param hints Overriding those set on the builder, for this query (see StatementHints)
+         */
+        public SelectClause hints(StatementHints hints) {
+            checkNotFrozen();
+            this.statementHints = hints;
+            return this;
+        }
+        public SelectClause fetchSize(int fetchSize) {
+            return hints(hintsOrNone().withFetchSize(fetchSize));
+        }
+        public SelectClause maxRows(int maxRows) {
+            return hints(hintsOrNone().withMaxRows(maxRows));
+        }
+        public SelectClause queryTimeout(int seconds) {
+            return hints(hintsOrNone().withQueryTimeout(seconds));
+        }
+        public SelectClause readOnly() {
+            return hints(hintsOrNone().withReadOnly(true));
+        }
+        protected StatementHints hintsOrNone() {
+            return (statementHints != null) ? statementHints : StatementHints.NONE;
+        }
+        /**
+         * Keyset (seek) paging: instead of skipping rows, continues after the last-seen values
+         * of the ORDER BY columns, given as params "keyset_0".."keyset_N" (see PageCursor).
+         * The ORDER BY columns must identify rows uniquely (e.g. end with the primary key).
+         */
+        public SelectClause pageByKeyset(int pageSize) {
+            setPagingClause(new KeysetPagingClause(this, pageSize), null);
+            return this;
+        }
+        /**
+         * Enables partitioned scans (see QueryBuilder.execPartitioned()), with key range bounds
+         * queried with MIN/MAX
+         * @param keyCol Numeric or date/time column, ideally indexed
+         */
+        public SelectClause partitionBy(String keyCol, int nPartitions) {
+            return partitionBy(keyCol, nPartitions, null, null);
+        }
+        /**
+         * @param lo Lowest key (null = MIN of keyCol)
+         * @param hi Highest key (null = MAX of keyCol)
+         */
+        public SelectClause partitionBy(String keyCol, int nPartitions, Object lo, Object hi) {
+            checkNotFrozen();
+            if (nPartitions <= 0) {
+                throw new IllegalArgumentException("nPartitions must be > 0");
+            }
+            this.partitionClause = new PartitionClause(this, keyCol, nPartitions, lo, hi);
+            return this;
+        }
+
         protected void setPagingClause(final PagingClause clause,
             final Consumer<? extends PagingClause> processFn)
         {
+            checkNotFrozen();
             if (processFn != null) {
                 ((Consumer<PagingClause>)processFn).accept(clause);
             }
@@ -604,114 +2198,358 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            boolean isMsSql = false;
-            boolean isPostgresSql = false;
-            if (dialect != null) {
-                if (dialect.equals(POSTGRESQL)) {
-                    isPostgresSql = true;
-                } else if (dialect.equals(MSSQL)) {
-                    isMsSql = true;
-                } 
-            }
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(subClauses, params, sig);
+            evalConditionsOf(fromClause, params, sig);
+            evalConditionsOf(joinClauses, params, sig);
+            evalConditionsOf(whereClause, params, sig);
+            evalConditionsOf(afterWhereClauses, params, sig);
+            evalConditionsOf(pagingClause, params, sig);
+            evalConditionsOf(partitionClause, params, sig);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+            appendTo(sqlb, params, metadata, null, true);
+        }
+        /**
+         * @param extraCol Appended to the selected columns, if not null
+         * @param withOrderAndPaging Whether ORDER BY & paging (incl. the keyset predicate) are rendered
+         */
+        protected void appendTo(final StringBuilder sqlb, final SqlParameterSource params,
+            final DatabaseMetaData metadata, final String extraCol, final boolean withOrderAndPaging)
+            throws SQLException
+        {
+            final boolean isMsSql = MSSQL.equals(dialect);
+            final PagingClause pagingClause = (withOrderAndPaging) ? this.pagingClause : null;
 
-            StringBuilder sqlb = new StringBuilder();
             sqlb.append("SELECT ");
             if ((isMsSql) && (pagingClause != null)) {
-                sqlb.append(pagingClause.build(params, metadata));
+                pagingClause.appendTo(sqlb, params, metadata);
                 sqlb.append(' ');
             }
-            final List<QueryPart> subClauses2 = new ArrayList<>();
-            final List<String> allFromTables2 = new ArrayList<>();
+            int nCols = 0;
             String mainTableName = null;
             if (fromClause != null) {
                 mainTableName = fromClause.tableName;
                 if (allFromMain) {
-                    allFromTables2.add((fromClause.asName != null) ? fromClause.asName : fromClause.tableName);
-                }
-            }
-            allFromTables2.addAll(allFromTables);
-            for (String tbl : allFromTables2) {
-                String tblAlias = null;
-                String fullTblName;
-                if (tableNamesByAliasMap.containsKey(tbl)) {
-                    tblAlias = tbl;
-                    fullTblName = tableNamesByAliasMap.get(tbl);
-                } else {
-                    fullTblName = tbl;
-                    for (Map.Entry<String, String> e : tableNamesByAliasMap.entrySet()) {
-                        if (e.getValue().equals(tbl)) {
-                            tblAlias = e.getKey();
-                            break;
-                        }
-                    }
+                    nCols = appendAllColumnsFrom(sqlb,
+                        (fromClause.asName != null) ? fromClause.asName : fromClause.tableName, nCols, metadata);
                 }
-                final List<String> tblCols = getColumnsFromMetadata(fullTblName, metadata);
-                for (String col : tblCols) {
-                    if ((excludedCols.contains(col))
-                        || ((tblAlias != null) && (excludedCols.contains(tblAlias+"."+col)))
-                        || (excludedCols.contains(fullTblName+"."+col)))
-                    {
-                        continue;
-                    }
-                    subClauses2.add(new StaticQueryClause(this, tbl + "." + col));
-                }
-            }
-            final int n = subClauses.size();
-            if (n > 0) {
-                subClauses2.addAll(subClauses);
             }
-            int n2 = subClauses2.size();
-            if ((n2 <= 0) && (mainTableName != null)) {
-                final List<String> cols = getIncludedColumns(mainTableName, null, excludedCols, metadata);
-                cols.forEach((col) -> subClauses2.add(new StaticQueryClause(this, col)));
-                n2 = subClauses2.size();
+            for (String tbl : allFromTables) {
+                nCols = appendAllColumnsFrom(sqlb, tbl, nCols, metadata);
             }
-            for (int i=0;i < n2;i++) {
-                if (i > 0) {
+            for (QueryPart clause : subClauses) {
+                if (nCols++ > 0) {
                     sqlb.append(',');
                 }
-                QueryPart clause = subClauses2.get(i);
                 if (clause == null) {
                     continue;
                 }
                 if (clause instanceof QueryBuilder.SelectClause) {
                     sqlb.append(clausesDelimiter);
                     sqlb.append('(');
-                    sqlb.append(clause.build(params, metadata));
+                    clause.appendTo(sqlb, params, metadata);
                     sqlb.append(')');
                 } else {
-                    sqlb.append(clause.build(params, metadata));
+                    clause.appendTo(sqlb, params, metadata);
+                }
+            }
+            if ((nCols <= 0) && (mainTableName != null)) {
+                final List<String> cols = getIncludedColumns(mainTableName, null, excludedCols, metadata);
+                for (String col : cols) {
+                    if (nCols++ > 0) {
+                        sqlb.append(',');
+                    }
+                    sqlb.append(col);
+                }
+            }
+            if (extraCol != null) {
+                if (nCols++ > 0) {
+                    sqlb.append(',');
                 }
+                sqlb.append(extraCol);
             }
             if (fromClause != null) {
                 sqlb.append(clausesDelimiter);
-                sqlb.append(fromClause.build(params, metadata));
+                fromClause.appendTo(sqlb, params, metadata);
+            }
+            for (QueryPart clause : joinClauses) {
+                sqlb.append(clausesDelimiter);
+                clause.appendTo(sqlb, params, metadata);
+            }
+            appendWhereTo(sqlb, params, metadata, withOrderAndPaging);
+            for (QueryPart clause : afterWhereClauses) {
+                if ((!withOrderAndPaging) && (clause instanceof QueryBuilder.OrderByClause)) {
+                    continue;
+                }
+                sqlb.append(clausesDelimiter);
+                clause.appendTo(sqlb, params, metadata);
             }
-            if (!joinClauses.isEmpty()) {
-                for (QueryPart clause : joinClauses) {
+            if ((!isMsSql) && (pagingClause != null)) {
+                sqlb.append(clausesDelimiter);
+                pagingClause.appendTo(sqlb, params, metadata);
+            }
+        }
+
+        /**
+         * Appends the WHERE clause (with a leading delimiter), ANDed with the keyset paging &
+         * partition range predicates when active
+         */
+        protected void appendWhereTo(final StringBuilder sqlb, final SqlParameterSource params,
+            final DatabaseMetaData metadata, final boolean withKeyset) throws SQLException
+        {
+            final KeysetPagingClause keysetClause = ((withKeyset)
+                && (pagingClause instanceof QueryBuilder.KeysetPagingClause)
+                && (((KeysetPagingClause) pagingClause).isActive(params)))
+                ? (KeysetPagingClause) pagingClause : null;
+            final boolean inPartition = (partitionClause != null) && (partitionClause.isActive(params));
+            if ((keysetClause == null) && (!inPartition)) {
+                if (whereClause != null) {
                     sqlb.append(clausesDelimiter);
-                    sqlb.append(clause.build(params, metadata));
+                    whereClause.appendTo(sqlb, params, metadata);
                 }
+                return;
             }
+            sqlb.append(clausesDelimiter);
+            sqlb.append("WHERE ");
+            int nConds = 0;
             if (whereClause != null) {
+                final int mark = sqlb.length();
+                sqlb.append('(');
+                if (whereClause.appendConditionsTo(sqlb, params, metadata) > 0) {
+                    sqlb.append(')');
+                    nConds++;
+                } else {
+                    sqlb.setLength(mark);
+                }
+            }
+            if (keysetClause != null) {
+                if (nConds++ > 0) {
+                    sqlb.append(clausesDelimiter);
+                    sqlb.append("AND ");
+                }
+                sqlb.append('(');
+                keysetClause.appendPredicateTo(sqlb, getOrderByClause());
+                sqlb.append(')');
+            }
+            if (inPartition) {
+                if (nConds++ > 0) {
+                    sqlb.append(clausesDelimiter);
+                    sqlb.append("AND ");
+                }
+                sqlb.append('(');
+                partitionClause.appendTo(sqlb, params, metadata);
+                sqlb.append(')');
+            }
+        }
+
+        /**
+         * Renders "SELECT COUNT(*)" over the same FROM/JOIN/WHERE (see QueryBuilder.execPage()): without
+         * ORDER BY, paging or selected columns, and without LEFT JOINs marked toOne() that neither
+         * the WHERE clause nor later joins reference. Grouped/DISTINCT selects are counted as a subquery.
+         */
+        public void appendCountQueryTo(final StringBuilder sqlb, final SqlParameterSource params,
+            final DatabaseMetaData metadata) throws SQLException
+        {
+            if (isGroupedOrDistinct()) {
+                sqlb.append("SELECT COUNT(*) FROM (");
+                appendTo(sqlb, params, metadata, null, false);
+                sqlb.append(") AS cnt");
+                return;
+            }
+            sqlb.append("SELECT COUNT(*)");
+            if (fromClause != null) {
                 sqlb.append(clausesDelimiter);
-                sqlb.append(whereClause.build(params, metadata));
+                fromClause.appendTo(sqlb, params, metadata);
+            }
+            final String where = (whereClause != null) ? whereClause.build(params, metadata) : null;
+            final int n = joinClauses.size();
+            final String[] joins = new String[n];
+            //Backwards, as ON clauses can only reference earlier tables
+            for (int i = n - 1;i >= 0;i--) {
+                final JoinClause join = joinClauses.get(i);
+                final String joinSql = join.build(params, metadata);
+                if ((!join.isDroppableFromCount()) || (join.isReferencedBy(where))) {
+                    joins[i] = joinSql;
+                    continue;
+                }
+                for (int j = i + 1;j < n;j++) {
+                    if (join.isReferencedBy(joins[j])) {
+                        joins[i] = joinSql;
+                        break;
+                    }
+                }
             }
-            if (!afterWhereClauses.isEmpty()) {
-                //int i = 0;
-                for (QueryPart clause : afterWhereClauses) {
+            for (String joinSql : joins) {
+                if (joinSql != null) {
                     sqlb.append(clausesDelimiter);
-                    sqlb.append(clause.build(params, metadata));
-                    //i++;
+                    sqlb.append(joinSql);
                 }
             }
-            if ((!isMsSql) && (pagingClause != null)) {
+            if (where != null) {
                 sqlb.append(clausesDelimiter);
-                sqlb.append(pagingClause.build(params, metadata));
+                sqlb.append(where);
             }
-            
-            return sqlb.toString();
+        }
+
+        /**
+         * @return Whether rows are grouped (GROUP BY) or de-duplicated (SELECT DISTINCT)
+         */
+        public boolean isGroupedOrDistinct() {
+            for (QueryPart clause : afterWhereClauses) {
+                if (clause instanceof QueryBuilder.GroupByClause) {
+                    return true;
+                }
+            }
+            return isDistinct();
+        }
+        /**
+         * @return Whether rows are sorted (ORDER BY)
+         */
+        public boolean isOrdered() {
+            for (QueryPart clause : afterWhereClauses) {
+                if (clause instanceof QueryBuilder.OrderByClause) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        public boolean isDistinct() {
+            if ((!subClauses.isEmpty()) && (subClauses.get(0) instanceof StaticQueryClause)) {
+                final String col = ((StaticQueryClause) subClauses.get(0)).sql;
+                return col.regionMatches(true, 0, "DISTINCT ", 0, 9);
+            }
+            return false;
+        }
+
+        /**
+         * @return Page request of the paging clause (unpaged if none), sorted as the ORDER BY clause
+         */
+        public Pageable getPageable() {
+            if (pagingClause == null) {
+                return Pageable.unpaged();
+            }
+            final OrderByClause orderBy = getOrderByClause();
+            Sort sort = Sort.unsorted();
+            if (orderBy != null) {
+                final List<Sort.Order> orders = new ArrayList<>(orderBy.cols.size());
+                for (int i = 0;i < orderBy.cols.size();i++) {
+                    final String col = orderBy.cols.get(i);
+                    orders.add((orderBy.isDesc(i)) ? Sort.Order.desc(col) : Sort.Order.asc(col));
+                }
+                sort = Sort.by(orders);
+            }
+            return PageRequest.of((int) (pagingClause.offset / pagingClause.pageSize), pagingClause.pageSize, sort);
+        }
+
+        /**
+         * Renders "SELECT MIN(key),MAX(key)" over the same FROM/JOIN/WHERE, for partitionBy()
+         */
+        public void appendBoundsQueryTo(final StringBuilder sqlb, final SqlParameterSource params,
+            final DatabaseMetaData metadata) throws SQLException
+        {
+            if (partitionClause == null) {
+                throw new IllegalStateException("No partitioning set");
+            }
+            sqlb.append("SELECT MIN(");
+            sqlb.append(partitionClause.keyCol);
+            sqlb.append("),MAX(");
+            sqlb.append(partitionClause.keyCol);
+            sqlb.append(')');
+            if (fromClause != null) {
+                sqlb.append(clausesDelimiter);
+                fromClause.appendTo(sqlb, params, metadata);
+            }
+            for (QueryPart clause : joinClauses) {
+                sqlb.append(clausesDelimiter);
+                clause.appendTo(sqlb, params, metadata);
+            }
+            if (whereClause != null) {
+                sqlb.append(clausesDelimiter);
+                whereClause.appendTo(sqlb, params, metadata);
+            }
+        }
+
+        /**
+         * @return Names of tables in FROM/JOIN clauses (incl. of subqueries), see QueryResultCache.tableName()
+         */
+        public Set<String> getTableNames() {
+            final Set<String> tables = new LinkedHashSet<>();
+            collectTableNames(tables);
+            return tables;
+        }
+        protected void collectTableNames(final Set<String> tables) {
+            if (fromClause != null) {
+                fromClause.collectTableNames(tables);
+            }
+            for (JoinClause clause : joinClauses) {
+                clause.collectTableNames(tables);
+            }
+            for (QueryPart clause : subClauses) {
+                if (clause instanceof QueryBuilder.SelectClause) {
+                    ((SelectClause) clause).collectTableNames(tables);
+                }
+            }
+        }
+
+        /**
+         * @return Last ORDER BY clause, or null
+         */
+        public OrderByClause getOrderByClause() {
+            OrderByClause found = null;
+            for (QueryPart clause : afterWhereClauses) {
+                if (clause instanceof QueryBuilder.OrderByClause) {
+                    found = (OrderByClause) clause;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Appends "tbl.col" for all (non-excluded) columns of the table/alias
+         * @return Updated number of columns rendered so far
+         */
+        protected int appendAllColumnsFrom(final StringBuilder sqlb, final String tbl, int nCols,
+            final DatabaseMetaData metadata) throws SQLException
+        {
+            String tblAlias = null;
+            String fullTblName;
+            if (tableNamesByAliasMap.containsKey(tbl)) {
+                tblAlias = tbl;
+                fullTblName = tableNamesByAliasMap.get(tbl);
+            } else {
+                fullTblName = tbl;
+                for (Map.Entry<String, String> e : tableNamesByAliasMap.entrySet()) {
+                    if (e.getValue().equals(tbl)) {
+                        tblAlias = e.getKey();
+                        break;
+                    }
+                }
+            }
+            final boolean hasExcludedCols = !excludedCols.isEmpty();
+            final List<String> tblCols = getColumnsFromMetadata(fullTblName, metadata);
+            for (String col : tblCols) {
+                if ((hasExcludedCols) && ((excludedCols.contains(col))
+                    || ((tblAlias != null) && (excludedCols.contains(tblAlias+"."+col)))
+                    || (excludedCols.contains(fullTblName+"."+col))))
+                {
+                    continue;
+                }
+                if (nCols++ > 0) {
+                    sqlb.append(',');
+                }
+                sqlb.append(tbl);
+                sqlb.append('.');
+                sqlb.append(col);
+            }
+            return nCols;
         }
 
     }
@@ -751,11 +2589,14 @@ public class QueryBuilder<T, TKey> {
         }
 
         public UpdateClause setColumns(List<String> cols) {
+            checkNotFrozen();
             columns.clear();
             columns.addAll(cols);
             return this;
         }
         public UpdateClause withId(String idCol) {
+            checkNotFrozen();
+            this.idCol = idCol;
             excludedCols.clear();
             excludedCols.add(idCol);
             whereIdMatches(idCol);
@@ -766,10 +2607,12 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public UpdateClause except(List<String> cols) {
+            checkNotFrozen();
             excludedCols.addAll(cols);
             return this;
         }
         public UpdateClause except(String col) {
+            checkNotFrozen();
             excludedCols.add(col);
             return this;
         }
@@ -795,22 +2638,32 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         protected void addWhereClause(final WhereClause clause, final Consumer<? extends WhereClause> processFn) {
+            checkNotFrozen();
             if (whereClause != null) {
                 whereClause.add(clause);
             } else {
                 this.whereClause = clause;
             }
-            whereClause.add(clause);
             if (processFn != null) {
                 ((Consumer<WhereClause>)processFn).accept(whereClause);
             }
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            final StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(whereClause, params, sig);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             sqlb.append("UPDATE ");
             appendFullTableName(tableName, sqlb);
+            sqlb.append(clausesDelimiter);
             sqlb.append("SET ");
             final List<String> cols = getIncludedColumns(tableName, columns, excludedCols, metadata);
             final int nCols = cols.size();
@@ -825,10 +2678,8 @@ public class QueryBuilder<T, TKey> {
             }
             if (this.whereClause != null) {
                 sqlb.append(clausesDelimiter);
-                sqlb.append(whereClause.build(params, metadata));
+                whereClause.appendTo(sqlb, params, metadata);
             }
-
-            return sqlb.toString();
         }
         
     }
@@ -891,55 +2742,320 @@ public class QueryBuilder<T, TKey> {
             setSelectClause(new SelectClause(cols), processFn);
             return this;
         }
-        public InsertClause fromSelect(SelectClause clause) {
-            setSelectClause(clause, null);
+        public InsertClause fromSelect(SelectClause clause) {
+            setSelectClause(clause, null);
+            return this;
+        }
+        protected void setSelectClause(SelectClause clause, Consumer<? extends SelectClause> processFn) {
+            checkNotFrozen();
+            if (processFn != null) {
+                ((Consumer<SelectClause>)processFn).accept(clause);
+            }
+            this.selectClause = clause;
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(selectClause, params, sig);
+        }
+
+        public List<String> getInsertColumns(DatabaseMetaData metadata) throws SQLException {
+            return getIncludedColumns(tableName, columns, excludedCols, metadata);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+            appendInsertTo(sqlb, params, metadata, -1, false);
+        }
+
+        /**
+         * Renders a multi-row INSERT ... VALUES (:col__0,...),(:col__1,...) statement
+         * (see MultiRowParameterSource)
+         */
+        public void appendRowsTo(StringBuilder sqlb, int nRows, DatabaseMetaData metadata) throws SQLException {
+            appendInsertTo(sqlb, null, metadata, nRows, false);
+        }
+        public void appendRowsTo(StringBuilder sqlb, int nRows, DatabaseMetaData metadata, boolean returnKey)
+            throws SQLException
+        {
+            appendInsertTo(sqlb, null, metadata, nRows, returnKey);
+        }
+
+        /**
+         * @param nRows Number of rows with suffixed parameter names, or -1 for a single row with plain names
+         * @param returnKey Whether to return the id column from the statement itself
+         *   (OUTPUT INSERTED.id for MSSQL, RETURNING id for others)
+         */
+        protected void appendInsertTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata,
+            int nRows, boolean returnKey) throws SQLException
+        {
+            if ((returnKey) && (idCol == null)) {
+                throw new IllegalStateException("No id column set to return");
+            }
+            final boolean isMsSql = MSSQL.equals(dialect);
+            final List<String> cols = getInsertColumns(metadata);
+            appendIntoTo(sqlb, cols);
+            if ((returnKey) && (isMsSql)) {
+                sqlb.append("OUTPUT INSERTED.");
+                sqlb.append(idCol);
+                sqlb.append(clausesDelimiter);
+            }
+            if (nRows >= 0) {
+                if (selectClause != null) {
+                    throw new IllegalStateException("Cannot render multiple rows for INSERT ... SELECT");
+                }
+                sqlb.append("VALUES ");
+                for (int r=0;r < nRows;r++) {
+                    if (r > 0) {
+                        sqlb.append(',');
+                    }
+                    appendValuesTo(sqlb, cols, r);
+                }
+            } else if (selectClause != null) {
+                selectClause.appendTo(sqlb, params, metadata);
+            } else {
+                sqlb.append("VALUES ");
+                appendValuesTo(sqlb, cols, -1);
+            }
+            if ((returnKey) && (!isMsSql)) {
+                sqlb.append(clausesDelimiter);
+                sqlb.append("RETURNING ");
+                sqlb.append(idCol);
+            }
+        }
+
+        protected void appendIntoTo(StringBuilder sqlb, List<String> cols) {
+            sqlb.append("INSERT INTO ");
+            appendFullTableName(tableName, sqlb);
+            sqlb.append(clausesDelimiter);
+            sqlb.append('(');
+            final int nCols = cols.size();
+            for (int i=0;i < nCols;i++) {
+                if (i > 0) {
+                    sqlb.append(',');
+                }
+                sqlb.append(cols.get(i));
+            }
+            sqlb.append(')');
+            sqlb.append(clausesDelimiter);
+        }
+
+        /**
+         * @param row Row index for suffixed parameter names, or -1 for plain names
+         */
+        protected void appendValuesTo(StringBuilder sqlb, List<String> cols, int row) {
+            sqlb.append('(');
+            final int nCols = cols.size();
+            for (int i=0;i < nCols;i++) {
+                if (i > 0) {
+                    sqlb.append(',');
+                }
+                sqlb.append(':');
+                sqlb.append(cols.get(i));
+                if (row >= 0) {
+                    sqlb.append(MultiRowParameterSource.ROW_SUFFIX_SEPARATOR);
+                    sqlb.append(row);
+                }
+            }
+            sqlb.append(')');
+        }
+        
+    }
+
+    /**
+     * Inserts a row, or updates it if one with the same key columns exists, in a single statement:
+     * INSERT ... ON CONFLICT (...) DO UPDATE for POSTGRESQL/SQLITE, MERGE ... KEY (...) for H2,
+     * standard MERGE for others (e.g. MSSQL).
+     * Columns are included/excluded as for InsertClause, plus the key columns.
+     */
+    public class UpsertClause extends InsertClause {
+        protected final List<String> keyCols;
+
+        public UpsertClause(final String tableName, final List<String> keyCols) {
+            super(tableName);
+            this.keyCols = new ArrayList<>(keyCols);
+        }
+        public UpsertClause(final QueryPart parent, final String tableName, final List<String> keyCols) {
+            super(parent, tableName);
+            this.keyCols = new ArrayList<>(keyCols);
+        }
+
+        public UpsertClause onConflict(String... cols) {
+            checkNotFrozen();
+            keyCols.clear();
+            keyCols.addAll(Arrays.asList(cols));
+            return this;
+        }
+
+        @Override
+        public UpsertClause setColumns(List<String> cols) {
+            super.setColumns(cols);
+            return this;
+        }
+        @Override
+        public UpsertClause except(String[] cols) {
+            super.except(cols);
+            return this;
+        }
+        public UpsertClause except(List<String> cols) {
+            super.except(cols);
+            return this;
+        }
+        @Override
+        public UpsertClause except(String col) {
+            super.except(col);
             return this;
         }
+
+        @Override
         protected void setSelectClause(SelectClause clause, Consumer<? extends SelectClause> processFn) {
-            if (processFn != null) {
-                ((Consumer<SelectClause>)processFn).accept(clause);
+            throw new UnsupportedOperationException("Cannot upsert from SELECT");
+        }
+
+        /**
+         * @return Key columns, then other included columns
+         */
+        @Override
+        public List<String> getInsertColumns(DatabaseMetaData metadata) throws SQLException {
+            final List<String> cols = new ArrayList<>(keyCols);
+            for (String col : super.getInsertColumns(metadata)) {
+                if (!keyCols.contains(col)) {
+                    cols.add(col);
+                }
             }
-            this.selectClause = clause;
+            return cols;
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            
-            final StringBuilder sqlb = new StringBuilder();
-            final StringBuilder valsSB = new StringBuilder();
-            sqlb.append("INSERT INTO ");
+        protected void appendInsertTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata,
+            int nRows, boolean returnKey) throws SQLException
+        {
+            if (keyCols.isEmpty()) {
+                throw new IllegalStateException("Key columns needed for upsert");
+            }
+            if (returnKey) {
+                throw new UnsupportedOperationException("Cannot return generated keys from upsert");
+            }
+            if ((POSTGRESQL.equals(dialect)) || (SQLITE.equals(dialect))) {
+                super.appendInsertTo(sqlb, params, metadata, nRows, false);
+                sqlb.append(clausesDelimiter);
+                appendOnConflictTo(sqlb, getInsertColumns(metadata));
+            } else if (H2.equals(dialect)) {
+                //MERGE INTO ... KEY (...) VALUES ..., see appendIntoTo()
+                super.appendInsertTo(sqlb, params, metadata, nRows, false);
+            } else {
+                if (nRows >= 0) {
+                    throw new UnsupportedOperationException("Cannot render multiple rows for MERGE");
+                }
+                appendMergeTo(sqlb, getInsertColumns(metadata));
+            }
+        }
+
+        @Override
+        protected void appendIntoTo(StringBuilder sqlb, List<String> cols) {
+            if (!H2.equals(dialect)) {
+                super.appendIntoTo(sqlb, cols);
+                return;
+            }
+            sqlb.append("MERGE INTO ");
             appendFullTableName(tableName, sqlb);
             sqlb.append(clausesDelimiter);
             sqlb.append('(');
-            final List<String> cols = getIncludedColumns(tableName, columns, excludedCols, metadata);
+            sqlb.append(String.join(",", cols));
+            sqlb.append(')');
+            sqlb.append(clausesDelimiter);
+            sqlb.append("KEY (");
+            sqlb.append(String.join(",", keyCols));
+            sqlb.append(')');
+            sqlb.append(clausesDelimiter);
+        }
+
+        protected void appendOnConflictTo(StringBuilder sqlb, List<String> cols) {
+            sqlb.append("ON CONFLICT (");
+            sqlb.append(String.join(",", keyCols));
+            sqlb.append(')');
+            final int nCols = cols.size();
+            int nUpdated = 0;
+            for (int i=0;i < nCols;i++) {
+                final String col = cols.get(i);
+                if (keyCols.contains(col)) {
+                    continue;
+                }
+                sqlb.append((nUpdated++ > 0) ? "," : " DO UPDATE SET ");
+                sqlb.append(col);
+                sqlb.append("=EXCLUDED.");
+                sqlb.append(col);
+            }
+            if (nUpdated == 0) {
+                sqlb.append(" DO NOTHING");
+            }
+        }
+
+        protected void appendMergeTo(StringBuilder sqlb, List<String> cols) {
             final int nCols = cols.size();
+            sqlb.append("MERGE INTO ");
+            appendFullTableName(tableName, sqlb);
+            sqlb.append(" AS tgt");
+            sqlb.append(clausesDelimiter);
+            sqlb.append("USING (SELECT ");
             for (int i=0;i < nCols;i++) {
                 if (i > 0) {
                     sqlb.append(',');
-                    if (selectClause == null) {
-                        valsSB.append(',');
-                    }
                 }
                 final String col = cols.get(i);
+                sqlb.append(':');
+                sqlb.append(col);
+                sqlb.append(" AS ");
                 sqlb.append(col);
-                if (selectClause == null) {
-                    valsSB.append(':');
-                    valsSB.append(col);
+            }
+            sqlb.append(") AS src");
+            sqlb.append(clausesDelimiter);
+            sqlb.append("ON (");
+            final int nKeys = keyCols.size();
+            for (int i=0;i < nKeys;i++) {
+                if (i > 0) {
+                    sqlb.append(" AND ");
                 }
+                final String col = keyCols.get(i);
+                sqlb.append("tgt.");
+                sqlb.append(col);
+                sqlb.append(" = src.");
+                sqlb.append(col);
             }
             sqlb.append(')');
+            int nUpdated = 0;
+            for (int i=0;i < nCols;i++) {
+                final String col = cols.get(i);
+                if (keyCols.contains(col)) {
+                    continue;
+                }
+                if (nUpdated++ > 0) {
+                    sqlb.append(',');
+                } else {
+                    sqlb.append(clausesDelimiter);
+                    sqlb.append("WHEN MATCHED THEN UPDATE SET ");
+                }
+                sqlb.append(col);
+                sqlb.append("=src.");
+                sqlb.append(col);
+            }
             sqlb.append(clausesDelimiter);
-            if (selectClause != null) {
-                sqlb.append(selectClause.build(params, metadata));
-            } else {
-                sqlb.append("VALUES (");
-                sqlb.append(valsSB.toString());
-                sqlb.append(')');
+            sqlb.append("WHEN NOT MATCHED THEN INSERT (");
+            sqlb.append(String.join(",", cols));
+            sqlb.append(") VALUES (");
+            for (int i=0;i < nCols;i++) {
+                if (i > 0) {
+                    sqlb.append(',');
+                }
+                sqlb.append("src.");
+                sqlb.append(cols.get(i));
+            }
+            sqlb.append(')');
+            if (MSSQL.equals(dialect)) {
+                //MERGE must be terminated
+                sqlb.append(';');
             }
-
-            return sqlb.toString();
         }
-        
     }
 
     public class DeleteClause extends UpdateClause {
@@ -976,18 +3092,15 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             if (whereClause == null) {
                 //Prevent accidental whole-table delete
                 throw new IllegalStateException("WHERE Clause needed for delete!!");
             }
-            final StringBuilder sqlb = new StringBuilder();
             sqlb.append("DELETE FROM ");
             appendFullTableName(tableName, sqlb);
             sqlb.append(clausesDelimiter);
-            sqlb.append(whereClause.build(params, metadata));
-
-            return sqlb.toString();
+            whereClause.appendTo(sqlb, params, metadata);
         }
     }
 
@@ -1023,6 +3136,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         protected void setSubSelectClause(SelectClause subSelect, final Consumer<? extends SelectClause> processFn) {
+            checkNotFrozen();
             this.subSelect = subSelect;
             if (processFn != null) {
                 ((Consumer<SelectClause>)processFn).accept(subSelect);
@@ -1030,12 +3144,29 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(subSelect, params, sig);
+        }
+
+        protected void collectTableNames(final Set<String> tables) {
+            if (subSelect != null) {
+                subSelect.collectTableNames(tables);
+            } else if (tableName != null) {
+                tables.add(QueryResultCache.tableName(tableName));
+            }
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             sqlb.append("FROM ");
             if (subSelect != null) {
                 sqlb.append("(");
-                sqlb.append(subSelect.build(params, metadata));
+                subSelect.appendTo(sqlb, params, metadata);
                 sqlb.append(")");
             } else {
                 appendFullTableName(tableName, sqlb);
@@ -1044,7 +3175,6 @@ public class QueryBuilder<T, TKey> {
                 sqlb.append(" AS ");
                 sqlb.append(this.asName);
             }
-            return sqlb.toString();
         }
     }
     
@@ -1055,6 +3185,7 @@ public class QueryBuilder<T, TKey> {
         
         protected final String type;
         protected final List<QueryPart> onClauses;
+        protected boolean toOne;
 
         public JoinClause(final String type, final String table) {
             this(type, table, null);
@@ -1066,46 +3197,83 @@ public class QueryBuilder<T, TKey> {
             this.onClauses = new ArrayList<>();
         }
 
+        /**
+         * Declares that at most one joined row matches each row (e.g. joining on the joined table's key),
+         * so as a LEFT JOIN it cannot change the number of rows, and count queries may drop it
+         * (see SelectClause.appendCountQueryTo()). The WHERE clause must then qualify its columns
+         * with the table's alias (or name).
+         */
+        public JoinClause toOne() {
+            checkNotFrozen();
+            this.toOne = true;
+            return this;
+        }
+
+        protected boolean isDroppableFromCount() {
+            return (toOne) && (LEFT.equals(type));
+        }
+
+        /**
+         * @return Whether the SQL refers to "alias." (or "table." if no alias)
+         */
+        protected boolean isReferencedBy(final String sql) {
+            if (sql == null) {
+                return false;
+            }
+            final String name = ((asName != null) && (!asName.isEmpty())) ? asName : tableName;
+            return Pattern.compile("\\b" + Pattern.quote(name) + "\\s*\\.", Pattern.CASE_INSENSITIVE)
+                .matcher(sql).find();
+        }
+
+        protected void addOnClause(final QueryPart clause) {
+            checkNotFrozen();
+            onClauses.add(clause);
+        }
+
         public JoinClause on(String cond) {
-            onClauses.add(new StaticQueryClause(this, cond));
+            addOnClause(new StaticQueryClause(this, cond));
             return this;
         }
         public JoinClause onIf(boolean active, String onTrueCond) {
             if (!active) {
                 return this;
             }
-            onClauses.add(new StaticQueryClause(this, onTrueCond));
+            addOnClause(new StaticQueryClause(this, onTrueCond));
             return this;
         }
         public JoinClause onIf(Function<SqlParameterSource, Boolean> checkFn, String onTrueCond) {
-            onClauses.add(new IfExpr(this, checkFn, new StaticQueryClause(this, onTrueCond)));
+            addOnClause(new IfExpr(this, checkFn, new StaticQueryClause(this, onTrueCond)));
             return this;
         }
         public JoinClause onIf(Function<SqlParameterSource, Boolean> checkFn, QueryPart onTrueCond) {
-            onClauses.add(new IfExpr(this, checkFn, onTrueCond));
+            addOnClause(new IfExpr(this, checkFn, onTrueCond));
             return this;
         }
         public JoinClause onIfElse(boolean active, String onTrueCond, String onFalseCond) {
             if (!active) {
                 return this;
             }
-            onClauses.add(new StaticQueryClause(this, onTrueCond));
+            addOnClause(new StaticQueryClause(this, onTrueCond));
             return this;
         }
         public JoinClause onIfElse(Function<SqlParameterSource, Boolean> checkFn, String onTrueCond, String onFalseCond) {
-            onClauses.add(new IfExpr(this, checkFn,
+            addOnClause(new IfExpr(this, checkFn,
                 new StaticQueryClause(this, onTrueCond),
                 new StaticQueryClause(this, onFalseCond)));
             return this;
         }
         public JoinClause onIfElse(Function<SqlParameterSource, Boolean> checkFn, QueryPart onTrueCond, QueryPart onFalseCond) {
-            onClauses.add(new IfExpr(this, checkFn, onTrueCond, onFalseCond));
+            addOnClause(new IfExpr(this, checkFn, onTrueCond, onFalseCond));
             return this;
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            StringBuilder sqlb = new StringBuilder();
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(onClauses, params, sig);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             sqlb.append(type);
             sqlb.append(" JOIN ");
             appendFullTableName(tableName, sqlb);
@@ -1121,10 +3289,9 @@ public class QueryBuilder<T, TKey> {
                     sqlb.append(clausesDelimiter);
                 }
                 sqlb.append('(');
-                sqlb.append(onClauses.get(i).build(params, metadata));
+                onClauses.get(i).appendTo(sqlb, params, metadata);
                 sqlb.append(')');
             }
-            return sqlb.toString();
         }
     }
 
@@ -1142,6 +3309,7 @@ public class QueryBuilder<T, TKey> {
         */
 
         public WhereClause setConj(String conj) {
+            checkNotFrozen();
             this.conj = conj;
             return this;
         }
@@ -1207,6 +3375,7 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public WhereClause add(QueryPart cond) {
+            checkNotFrozen();
             subClauses.add(cond);
             return this;
         }
@@ -1219,7 +3388,7 @@ public class QueryBuilder<T, TKey> {
             if (!active) {
                 return this;
             }
-            subClauses.add(onTrueCond);
+            add(onTrueCond);
                 
             return this;
         }
@@ -1242,18 +3411,18 @@ public class QueryBuilder<T, TKey> {
             return this;
         }
         public WhereClause addIf(Function<SqlParameterSource, Boolean> checkFn, QueryPart onTrueCond) {
-            subClauses.add(new IfExpr(this, checkFn, onTrueCond));
+            add(new IfExpr(this, checkFn, onTrueCond));
             return this;
         }
 
         public WhereClause addIfElse(Function<SqlParameterSource, Boolean> checkFn, String onTrueCond, String onFalseCond) {
-            subClauses.add(new IfExpr(this, checkFn,
+            add(new IfExpr(this, checkFn,
                 new StaticQueryClause(this, onTrueCond),
                 new StaticQueryClause(this, onFalseCond)));
             return this;
         }
         public WhereClause addIfElse(Function<SqlParameterSource, Boolean> checkFn, QueryPart onTrueCond, QueryPart onFalseCond) {
-            subClauses.add(new IfExpr(this, checkFn, onTrueCond, onFalseCond));
+            add(new IfExpr(this, checkFn, onTrueCond, onFalseCond));
             return this;
         }
 
@@ -1266,24 +3435,53 @@ public class QueryBuilder<T, TKey> {
         public WhereClause addIfExpr(Function<SqlParameterSource, Boolean> checkFn, Consumer<IfExpr> processFn) {
             final IfExpr ifExpr = new IfExpr(this, checkFn, null);
             processFn.accept(ifExpr);
-            subClauses.add(ifExpr);
+            add(ifExpr);
             return this;
         }
 
         //Snippets
         public WhereClause addIn(String col, String pName) {
-            subClauses.add(new StaticQueryClause(this, Snippets.in(dialect, col, pName) ));
+            return addIn(col, pName, InStrategy.AUTO);
+        }
+        public WhereClause addIn(String col, String pName, InStrategy strategy) {
+            add(new InClause(this, col, pName, strategy));
+            return this;
+        }
+        /**
+         * @param valueType SQL type of the temp. table's column (e.g. "BIGINT", "VARCHAR(64)")
+         */
+        public WhereClause addInTempTable(String col, String pName, String valueType) {
+            add(new InClause(this, col, pName, InStrategy.TEMP_TABLE).setTempTableValueType(valueType));
             return this;
         }
         public WhereClause addConcat(String left, String... terms) {
-            subClauses.add(new StaticQueryClause(this, left + Snippets.concat(dialect, terms)));
+            add(new StaticQueryClause(this, left + Snippets.concat(dialect, terms)));
             return this;
         }
 
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            evalConditionsOf(subClauses, params, sig);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             sqlb.append("WHERE ");
+            appendConditionsTo(sqlb, params, metadata);
+        }
+
+        /**
+         * Appends the conditions only (without "WHERE "), skipping those rendering nothing
+         * @return Number of conditions rendered
+         */
+        protected int appendConditionsTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata)
+            throws SQLException
+        {
             final int n = subClauses.size();
             int nRendered = 0;
             for (int i=0;i < n;i++) {
@@ -1291,28 +3489,30 @@ public class QueryBuilder<T, TKey> {
                 if (clause == null) {
                     continue;
                 }
-                final String clauseSQL = clause.build(params, metadata);
-                if ((clauseSQL == null) || (clauseSQL.isEmpty())) {
-                    continue;
-                }
+                final int mark = sqlb.length();
                 if (nRendered > 0) {
                     sqlb.append(clausesDelimiter);
                     sqlb.append(conj);
                     sqlb.append(' ');
                 }
                 sqlb.append('(');
-                sqlb.append(clauseSQL);
+                final int clauseStart = sqlb.length();
+                clause.appendTo(sqlb, params, metadata);
+                if (sqlb.length() == clauseStart) {
+                    //Rendered nothing (e.g. IfExpr w/o else), so roll back the conjunction
+                    sqlb.setLength(mark);
+                    continue;
+                }
                 sqlb.append(')');
                 nRendered++;
             }
 
-            return sqlb.toString();
+            return nRendered;
         }
     }
     public class OnClause extends WhereClause {
         @Override
-        public String build(SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
-            StringBuilder sqlb = new StringBuilder();
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
             sqlb.append("ON ");
             final int n = subClauses.size();
             for (int i=0;i < n;i++) {
@@ -1326,11 +3526,162 @@ public class QueryBuilder<T, TKey> {
                     continue;
                 }
                 sqlb.append('(');
-                sqlb.append(clause.build(params, metadata));
+                clause.appendTo(sqlb, params, metadata);
                 sqlb.append(')');
             }
+        }
+    }
 
-            return sqlb.toString();
+    /**
+     * "col IN (...)" condition on a Collection/array param, rendered by the strategy resolved
+     * with the params (see InStrategy). An empty or missing list renders "1 = 0".
+     *
+     * Chunking (opt-in, see InStrategy.CHUNKED) runs the whole statement once per chunk, so the IN must
+     * be ANDed with the rest of the WHERE conditions, and the statement must not aggregate, sort,
+     * page or de-duplicate across chunks: SELECTs breaking these rules (as far as detectable) are
+     * rejected with IllegalStateException. At most one IN list per statement gets chunked.
+     * Temp. tables are not supported by execStream().
+     */
+    public class InClause extends QueryPart {
+        public static final String TEMP_TABLE_PREFIX = "tmp_in_";
+        public static final String DEFAULT_TEMP_TABLE_VALUE_TYPE = "BIGINT";
+
+        protected final String col;
+        protected final String pName;
+        protected final InStrategy strategy;
+        protected String tempTableValueType = DEFAULT_TEMP_TABLE_VALUE_TYPE;
+
+        public InClause(final QueryPart parent, final String col, final String pName, final InStrategy strategy) {
+            super(parent);
+            QueryBuilder.this.checkNotFrozen();
+            this.col = col;
+            this.pName = pName;
+            this.strategy = (strategy != null) ? strategy : InStrategy.AUTO;
+            inClauses.add(this);
+        }
+
+        public InClause setTempTableValueType(final String valueType) {
+            checkNotFrozen();
+            this.tempTableValueType = valueType;
+            return this;
+        }
+
+        @Override
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        protected List<?> getValues(final SqlParameterSource params) {
+            return ((params != null) && (params.hasValue(pName)))
+                ? InListParameterSource.toList(params.getValue(pName))
+                : null;
+        }
+
+        /**
+         * @return Strategy to render with, or null if the list is empty
+         */
+        public InStrategy resolveStrategy(final SqlParameterSource params) {
+            final List<?> vals = getValues(params);
+            if ((vals == null) || (vals.isEmpty())) {
+                return null;
+            }
+            switch (strategy) {
+                case AUTO:
+                    return (POSTGRESQL.equals(dialect)) ? InStrategy.ARRAY : InStrategy.PADDED;
+                case CHUNKED:
+                    return (vals.size() > getInChunkSize()) ? InStrategy.CHUNKED : InStrategy.PADDED;
+                default:
+                    return strategy;
+            }
+        }
+
+        /**
+         * @return Params for each chunk of the list, of at most getInChunkSize() values
+         */
+        public List<SqlParameterSource> chunk(final SqlParameterSource params) {
+            final List<?> vals = getValues(params);
+            final int chunkSize = getInChunkSize();
+            final List<SqlParameterSource> chunks = new ArrayList<>((vals.size() + chunkSize - 1) / chunkSize);
+            for (int i = 0;i < vals.size();i += chunkSize) {
+                chunks.add(new OverlayParameterSource(params)
+                    .addValue(pName, vals.subList(i, Math.min(i + chunkSize, vals.size()))));
+            }
+            return chunks;
+        }
+
+        public String getTempTableName() {
+            return (MSSQL.equals(dialect) ? "#" : "") + TEMP_TABLE_PREFIX + pName;
+        }
+
+        protected String getCreateTempTableSql() {
+            final String tbl = getTempTableName();
+            final String colDef = " (v " + tempTableValueType + ")";
+            if (POSTGRESQL.equals(dialect)) {
+                return "CREATE TEMPORARY TABLE IF NOT EXISTS " + tbl + colDef;
+            } else if (MSSQL.equals(dialect)) {
+                return "IF OBJECT_ID('tempdb.." + tbl + "') IS NULL CREATE TABLE " + tbl + colDef;
+            } else if (SQLITE.equals(dialect)) {
+                return "CREATE TEMP TABLE IF NOT EXISTS " + tbl + colDef;
+            }
+            return "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS " + tbl + colDef;
+        }
+
+        /**
+         * Creates the (session-scoped) temp. table if needed & fills it with the list, in JDBC batches.
+         * Note that some databases (e.g. H2) commit the current transaction on DDL.
+         */
+        protected void fillTempTable(final Connection con, final SqlParameterSource params) throws SQLException {
+            final String tbl = getTempTableName();
+            try (Statement stmt = con.createStatement()) {
+                stmt.execute(getCreateTempTableSql());
+                stmt.execute("DELETE FROM " + tbl);
+            }
+            final List<?> vals = getValues(params);
+            try (PreparedStatement ps = con.prepareStatement("INSERT INTO " + tbl + " (v) VALUES (?)")) {
+                int n = 0;
+                for (Object val : vals) {
+                    StatementCreatorUtils.setParameterValue(ps, 1, SqlTypeValue.TYPE_UNKNOWN, val);
+                    ps.addBatch();
+                    if (++n % batchSize == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                if (n % batchSize != 0) {
+                    ps.executeBatch();
+                }
+            }
+        }
+        protected void clearTempTable(final Connection con) throws SQLException {
+            try (Statement stmt = con.createStatement()) {
+                stmt.execute("DELETE FROM " + getTempTableName());
+            }
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            final InStrategy resolved = resolveStrategy(params);
+            sig.add(resolved != null);
+            if (resolved != null) {
+                final int ordinal = resolved.ordinal();
+                sig.add((ordinal & 1) != 0).add((ordinal & 2) != 0).add((ordinal & 4) != 0);
+            }
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) {
+            final InStrategy resolved = resolveStrategy(params);
+            if (resolved == null) {
+                sqlb.append("1 = 0");
+            } else if (resolved == InStrategy.TEMP_TABLE) {
+                sqlb.append(col);
+                sqlb.append(" IN (SELECT v FROM ");
+                sqlb.append(getTempTableName());
+                sqlb.append(')');
+            } else {
+                //Each chunk renders as PADDED
+                sqlb.append(Snippets.in(dialect, col, pName,
+                    (resolved == InStrategy.CHUNKED) ? InStrategy.PADDED : resolved));
+            }
         }
     }
 
@@ -1363,11 +3714,20 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
-            final StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        @Override
+        public void appendTo(final StringBuilder sqlb, final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
             sqlb.append("GROUP BY ");
-            sqlb.append(String.join(",", cols));
-            return sqlb.toString();
+            final int nCols = cols.size();
+            for (int i=0;i < nCols;i++) {
+                if (i > 0) {
+                    sqlb.append(',');
+                }
+                sqlb.append(cols.get(i));
+            }
         }
     }
 
@@ -1377,7 +3737,7 @@ public class QueryBuilder<T, TKey> {
 
         public OrderByClause(final List<String> cols) {
             super();
-            this.cols = cols;
+            this.cols = new ArrayList<>(cols);
             this.descs = new ArrayList<>();
         }
         public OrderByClause(final List<String> cols, List<Boolean> descs) {
@@ -1387,7 +3747,7 @@ public class QueryBuilder<T, TKey> {
         }
         public OrderByClause(final QueryPart parent, final List<String> cols) {
             super(parent);
-            this.cols = cols;
+            this.cols = new ArrayList<>(cols);
             this.descs = new ArrayList<>();
         }
         public OrderByClause(final QueryPart parent, final List<String> cols, final List<Boolean> descs) {
@@ -1397,8 +3757,16 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
-            final StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        public boolean isDesc(final int i) {
+            return (i < descs.size()) && (Boolean.TRUE.equals(descs.get(i)));
+        }
+
+        @Override
+        public void appendTo(final StringBuilder sqlb, final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
             sqlb.append("ORDER BY ");
             final int nCols = cols.size();
             final int nDescs = descs.size();
@@ -1412,8 +3780,6 @@ public class QueryBuilder<T, TKey> {
                     sqlb.append(" DESC");
                 }
             }
-
-            return sqlb.toString();
         }
     }
 
@@ -1433,22 +3799,32 @@ public class QueryBuilder<T, TKey> {
         }
 
         @Override
-        public String build(final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
-            final StringBuilder sqlb = new StringBuilder();
+        protected boolean isFrozen() {
+            return frozen;
+        }
 
+        @Override
+        public void appendTo(final StringBuilder sqlb, final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
             if (dialect != null) {
                 if (dialect.equals(POSTGRESQL)) {
                     sqlb.append("OFFSET ");
                     sqlb.append(offset);
                     sqlb.append(" LIMIT ");
                     sqlb.append(pageSize);
-                    return sqlb.toString();
+                    return;
                 } else if (dialect.equals(MSSQL)) {
                     sqlb.append("TOP ");
                     sqlb.append(pageSize);
                     sqlb.append(" OFFSET ");
                     sqlb.append(offset);
-                    return sqlb.toString();
+                    return;
+                } else if (dialect.equals(H2)) {
+                    sqlb.append("OFFSET ");
+                    sqlb.append(offset);
+                    sqlb.append(" ROWS FETCH NEXT ");
+                    sqlb.append(pageSize);
+                    sqlb.append(" ROWS ONLY");
+                    return;
                 }
             }
 
@@ -1456,8 +3832,170 @@ public class QueryBuilder<T, TKey> {
             sqlb.append(offset);
             sqlb.append(" LIMIT ");
             sqlb.append(pageSize);
+        }
+    }
 
-            return sqlb.toString();
+    /**
+     * Key range predicate of one partition of a partitioned scan, rendered when
+     * params "partition_lo" & "partition_hi" are given (see SelectClause.partitionBy())
+     */
+    public class PartitionClause extends QueryPart {
+        public static final String LO_PARAM = "partition_lo";
+        public static final String HI_PARAM = "partition_hi";
+        public static final String LAST_PARAM = "partition_last";
+
+        protected final String keyCol;
+        protected final int nPartitions;
+        protected final Object lo;
+        protected final Object hi;
+
+        public PartitionClause(final QueryPart parent, final String keyCol, final int nPartitions,
+            final Object lo, final Object hi)
+        {
+            super(parent);
+            this.keyCol = keyCol;
+            this.nPartitions = nPartitions;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected boolean isFrozen() {
+            return frozen;
+        }
+
+        public boolean isActive(final SqlParameterSource params) {
+            return (params != null) && (params.hasValue(LO_PARAM));
+        }
+        protected boolean isLast(final SqlParameterSource params) {
+            return (params.hasValue(LAST_PARAM)) && (Boolean.TRUE.equals(params.getValue(LAST_PARAM)));
+        }
+
+        /**
+         * @return Params for querying the range
+         */
+        public SqlParameterSource bind(final SqlParameterSource params, final KeyRangePartitioner.Range range) {
+            return new OverlayParameterSource(params)
+                .addValue(LO_PARAM, range.getLo())
+                .addValue(HI_PARAM, range.getHi())
+                .addValue(LAST_PARAM, range.isLast());
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            final boolean active = isActive(params);
+            sig.add(active);
+            if (active) {
+                sig.add(isLast(params));
+            }
+        }
+
+        @Override
+        public void appendTo(StringBuilder sqlb, SqlParameterSource params, DatabaseMetaData metadata) throws SQLException {
+            sqlb.append(keyCol);
+            sqlb.append(" >= :");
+            sqlb.append(LO_PARAM);
+            sqlb.append(" AND ");
+            sqlb.append(keyCol);
+            sqlb.append(isLast(params) ? " <= :" : " < :");
+            sqlb.append(HI_PARAM);
+        }
+    }
+
+    public class KeysetPagingClause extends PagingClause {
+        public static final String PARAM_PREFIX = "keyset_";
+
+        public KeysetPagingClause(final int pageSize) {
+            super(0, pageSize);
+        }
+        public KeysetPagingClause(final QueryPart parent, final int pageSize) {
+            super(parent, 0, pageSize);
+        }
+
+        public String getParamName(final int i) {
+            return PARAM_PREFIX + i;
+        }
+
+        /**
+         * @return Whether the last-seen key values are given (i.e. not the first page)
+         */
+        public boolean isActive(final SqlParameterSource params) {
+            final String pName = getParamName(0);
+            return (params != null) && (params.hasValue(pName)) && (params.getValue(pName) != null);
+        }
+
+        @Override
+        protected void evalConditions(SqlParameterSource params, ConditionSignature sig) {
+            sig.add(isActive(params));
+        }
+
+        /**
+         * Appends the seek predicate: a row-value comparison, e.g. "(a,b) > (:keyset_0,:keyset_1)",
+         * if all directions are the same & the dialect supports it; else an OR-chain, e.g.
+         * "(a > :keyset_0) OR (a = :keyset_0 AND b < :keyset_1)".
+         */
+        public void appendPredicateTo(final StringBuilder sqlb, final OrderByClause orderBy) {
+            if ((orderBy == null) || (orderBy.cols.isEmpty())) {
+                throw new IllegalStateException("ORDER BY clause needed for keyset paging");
+            }
+            final List<String> cols = orderBy.cols;
+            final int nCols = cols.size();
+            boolean uniform = true;
+            final boolean desc0 = orderBy.isDesc(0);
+            for (int i=1;i < nCols;i++) {
+                if (orderBy.isDesc(i) != desc0) {
+                    uniform = false;
+                    break;
+                }
+            }
+            if (nCols == 1) {
+                appendComparison(sqlb, cols.get(0), desc0 ? " < :" : " > :", 0);
+            } else if ((uniform) && (!MSSQL.equals(dialect))) {
+                sqlb.append('(');
+                for (int i=0;i < nCols;i++) {
+                    if (i > 0) {
+                        sqlb.append(',');
+                    }
+                    sqlb.append(cols.get(i));
+                }
+                sqlb.append(desc0 ? ") < (" : ") > (");
+                for (int i=0;i < nCols;i++) {
+                    if (i > 0) {
+                        sqlb.append(',');
+                    }
+                    sqlb.append(':');
+                    sqlb.append(getParamName(i));
+                }
+                sqlb.append(')');
+            } else {
+                for (int i=0;i < nCols;i++) {
+                    if (i > 0) {
+                        sqlb.append(" OR ");
+                    }
+                    sqlb.append('(');
+                    for (int j=0;j < i;j++) {
+                        appendComparison(sqlb, cols.get(j), " = :", j);
+                        sqlb.append(" AND ");
+                    }
+                    appendComparison(sqlb, cols.get(i), orderBy.isDesc(i) ? " < :" : " > :", i);
+                    sqlb.append(')');
+                }
+            }
+        }
+        protected void appendComparison(final StringBuilder sqlb, final String col, final String op, final int i) {
+            sqlb.append(col);
+            sqlb.append(op);
+            sqlb.append(getParamName(i));
+        }
+
+        @Override
+        public void appendTo(final StringBuilder sqlb, final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
+            if (MSSQL.equals(dialect)) {
+                sqlb.append("TOP ");
+            } else {
+                sqlb.append("LIMIT ");
+            }
+            sqlb.append(pageSize);
         }
     }
 
@@ -1465,6 +4003,24 @@ public class QueryBuilder<T, TKey> {
         public static String in(final String dialect, String col, String pName) {
             return col + " IN (:" + pName + ")";
         }
+        /**
+         * @param strategy AUTO (ARRAY for POSTGRESQL, else PADDED), PLAIN, PADDED or ARRAY;
+         *   the derived params are resolved by InListParameterSource
+         */
+        public static String in(final String dialect, String col, String pName, InStrategy strategy) {
+            switch (strategy) {
+                case AUTO:
+                    return in(dialect, col, pName, (POSTGRESQL.equals(dialect)) ? InStrategy.ARRAY : InStrategy.PADDED);
+                case PLAIN:
+                    return in(dialect, col, pName);
+                case PADDED:
+                    return col + " IN (:" + pName + InListParameterSource.PADDED_SUFFIX + ")";
+                case ARRAY:
+                    return col + " = ANY(:" + pName + InListParameterSource.ARRAY_SUFFIX + ")";
+                default:
+                    throw new IllegalArgumentException("Not a static IN strategy: " + strategy);
+            }
+        }
 
         public static String concat(final String dialect, String... terms) {
             if (dialect != null) {
@@ -0,0 +1,127 @@
+package com.chakritw.qwiz.springutils;
+
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Timings & outcome of one statement executed by a QueryBuilder (see QueryListener).
+ * Filled in by the QueryBuilder while executing, so only read it from listeners.
+ */
+public class QueryEvent {
+    protected final String queryName;
+    protected final SqlParameterSource params;
+    protected String sql;
+    protected long connectionWaitNanos;
+    protected long renderNanos;
+    protected long executeNanos;
+    protected long mappingNanos;
+    protected long rows = -1;
+    protected Throwable failure;
+    protected boolean usingTempTables;
+    private String fingerprint;
+
+    public QueryEvent(final String queryName, final SqlParameterSource params) {
+        this.queryName = queryName;
+        this.params = params;
+    }
+
+    /**
+     * @return Name set with QueryBuilder.setQueryName(), or null
+     */
+    public String getQueryName() {
+        return queryName;
+    }
+
+    /**
+     * @return Name if set, else fingerprint: what to aggregate metrics by
+     */
+    public String getKey() {
+        return (queryName != null) ? queryName : getFingerprint();
+    }
+
+    /**
+     * @return Hash of the rendered SQL (as 16 hex digits), the same for every execution of the same shape
+     */
+    public String getFingerprint() {
+        if ((fingerprint == null) && (sql != null)) {
+            //64-bit FNV-1a
+            long h = 0xcbf29ce484222325L;
+            for (byte b : sql.getBytes(StandardCharsets.UTF_8)) {
+                h ^= (b & 0xff);
+                h *= 0x100000001b3L;
+            }
+            fingerprint = String.format("%016x", h);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return Rendered SQL (with named params), or null if rendering failed
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public SqlParameterSource getParams() {
+        return params;
+    }
+
+    /**
+     * @return Time until a Connection was obtained
+     */
+    public long getConnectionWaitNanos() {
+        return connectionWaitNanos;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    /**
+     * @return Time on the Connection, other than rendering & mapping rows (incl. fetching them)
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * @return Time in the RowMapper
+     */
+    public long getMappingNanos() {
+        return mappingNanos;
+    }
+
+    public long getTotalNanos() {
+        return connectionWaitNanos + renderNanos + executeNanos + mappingNanos;
+    }
+
+    /**
+     * @return Rows returned (queries) or affected (updates), -1 if unknown
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Whether the SQL reads temp. tables filled on its Connection (see QueryBuilder.InStrategy.TEMP_TABLE),
+     *   so cannot be re-run on another one
+     */
+    public boolean isUsingTempTables() {
+        return usingTempTables;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryEvent[key=" + getKey() + ",rows=" + rows + ",totalNanos=" + getTotalNanos()
+            + ((failure != null) ? ",failed" : "") + "]";
+    }
+}
@@ -0,0 +1,12 @@
+package com.chakritw.qwiz.springutils;
+
+/**
+ * Notified after each statement executed through a QueryBuilder (see QueryBuilder.addListener()),
+ * on the executing thread: implementations must be thread-safe & return quickly.
+ * Bulk writes notify once per JDBC batch or multi-row statement, with only its execution timed.
+ * Exceptions thrown by listeners are ignored.
+ */
+@FunctionalInterface
+public interface QueryListener {
+    void onQuery(QueryEvent event);
+}
@@ -0,0 +1,243 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory QueryListener aggregating counters & latency histograms per QueryEvent.getKey().
+ * Recording only increments striped counters (LongAdder), so it scales with concurrent queries.
+ * Keys beyond maxKeys are aggregated under OTHER_KEY.
+ */
+public class QueryMetricsRegistry implements QueryListener {
+    public static final int DEFAULT_MAX_KEYS = 1000;
+    public static final String OTHER_KEY = "(other)";
+
+    protected final int maxKeys;
+    protected final Map<String, QueryStats> statsByKey = new ConcurrentHashMap<>();
+
+    public QueryMetricsRegistry() {
+        this(DEFAULT_MAX_KEYS);
+    }
+    public QueryMetricsRegistry(final int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public void onQuery(QueryEvent event) {
+        String key = event.getKey();
+        if (key == null) {
+            key = OTHER_KEY;
+        }
+        QueryStats stats = statsByKey.get(key);
+        if (stats == null) {
+            //Racy bound, may overshoot by the number of concurrent callers
+            final String sql = event.getSql();
+            stats = (statsByKey.size() < maxKeys)
+                ? statsByKey.computeIfAbsent(key, (k) -> new QueryStats(k, sql))
+                : statsByKey.computeIfAbsent(OTHER_KEY, (k) -> new QueryStats(k, null));
+        }
+        stats.record(event);
+    }
+
+    /**
+     * @return Stats of the key, or null
+     */
+    public QueryStats getStats(final String key) {
+        return statsByKey.get(key);
+    }
+
+    /**
+     * @return Stats of all keys, by descending total time
+     */
+    public List<QueryStats> getAllStats() {
+        final List<QueryStats> all = new ArrayList<>(statsByKey.values());
+        all.sort((a, b) -> Long.compare(b.total.getSum(), a.total.getSum()));
+        return Collections.unmodifiableList(all);
+    }
+
+    public void clear() {
+        statsByKey.clear();
+    }
+
+    /**
+     * @return Table of all stats (times in ms), by descending total time
+     */
+    public String dump() {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(String.format(Locale.ROOT, "%-40s %10s %8s %12s %30s %30s %30s %30s%n", "query", "count",
+            "failed", "rows", "render mean/p99/max", "conn.wait mean/p99/max",
+            "execute mean/p99/max", "mapping mean/p99/max"));
+        for (QueryStats stats : getAllStats()) {
+            sb.append(String.format(Locale.ROOT, "%-40s %10d %8d %12d %30s %30s %30s %30s%n", stats.key,
+                stats.getCount(), stats.getFailures(), stats.getRows(), stats.render.summary(),
+                stats.connectionWait.summary(), stats.execute.summary(), stats.mapping.summary()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetricsRegistry[keys=" + statsByKey.size() + "]";
+    }
+
+    public static class QueryStats {
+        protected final String key;
+        protected final String sql;
+        protected final LongAdder count = new LongAdder();
+        protected final LongAdder failures = new LongAdder();
+        protected final LongAdder rows = new LongAdder();
+        protected final LatencyHistogram render = new LatencyHistogram();
+        protected final LatencyHistogram connectionWait = new LatencyHistogram();
+        protected final LatencyHistogram execute = new LatencyHistogram();
+        protected final LatencyHistogram mapping = new LatencyHistogram();
+        protected final LatencyHistogram total = new LatencyHistogram();
+
+        protected QueryStats(final String key, final String sql) {
+            this.key = key;
+            this.sql = sql;
+        }
+
+        protected void record(final QueryEvent event) {
+            count.increment();
+            if (event.isFailed()) {
+                failures.increment();
+            }
+            if (event.getRows() > 0) {
+                rows.add(event.getRows());
+            }
+            render.record(event.getRenderNanos());
+            connectionWait.record(event.getConnectionWaitNanos());
+            execute.record(event.getExecuteNanos());
+            mapping.record(event.getMappingNanos());
+            total.record(event.getTotalNanos());
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return SQL of the 1st execution recorded (null for OTHER_KEY)
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public LatencyHistogram getRender() {
+            return render;
+        }
+
+        public LatencyHistogram getConnectionWait() {
+            return connectionWait;
+        }
+
+        public LatencyHistogram getExecute() {
+            return execute;
+        }
+
+        public LatencyHistogram getMapping() {
+            return mapping;
+        }
+
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryStats[key=" + key + ",count=" + getCount() + ",failures=" + getFailures()
+                + ",rows=" + getRows() + ",total=" + total.summary() + "]";
+        }
+    }
+
+    /**
+     * Nanosecond latencies in power-of-2 buckets, so percentiles are upper bounds within 2x
+     */
+    public static class LatencyHistogram {
+        protected final LongAdder[] buckets = new LongAdder[Long.SIZE];
+        protected final LongAdder count = new LongAdder();
+        protected final LongAdder sum = new LongAdder();
+        protected final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        public LatencyHistogram() {
+            for (int i = 0;i < buckets.length;i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(final long nanos) {
+            final long n = Math.max(nanos, 0L);
+            //Bucket i holds [2^(i-1), 2^i)
+            buckets[Math.min(Long.SIZE - Long.numberOfLeadingZeros(n), Long.SIZE - 1)].increment();
+            count.increment();
+            sum.add(n);
+            max.accumulate(n);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            final long n = getCount();
+            return (n > 0) ? ((double) getSum() / n) : 0.0;
+        }
+
+        /**
+         * @param q Quantile, in [0, 1]
+         * @return Upper bound of the bucket holding the quantile (capped at max), in nanos
+         */
+        public long getPercentile(final double q) {
+            final long n = getCount();
+            if (n <= 0) {
+                return 0L;
+            }
+            final long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0;i < buckets.length;i++) {
+                seen += buckets[i].sum();
+                if ((seen >= rank) && (seen > 0)) {
+                    final long upper = (i == 0) ? 0L : ((i >= Long.SIZE - 1) ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upper, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return "mean/p99/max" in ms
+         */
+        public String summary() {
+            final double nanosPerMs = TimeUnit.MILLISECONDS.toNanos(1);
+            return String.format(Locale.ROOT, "%.3f/%.3f/%.3f", getMean() / nanosPerMs,
+                getPercentile(0.99) / nanosPerMs, getMax() / nanosPerMs);
+        }
+    }
+}
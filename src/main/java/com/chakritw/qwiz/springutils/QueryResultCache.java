@@ -0,0 +1,286 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in cache of query results (see QueryBuilder.setResultCache()), keyed by rendered SQL,
+ * values of the parameters it uses & the row mapping.
+ *
+ * Each entry is tagged with the tables of its FROM/JOIN clauses (see tableName()), and dropped whenever a write
+ * through any QueryBuilder (INSERT/UPDATE/DELETE/UPSERT) touches one of them, in every live cache.
+ * Per-table generation counters keep a query that raced with such a write from storing its result.
+ * Tables only referenced in raw SQL snippets (e.g. subqueries in WHERE conditions) aren't tracked:
+ * use invalidateTables() for those, or for writes done outside of QueryBuilder.
+ *
+ * Size is bounded by total weight (rows, plus 1 per entry), evicting in LRU order.
+ * Cached lists are unmodifiable, but their elements are shared between callers.
+ */
+public class QueryResultCache {
+    public static final long DEFAULT_MAX_WEIGHT = 100_000;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Set<QueryResultCache> REGISTRY = Collections.newSetFromMap(new WeakHashMap<>());
+
+    protected final long maxWeight;
+    protected final long ttlNanos;
+    //Guarded by itself (access-ordered LinkedHashMap mutates on get())
+    protected final LinkedHashMap<Key, Entry> entries;
+    protected long totalWeight;
+    protected final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    protected final LongAdder hitCount = new LongAdder();
+    protected final LongAdder missCount = new LongAdder();
+    protected final LongAdder evictionCount = new LongAdder();
+    protected final LongAdder invalidationCount = new LongAdder();
+
+    public QueryResultCache() {
+        this(DEFAULT_MAX_WEIGHT, DEFAULT_TTL_MILLIS);
+    }
+    /**
+     * @param maxWeight Max. total number of rows kept
+     * @param ttlMillis Time-to-live of each entry (<= 0 means never expires)
+     */
+    public QueryResultCache(final long maxWeight, final long ttlMillis) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be > 0");
+        }
+        this.maxWeight = maxWeight;
+        this.ttlNanos = (ttlMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        synchronized (REGISTRY) {
+            REGISTRY.add(this);
+        }
+    }
+
+    /**
+     * Drops entries referencing any of the tables, in all live caches
+     * @param tables Table names as returned by tableName()
+     */
+    public static void invalidateTablesEverywhere(final Collection<String> tables) {
+        final List<QueryResultCache> caches;
+        synchronized (REGISTRY) {
+            caches = new ArrayList<>(REGISTRY);
+        }
+        for (QueryResultCache cache : caches) {
+            cache.invalidateTables(tables);
+        }
+    }
+
+    /**
+     * @return Normalized table name, as used for tagging entries: unqualified, unquoted & lower-cased,
+     *   so builders with & without a schema name tag the same table alike (same-named tables
+     *   of other schemas then invalidate each other, which is only wasteful)
+     */
+    public static String tableName(final String table) {
+        final String name = table.substring(table.lastIndexOf('.') + 1);
+        final int n = name.length();
+        final boolean quoted = (n >= 2) && ("\"`[".indexOf(name.charAt(0)) >= 0);
+        return ((quoted) ? name.substring(1, n - 1) : name).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the cached result, or loads (and caches) it on miss.
+     * @param tables Tables the result depends on (see tableName())
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(final String sql, final Object[] paramValues, final Object mappingKey,
+        final Collection<String> tables, final Supplier<List<T>> loader)
+    {
+        final Key key = new Key(sql, paramValues, mappingKey);
+        final List<T> cached = (List<T>) get(key);
+        if (cached != null) {
+            hitCount.increment();
+            return cached;
+        }
+        missCount.increment();
+        final long[] gens = getGenerations(tables);
+        final List<T> loaded = loader.get();
+        if (loaded == null) {
+            return null;
+        }
+        final List<T> result = Collections.unmodifiableList(new ArrayList<>(loaded));
+        put(key, new Entry(result, tables, currentTimeNanos()), tables, gens);
+        return result;
+    }
+
+    public void invalidateTables(final Collection<String> tables) {
+        //Bump first, so loads in flight won't store results read before the write
+        for (String tbl : tables) {
+            generations.computeIfAbsent(tbl, (k) -> new AtomicLong()).incrementAndGet();
+        }
+        synchronized (entries) {
+            final Iterator<Entry> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                final Entry entry = iter.next();
+                for (String tbl : tables) {
+                    if (entry.tables.contains(tbl)) {
+                        totalWeight -= entry.weight;
+                        iter.remove();
+                        invalidationCount.increment();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    public void invalidateAll() {
+        synchronized (entries) {
+            for (AtomicLong gen : generations.values()) {
+                gen.incrementAndGet();
+            }
+            entries.clear();
+            totalWeight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    public long getTotalWeight() {
+        synchronized (entries) {
+            return totalWeight;
+        }
+    }
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+    public long getMissCount() {
+        return missCount.sum();
+    }
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+    public void resetStats() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+        invalidationCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache[size=" + size() + ",weight=" + getTotalWeight() + ",hits=" + getHitCount()
+            + ",misses=" + getMissCount() + ",evictions=" + getEvictionCount()
+            + ",invalidations=" + getInvalidationCount() + "]";
+    }
+
+    protected List<?> get(final Key key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if ((ttlNanos > 0) && (currentTimeNanos() - entry.loadedAt >= ttlNanos)) {
+                entries.remove(key);
+                totalWeight -= entry.weight;
+                return null;
+            }
+            return entry.rows;
+        }
+    }
+
+    protected void put(final Key key, final Entry entry, final Collection<String> tables, final long[] gens) {
+        if (entry.weight > maxWeight) {
+            return;
+        }
+        synchronized (entries) {
+            //Skip if any table was written since loading started
+            if (!Arrays.equals(gens, getGenerations(tables))) {
+                return;
+            }
+            final Entry prev = entries.put(key, entry);
+            if (prev != null) {
+                totalWeight -= prev.weight;
+            }
+            totalWeight += entry.weight;
+            final Iterator<Entry> iter = entries.values().iterator();
+            while ((totalWeight > maxWeight) && (iter.hasNext())) {
+                final Entry eldest = iter.next();
+                totalWeight -= eldest.weight;
+                iter.remove();
+                evictionCount.increment();
+            }
+        }
+    }
+
+    protected long[] getGenerations(final Collection<String> tables) {
+        final long[] gens = new long[tables.size()];
+        int i = 0;
+        for (String tbl : tables) {
+            final AtomicLong gen = generations.get(tbl);
+            gens[i++] = (gen != null) ? gen.get() : 0L;
+        }
+        return gens;
+    }
+
+    protected long currentTimeNanos() {
+        return System.nanoTime();
+    }
+
+    protected static final class Key {
+        protected final String sql;
+        protected final Object[] paramValues;
+        protected final Object mappingKey;
+        private final int hash;
+
+        protected Key(final String sql, final Object[] paramValues, final Object mappingKey) {
+            this.sql = sql;
+            this.paramValues = paramValues;
+            this.mappingKey = mappingKey;
+            this.hash = (sql.hashCode() * 31 + Arrays.deepHashCode(paramValues)) * 31 + Objects.hashCode(mappingKey);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return (hash == other.hash) && (sql.equals(other.sql))
+                && (Arrays.deepEquals(paramValues, other.paramValues))
+                && (Objects.equals(mappingKey, other.mappingKey));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    protected static final class Entry {
+        protected final List<?> rows;
+        protected final Collection<String> tables;
+        protected final long weight;
+        protected final long loadedAt;
+
+        protected Entry(final List<?> rows, final Collection<String> tables, final long loadedAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.weight = rows.size() + 1L;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
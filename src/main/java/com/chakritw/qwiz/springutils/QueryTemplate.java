@@ -0,0 +1,83 @@
+package com.chakritw.qwiz.springutils;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Compiled form of a configured QueryBuilder (see QueryBuilder.compile()).
+ *
+ * The rendered SQL is cached per ConditionSignature, so once a shape has been seen,
+ * executing only evaluates the IfExpr conditions and looks the SQL up.
+ * Cached SQL embeds columns resolved from metadata at first render; call clear()
+ * after schema changes.
+ */
+public class QueryTemplate<T, TKey> {
+    public static final int DEFAULT_MAX_SHAPES = 256;
+
+    protected final QueryBuilder<T, TKey> builder;
+    protected final int maxShapes;
+    protected final Map<ConditionSignature, String> sqlBySignature;
+
+    public QueryTemplate(final QueryBuilder<T, TKey> builder) {
+        this(builder, DEFAULT_MAX_SHAPES);
+    }
+    /**
+     * @param maxShapes Max. number of distinct SQL shapes cached (others are rendered each time)
+     */
+    public QueryTemplate(final QueryBuilder<T, TKey> builder, final int maxShapes) {
+        this.builder = builder;
+        this.maxShapes = maxShapes;
+        this.sqlBySignature = new ConcurrentHashMap<>();
+    }
+
+    public QueryBuilder<T, TKey> getBuilder() {
+        return builder;
+    }
+
+    public String render(final SqlParameterSource params) throws SQLException {
+        return render(params, null);
+    }
+    public String render(final SqlParameterSource params, final DatabaseMetaData metadata) throws SQLException {
+        final ConditionSignature sig = builder.evalConditions(params);
+        String sql = sqlBySignature.get(sig);
+        if (sql == null) {
+            sql = builder.build(params, metadata);
+            if (sqlBySignature.size() < maxShapes) {
+                sqlBySignature.putIfAbsent(sig, sql);
+            }
+        }
+        return sql;
+    }
+
+    public List<T> execQuery(final SqlParameterSource params, final TwoWaysJdbcBeanMapper<T> mapper)
+        throws DataAccessException
+    {
+        return execQuery(params, (RowMapper<T>) mapper);
+    }
+    public List<T> execQuery(final SqlParameterSource params, final RowMapper<T> rowMapper)
+        throws DataAccessException
+    {
+        return builder.execQuery(this::render, params, rowMapper);
+    }
+    public int exec(final SqlParameterSource params) throws DataAccessException {
+        return builder.exec(this::render, params);
+    }
+
+    /**
+     * @return Number of distinct SQL shapes cached so far
+     */
+    public int getShapesCount() {
+        return sqlBySignature.size();
+    }
+
+    public void clear() {
+        sqlBySignature.clear();
+    }
+}
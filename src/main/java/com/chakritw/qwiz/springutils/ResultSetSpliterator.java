@@ -0,0 +1,45 @@
+package com.chakritw.qwiz.springutils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+/**
+ * Maps rows of an open ResultSet one at a time, as they are fetched (see QueryBuilder.execStream()).
+ * Closing the ResultSet (& its Statement/Connection) is left to the owner of the Stream.
+ */
+public class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+    protected final ResultSet rs;
+    protected final RowMapper<T> rowMapper;
+    protected final SQLExceptionTranslator exceptionTranslator;
+    protected final String sql;
+    protected int rowNum;
+
+    public ResultSetSpliterator(final ResultSet rs, final RowMapper<T> rowMapper,
+        final SQLExceptionTranslator exceptionTranslator, final String sql)
+    {
+        super(Long.MAX_VALUE, Spliterator.ORDERED);
+        this.rs = rs;
+        this.rowMapper = rowMapper;
+        this.exceptionTranslator = exceptionTranslator;
+        this.sql = sql;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        try {
+            if (!rs.next()) {
+                return false;
+            }
+            action.accept(rowMapper.mapRow(rs, rowNum++));
+            return true;
+        } catch (SQLException ex) {
+            throw exceptionTranslator.translate("ResultSetSpliterator", sql, ex);
+        }
+    }
+}
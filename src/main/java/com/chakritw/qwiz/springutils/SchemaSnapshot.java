@@ -0,0 +1,81 @@
+package com.chakritw.qwiz.springutils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+/**
+ * Immutable, pre-captured list of columns per table of one schema.
+ *
+ * When set on a QueryBuilder, column discovery is served from here first,
+ * so rendering never needs a Connection for the captured tables.
+ */
+public class SchemaSnapshot {
+    protected final String schemaName;
+    protected final Map<String, List<String>> columnsByTable;
+
+    public SchemaSnapshot(final String schemaName, final Map<String, List<String>> columnsByTable) {
+        this.schemaName = schemaName;
+        final Map<String, List<String>> m = new HashMap<>();
+        columnsByTable.forEach((tbl, cols) -> m.put(tbl, Collections.unmodifiableList(new ArrayList<>(cols))));
+        this.columnsByTable = Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Reads columns of all tables in the schema, with a single catalog query.
+     */
+    public static SchemaSnapshot capture(final DataSource dataSource, final String schemaName) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            return capture(conn.getMetaData(), schemaName);
+        }
+    }
+    public static SchemaSnapshot capture(final DatabaseMetaData metadata, final String schemaName) throws SQLException {
+        final Map<String, List<String>> m = new HashMap<>();
+        try (ResultSet colsRS = metadata.getColumns(null, schemaName, null, null)) {
+            while (colsRS.next()) {
+                final String table = colsRS.getString("TABLE_NAME");
+                final String col = colsRS.getString("COLUMN_NAME");
+                m.computeIfAbsent(table, (k) -> new ArrayList<>()).add(col);
+            }
+        }
+
+        return new SchemaSnapshot(schemaName, m);
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public Set<String> getTableNames() {
+        return columnsByTable.keySet();
+    }
+
+    public boolean hasTable(final String table) {
+        return columnsByTable.containsKey(table);
+    }
+
+    /**
+     * @return Unmodifiable list of column names, or null if table wasn't captured
+     */
+    public List<String> getColumns(final String table) {
+        return columnsByTable.get(table);
+    }
+
+    /**
+     * @return New snapshot with (replaced) columns for the table
+     */
+    public SchemaSnapshot withTable(final String table, final List<String> columns) {
+        final Map<String, List<String>> m = new HashMap<>(columnsByTable);
+        m.put(table, columns);
+        return new SchemaSnapshot(schemaName, m);
+    }
+}
@@ -0,0 +1,331 @@
+package com.chakritw.qwiz.springutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * QueryListener keeping the last N statements slower than a threshold (see QueryBuilder.addListener()),
+ * with their SQL, redacted params & timings, in a lock-free ring buffer.
+ *
+ * Optionally (see enableExplain()) captures the plan of each slow SQL shape with the dialect's EXPLAIN,
+ * on the async executor of the DataSource, so never on the querying thread.
+ * Plans (or EXPLAIN failures, not retried) are cached per SQL fingerprint, with at most one EXPLAIN
+ * in flight per fingerprint: entries logged meanwhile get its plan when it completes.
+ * MSSQL has no single-statement EXPLAIN, so gets no plans; neither do statements reading
+ * temp. tables of IN lists, which exist only on the Connection of the statement.
+ */
+public class SlowQueryLog implements QueryListener {
+    public static final int DEFAULT_CAPACITY = 100;
+    /** Param names redacted by default */
+    public static final Pattern DEFAULT_REDACTED_PARAMS = Pattern.compile(
+        ".*(password|passwd|pwd|secret|token|credential|api_?key).*", Pattern.CASE_INSENSITIVE);
+    public static final String REDACTED = "***";
+    protected static final int MAX_VALUE_LENGTH = 200;
+    protected static final int MAX_CACHED_PLANS = 1000;
+
+    protected final long thresholdNanos;
+    protected final AtomicReferenceArray<Entry> entries;
+    protected final AtomicLong nextSeq = new AtomicLong();
+    protected final List<Pattern> redactedParams = new CopyOnWriteArrayList<>();
+    protected volatile DataSource explainDataSource;
+    protected volatile String explainDialect;
+    protected final Map<String, String> plansByFingerprint = new ConcurrentHashMap<>();
+    protected final Map<String, CompletableFuture<String>> explainsInFlight = new ConcurrentHashMap<>();
+
+    public SlowQueryLog(final long thresholdMillis) {
+        this(thresholdMillis, DEFAULT_CAPACITY);
+    }
+    /**
+     * @param capacity Number of latest entries kept
+     */
+    public SlowQueryLog(final long thresholdMillis, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.redactedParams.add(DEFAULT_REDACTED_PARAMS);
+    }
+
+    /**
+     * @param namePattern Params with matching names get logged as REDACTED (in addition to the defaults)
+     */
+    public SlowQueryLog redact(final Pattern namePattern) {
+        redactedParams.add(namePattern);
+        return this;
+    }
+    public SlowQueryLog redact(final String nameRegex) {
+        return redact(Pattern.compile(nameRegex, Pattern.CASE_INSENSITIVE));
+    }
+
+    /**
+     * Runs EXPLAIN for each slow SQL shape (not yet explained) in the background, with the same params
+     * @param dataSource Where to run it (through AsyncQueryExecutor.forDataSource())
+     */
+    public SlowQueryLog enableExplain(final DataSource dataSource, final String dialect) {
+        this.explainDialect = dialect;
+        this.explainDataSource = dataSource;
+        return this;
+    }
+
+    @Override
+    public void onQuery(QueryEvent event) {
+        final long totalNanos = event.getTotalNanos();
+        if (totalNanos < thresholdNanos) {
+            return;
+        }
+        final long seq = nextSeq.getAndIncrement();
+        final Entry entry = new Entry(seq, System.currentTimeMillis(), event, redactParams(event.getParams()));
+        entries.set((int) (seq % entries.length()), entry);
+        if ((explainDataSource != null) && (event.getSql() != null)) {
+            explain(entry, event);
+        }
+    }
+
+    /**
+     * @return Entries still in the buffer, latest first
+     */
+    public List<Entry> getEntries() {
+        final long last = nextSeq.get() - 1;
+        final int capacity = entries.length();
+        final List<Entry> result = new ArrayList<>((int) Math.min(last + 1, capacity));
+        for (long seq = last;(seq >= 0) && (seq > last - capacity);seq--) {
+            final Entry entry = entries.get((int) (seq % capacity));
+            //Skip slots already overwritten by newer entries, or not yet written
+            if ((entry != null) && (entry.seq == seq)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of slow statements seen so far (incl. those no longer in the buffer)
+     */
+    public long getTotalCount() {
+        return nextSeq.get();
+    }
+
+    public void clear() {
+        for (int i = 0;i < entries.length();i++) {
+            entries.set(i, null);
+        }
+    }
+
+    protected Map<String, String> redactParams(final SqlParameterSource params) {
+        final String[] names = (params != null) ? params.getParameterNames() : null;
+        if (names == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (String name : names) {
+            result.put(name, (isRedacted(name)) ? REDACTED : abbreviate(params.getValue(name)));
+        }
+        return result;
+    }
+    protected boolean isRedacted(final String paramName) {
+        for (Pattern pattern : redactedParams) {
+            if (pattern.matcher(paramName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    protected static String abbreviate(final Object value) {
+        final List<?> values = (value instanceof Iterable) || ((value != null) && (value.getClass().isArray()))
+            ? InListParameterSource.toList(value)
+            : null;
+        final String s = (values != null) ? values.toString() : String.valueOf(value);
+        if (s.length() <= MAX_VALUE_LENGTH) {
+            return s;
+        }
+        return s.substring(0, MAX_VALUE_LENGTH) + "...("
+            + ((values != null) ? (values.size() + " values") : (s.length() + " chars")) + ")";
+    }
+
+    /**
+     * @return EXPLAIN statement of the dialect, or null if it has none
+     */
+    public static String explainSqlOf(final String dialect, final String sql) {
+        if (QueryBuilder.MSSQL.equals(dialect)) {
+            return null;
+        } else if (QueryBuilder.SQLITE.equals(dialect)) {
+            return "EXPLAIN QUERY PLAN " + sql;
+        }
+        return "EXPLAIN " + sql;
+    }
+
+    protected void explain(final Entry entry, final QueryEvent event) {
+        final String fingerprint = event.getFingerprint();
+        final String cached = plansByFingerprint.get(fingerprint);
+        if (cached != null) {
+            entry.plan = cached;
+            return;
+        }
+        //Temp. tables are only filled on the Connection of the statement
+        final String explainSql = (event.isUsingTempTables()) ? null : explainSqlOf(explainDialect, event.getSql());
+        if (explainSql == null) {
+            return;
+        }
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+        final CompletableFuture<String> inFlight = explainsInFlight.putIfAbsent(fingerprint, pending);
+        if (inFlight != null) {
+            inFlight.thenAccept((plan) -> entry.plan = plan);
+            return;
+        }
+        pending.thenAccept((plan) -> entry.plan = plan);
+        final DataSource dataSource = explainDataSource;
+        final SqlParameterSource params = new InListParameterSource((event.getParams() != null)
+            ? event.getParams() : EmptySqlParameterSource.INSTANCE);
+        AsyncQueryExecutor.forDataSource(dataSource).submit(() -> {
+            String plan;
+            try {
+                plan = new NamedParameterJdbcTemplate(dataSource).query(explainSql, params, (rs) -> {
+                    final int nCols = rs.getMetaData().getColumnCount();
+                    final StringBuilder sb = new StringBuilder();
+                    while (rs.next()) {
+                        for (int i = 1;i <= nCols;i++) {
+                            if (i > 1) {
+                                sb.append('\t');
+                            }
+                            sb.append(rs.getString(i));
+                        }
+                        sb.append('\n');
+                    }
+                    return sb.toString();
+                });
+            } catch (RuntimeException ex) {
+                plan = "EXPLAIN failed: " + ex.getMessage();
+            }
+            if (plansByFingerprint.size() >= MAX_CACHED_PLANS) {
+                plansByFingerprint.clear();
+            }
+            plansByFingerprint.put(fingerprint, plan);
+            //Cached before leaving the in-flight map, so later entries find it in one or the other
+            explainsInFlight.remove(fingerprint, pending);
+            pending.complete(plan);
+            return plan;
+        }).whenComplete((plan, ex) -> {
+            if (ex != null) {
+                //Not run (e.g. rejected)
+                explainsInFlight.remove(fingerprint, pending);
+                pending.complete("EXPLAIN failed: " + ex);
+            }
+        });
+    }
+
+    public static class Entry {
+        protected final long seq;
+        protected final long timestamp;
+        protected final String queryName;
+        protected final String fingerprint;
+        protected final String sql;
+        protected final Map<String, String> params;
+        protected final long connectionWaitNanos;
+        protected final long renderNanos;
+        protected final long executeNanos;
+        protected final long mappingNanos;
+        protected final long rows;
+        protected final String failure;
+        protected volatile String plan;
+
+        protected Entry(final long seq, final long timestamp, final QueryEvent event, final Map<String, String> params) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.queryName = event.getQueryName();
+            this.fingerprint = event.getFingerprint();
+            this.sql = event.getSql();
+            this.params = Collections.unmodifiableMap(params);
+            this.connectionWaitNanos = event.getConnectionWaitNanos();
+            this.renderNanos = event.getRenderNanos();
+            this.executeNanos = event.getExecuteNanos();
+            this.mappingNanos = event.getMappingNanos();
+            this.rows = event.getRows();
+            this.failure = (event.getFailure() != null) ? event.getFailure().toString() : null;
+        }
+
+        /**
+         * @return Epoch millis when logged
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getQueryName() {
+            return queryName;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return Param values as strings (redacted or abbreviated)
+         */
+        public Map<String, String> getParams() {
+            return params;
+        }
+
+        public long getConnectionWaitNanos() {
+            return connectionWaitNanos;
+        }
+
+        public long getRenderNanos() {
+            return renderNanos;
+        }
+
+        public long getExecuteNanos() {
+            return executeNanos;
+        }
+
+        public long getMappingNanos() {
+            return mappingNanos;
+        }
+
+        public long getTotalNanos() {
+            return connectionWaitNanos + renderNanos + executeNanos + mappingNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return Output of EXPLAIN, or null if not (yet) captured
+         */
+        public String getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return "SlowQueryLog.Entry[" + ((queryName != null) ? queryName : fingerprint)
+                + ",totalMs=" + TimeUnit.NANOSECONDS.toMillis(getTotalNanos()) + ",rows=" + rows
+                + ",sql=" + sql + ",params=" + params + "]";
+        }
+    }
+}
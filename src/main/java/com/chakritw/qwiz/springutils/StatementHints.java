@@ -0,0 +1,210 @@
+package com.chakritw.qwiz.springutils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+
+/**
+ * Tuning of the JDBC statements run by a QueryBuilder (see QueryBuilder.setStatementHints() for defaults,
+ * SelectClause.hints() per query): fetch size, max rows, query timeout, read-only Connection
+ * and result set type/concurrency/holdability. Unset (null) hints keep the driver's defaults.
+ *
+ * Immutable: with*() return a modified copy.
+ */
+public class StatementHints {
+    public static final StatementHints NONE = new StatementHints(null, null, null, null, null, null, null);
+
+    protected final Integer fetchSize;
+    protected final Integer maxRows;
+    protected final Integer queryTimeout;
+    protected final Boolean readOnly;
+    protected final Integer resultSetType;
+    protected final Integer resultSetConcurrency;
+    protected final Integer resultSetHoldability;
+
+    protected StatementHints(final Integer fetchSize, final Integer maxRows, final Integer queryTimeout,
+        final Boolean readOnly, final Integer resultSetType, final Integer resultSetConcurrency,
+        final Integer resultSetHoldability)
+    {
+        this.fetchSize = fetchSize;
+        this.maxRows = maxRows;
+        this.queryTimeout = queryTimeout;
+        this.readOnly = readOnly;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+    }
+
+    /**
+     * @param fetchSize Rows fetched per round-trip (0 = driver default)
+     */
+    public StatementHints withFetchSize(final int fetchSize) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param maxRows Rows returned at most, per statement (0 = unlimited)
+     */
+    public StatementHints withMaxRows(final int maxRows) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param seconds Time after which the driver cancels the statement (0 = unlimited)
+     */
+    public StatementHints withQueryTimeout(final int seconds) {
+        return new StatementHints(fetchSize, maxRows, seconds, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param readOnly Whether to flag the Connection read-only while the statement runs (outside of
+     *   Spring-managed transactions only, which set their own)
+     */
+    public StatementHints withReadOnly(final boolean readOnly) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetType ResultSet.TYPE_*
+     */
+    public StatementHints withResultSetType(final int resultSetType) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetConcurrency ResultSet.CONCUR_*
+     */
+    public StatementHints withResultSetConcurrency(final int resultSetConcurrency) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @param resultSetHoldability ResultSet.HOLD_CURSORS_OVER_COMMIT or ResultSet.CLOSE_CURSORS_AT_COMMIT
+     */
+    public StatementHints withResultSetHoldability(final int resultSetHoldability) {
+        return new StatementHints(fetchSize, maxRows, queryTimeout, readOnly, resultSetType,
+            resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * @return These hints, with those set in the overrides replacing them
+     */
+    public StatementHints overriddenBy(final StatementHints overrides) {
+        if ((overrides == null) || (overrides == NONE)) {
+            return this;
+        }
+        if (this == NONE) {
+            return overrides;
+        }
+        return new StatementHints(
+            (overrides.fetchSize != null) ? overrides.fetchSize : fetchSize,
+            (overrides.maxRows != null) ? overrides.maxRows : maxRows,
+            (overrides.queryTimeout != null) ? overrides.queryTimeout : queryTimeout,
+            (overrides.readOnly != null) ? overrides.readOnly : readOnly,
+            (overrides.resultSetType != null) ? overrides.resultSetType : resultSetType,
+            (overrides.resultSetConcurrency != null) ? overrides.resultSetConcurrency : resultSetConcurrency,
+            (overrides.resultSetHoldability != null) ? overrides.resultSetHoldability : resultSetHoldability);
+    }
+
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public Integer getMaxRows() {
+        return maxRows;
+    }
+
+    public Integer getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public boolean isReadOnly() {
+        return Boolean.TRUE.equals(readOnly);
+    }
+
+    public Integer getResultSetType() {
+        return resultSetType;
+    }
+
+    public Integer getResultSetConcurrency() {
+        return resultSetConcurrency;
+    }
+
+    public Integer getResultSetHoldability() {
+        return resultSetHoldability;
+    }
+
+    /**
+     * Prepares the statement with the result set type, concurrency & holdability (if any set)
+     */
+    public PreparedStatement prepare(final Connection con, final String sql) throws SQLException {
+        if ((resultSetType == null) && (resultSetConcurrency == null) && (resultSetHoldability == null)) {
+            return con.prepareStatement(sql);
+        }
+        final int type = (resultSetType != null) ? resultSetType : ResultSet.TYPE_FORWARD_ONLY;
+        final int concurrency = (resultSetConcurrency != null) ? resultSetConcurrency : ResultSet.CONCUR_READ_ONLY;
+        return (resultSetHoldability != null) ? con.prepareStatement(sql, type, concurrency, resultSetHoldability)
+            : con.prepareStatement(sql, type, concurrency);
+    }
+
+    /**
+     * Sets the max rows, fetch size & query timeout (if set) on the statement
+     */
+    public void applyTo(final Statement stmt) throws SQLException {
+        if (maxRows != null) {
+            stmt.setMaxRows(maxRows);
+        }
+        if (fetchSize != null) {
+            setFetchSize(stmt, fetchSize);
+        }
+        if (queryTimeout != null) {
+            stmt.setQueryTimeout(queryTimeout);
+        }
+    }
+
+    /**
+     * Sets the fetch size, capped at the max rows of the statement (as some drivers reject more)
+     */
+    public static void setFetchSize(final Statement stmt, final int fetchSize) throws SQLException {
+        final int stmtMaxRows = stmt.getMaxRows();
+        stmt.setFetchSize((stmtMaxRows > 0) ? Math.min(fetchSize, stmtMaxRows) : fetchSize);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StatementHints)) {
+            return false;
+        }
+        final StatementHints other = (StatementHints) obj;
+        return (Objects.equals(fetchSize, other.fetchSize)) && (Objects.equals(maxRows, other.maxRows))
+            && (Objects.equals(queryTimeout, other.queryTimeout)) && (Objects.equals(readOnly, other.readOnly))
+            && (Objects.equals(resultSetType, other.resultSetType))
+            && (Objects.equals(resultSetConcurrency, other.resultSetConcurrency))
+            && (Objects.equals(resultSetHoldability, other.resultSetHoldability));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fetchSize, maxRows, queryTimeout, readOnly, resultSetType, resultSetConcurrency,
+            resultSetHoldability);
+    }
+
+    @Override
+    public String toString() {
+        return "StatementHints[fetchSize=" + fetchSize + ",maxRows=" + maxRows + ",queryTimeout=" + queryTimeout
+            + ",readOnly=" + readOnly + ",resultSetType=" + resultSetType
+            + ",resultSetConcurrency=" + resultSetConcurrency + ",resultSetHoldability=" + resultSetHoldability + "]";
+    }
+}
@@ -0,0 +1,224 @@
+package com.chakritw.qwiz.springutils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * Cache of table column names of one database, keyed by (schema, table): share it only among
+ * QueryBuilders of the same DataSource (see forDataSource(), their default).
+ *
+ * Used by QueryBuilder so that DatabaseMetaData.getColumns() is only consulted
+ * on the first build touching a table (or after the entry expired/was invalidated).
+ * Entries are evicted in LRU order once maxSize is reached.
+ */
+public class TableMetadataCache {
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Map<DataSource, TableMetadataCache> SHARED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    protected final int maxSize;
+    protected final long ttlNanos;
+    //Guarded by itself (access-ordered LinkedHashMap mutates on get())
+    protected final LinkedHashMap<Key, Entry> entries;
+    protected final LongAdder hitCount = new LongAdder();
+    protected final LongAdder missCount = new LongAdder();
+    protected final LongAdder evictionCount = new LongAdder();
+
+    public TableMetadataCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+    /**
+     * @param maxSize Max. number of tables kept
+     * @param ttlMillis Time-to-live of each entry (<= 0 means never expires)
+     */
+    public TableMetadataCache(final int maxSize, final long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = (ttlMillis > 0) ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0L;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > TableMetadataCache.this.maxSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return Cache shared by the QueryBuilders of the DataSource
+     */
+    public static TableMetadataCache forDataSource(final DataSource dataSource) {
+        return SHARED.computeIfAbsent(dataSource, (ds) -> new TableMetadataCache());
+    }
+
+    /**
+     * Gets cached columns of the table, or loads (and caches) them on miss.
+     * Loading is done outside of the lock, so concurrent misses on the same table may load twice.
+     * Empty results (e.g. non-existing table) are not cached.
+     *
+     * @return Unmodifiable list of column names
+     */
+    public List<String> getColumns(final String schema, final String table, final ColumnsLoader loader)
+        throws SQLException
+    {
+        final Key key = new Key(schema, table);
+        final List<String> cached = get(key);
+        if (cached != null) {
+            hitCount.increment();
+            return cached;
+        }
+        missCount.increment();
+        final List<String> loaded = loader.load();
+        if ((loaded == null) || (loaded.isEmpty())) {
+            return Collections.emptyList();
+        }
+        return put(key, loaded);
+    }
+
+    /**
+     * @return Cached columns, or null if absent/expired (doesn't count as hit/miss)
+     */
+    public List<String> getIfPresent(final String schema, final String table) {
+        return get(new Key(schema, table));
+    }
+
+    public List<String> put(final String schema, final String table, final List<String> columns) {
+        return put(new Key(schema, table), columns);
+    }
+
+    public void invalidate(final String schema, final String table) {
+        synchronized (entries) {
+            entries.remove(new Key(schema, table));
+        }
+    }
+    public void invalidateSchema(final String schema) {
+        synchronized (entries) {
+            final Iterator<Key> iter = entries.keySet().iterator();
+            while (iter.hasNext()) {
+                if (Objects.equals(schema, iter.next().schema)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+    public long getMissCount() {
+        return missCount.sum();
+    }
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+    public void resetStats() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "TableMetadataCache[size=" + size() + ",hits=" + getHitCount()
+            + ",misses=" + getMissCount() + ",evictions=" + getEvictionCount() + "]";
+    }
+
+    protected List<String> get(final Key key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if ((ttlNanos > 0) && (currentTimeNanos() - entry.loadedAt >= ttlNanos)) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.columns;
+        }
+    }
+
+    protected List<String> put(final Key key, final List<String> columns) {
+        final List<String> cols = Collections.unmodifiableList(new ArrayList<>(columns));
+        synchronized (entries) {
+            entries.put(key, new Entry(cols, currentTimeNanos()));
+        }
+        return cols;
+    }
+
+    protected long currentTimeNanos() {
+        return System.nanoTime();
+    }
+
+    @FunctionalInterface
+    public interface ColumnsLoader {
+        List<String> load() throws SQLException;
+    }
+
+    protected static final class Key {
+        protected final String schema;
+        protected final String table;
+        private final int hash;
+
+        protected Key(final String schema, final String table) {
+            this.schema = schema;
+            this.table = table;
+            this.hash = Objects.hash(schema, table);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return (Objects.equals(schema, other.schema)) && (Objects.equals(table, other.table));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    protected static final class Entry {
+        protected final List<String> columns;
+        protected final long loadedAt;
+
+        protected Entry(final List<String> columns, final long loadedAt) {
+            this.columns = columns;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
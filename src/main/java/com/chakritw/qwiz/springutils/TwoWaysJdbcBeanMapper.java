@@ -1,21 +1,26 @@
 package com.chakritw.qwiz.springutils;
 
 import java.beans.PropertyDescriptor;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -25,18 +30,34 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.AbstractSqlParameterSource;
+import org.springframework.util.ClassUtils;
 
 public class TwoWaysJdbcBeanMapper<T> extends AbstractSqlParameterSource implements RowMapper<T> {
-    public final Pattern GETTER_PATTERN = Pattern.compile("^(get|is)([A-Z]{1})([A-Za-z0-9_\\$]*)$");
+    public static final Pattern GETTER_PATTERN = Pattern.compile("^(get|is)([A-Z]{1})([A-Za-z0-9_\\$]*)$");
+    /** Max. distinct ResultSet shapes with a cached column plan */
+    public static final int MAX_COLUMN_PLANS = 64;
+    protected static final ConversionService CONVERSION_SERVICE = DefaultConversionService.getSharedInstance();
+    /**
+     * Plan of the ResultSet being mapped on each thread, as all its rows are mapped in a row
+     * (per thread, as a mapper may map ResultSets of several threads at once, e.g. partitioned queries)
+     */
+    protected static final ThreadLocal<ResultSetPlan> LAST_PLAN = new ThreadLocal<>();
 
     protected final T bean;
     protected final Class<T> beanClass;
-    protected final BeanWrapper beanWrapper;
+    protected final BeanAccessors<T> accessors;
+    /** Only for properties without a generated reader (see getValue()) */
+    private BeanWrapper beanWrapper;
     protected final Map<String, String> fwdMap;
     protected final Map<String, String> invMap;
     protected final ObjectMapper objectMapper;
+    /** Column plans by ResultSet label signature (shared with mappers from withBean()) */
+    protected final Map<String, ColumnPlan> columnPlans;
 
     public TwoWaysJdbcBeanMapper(T bean) {
         this(bean, (Class<T>) bean.getClass());
@@ -49,44 +70,74 @@ public class TwoWaysJdbcBeanMapper<T> extends AbstractSqlParameterSource impleme
     public TwoWaysJdbcBeanMapper(T bean, Class<T> refCls) {
         this.bean = bean;
         this.beanClass = refCls;
-        this.beanWrapper = (bean != null) ? PropertyAccessorFactory.forBeanPropertyAccess(bean) : null;
+        this.accessors = BeanAccessors.of(refCls);
         this.fwdMap = new HashMap<>();
         this.invMap = new HashMap<>();
         this.objectMapper = new ObjectMapper();
+        this.columnPlans = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Bound to another bean, sharing the mapping (& ObjectMapper) of the source mapper
+     */
+    protected TwoWaysJdbcBeanMapper(T bean, TwoWaysJdbcBeanMapper<T> src) {
+        this.bean = bean;
+        this.beanClass = src.beanClass;
+        this.accessors = src.accessors;
+        this.fwdMap = src.fwdMap;
+        this.invMap = src.invMap;
+        this.objectMapper = src.objectMapper;
+        this.columnPlans = src.columnPlans;
+    }
+
+    /**
+     * @return New mapper for the bean (e.g. as SqlParameterSource), sharing this mapper's mapping
+     */
+    public TwoWaysJdbcBeanMapper<T> withBean(T bean) {
+        return new TwoWaysJdbcBeanMapper<>(bean, this);
     }
 
     /**
      * See: RowMapper<T>.mapRows()
+     *
+     * Instantiates the bean & sets each column through its setter/public field (see BeanAccessors),
+     * read with the ResultSet getter of the property type if the column type allows (see ColumnGetter),
+     * else converting values with Spring's ConversionService if needed; through a Map converted with
+     * Jackson only if the bean or some value cannot be handled so.
      */
     @Override
     public T mapRow(ResultSet rs, int rowNum) throws SQLException {
-        //Prevent missing columns in limited/subset queries
-        ResultSetMetaData rsmd = rs.getMetaData();
-        final int nCols = rsmd.getColumnCount();
-        final Set<String> rsCols = new HashSet<>();
-        for (int i = 1;i <= nCols;i++) {
-            final String col = rsmd.getColumnLabel(i);
-            if (col == null) {
-                continue;
+        final ColumnPlan plan = getColumnPlan(rs);
+        if (plan.writers != null) {
+            final T item = mapRowDirect(rs, plan);
+            if (item != null) {
+                return item;
             }
-            rsCols.add(col.toLowerCase());
         }
-
-        final Map<String, Object> m = new HashMap<>();
-        for (Map.Entry<String, String> e : invMap.entrySet()) {
-            String colName = e.getKey();
-            if ((colName == null) || (!rsCols.contains(colName.toLowerCase()))) {
-                continue;
-            }
-            String propName = e.getValue();
-            Object colVal = rs.getObject(colName);
-            m.put(propName, colVal);
+        final int n = plan.columnIndexes.length;
+        final Map<String, Object> m = new HashMap<>(Math.max(4, (n * 4 + 2) / 3));
+        for (int i = 0;i < n;i++) {
+            m.put(plan.propNames[i], rs.getObject(plan.columnIndexes[i]));
         }
 
-        return (beanWrapper != null) ? beanWrapper.convertIfNecessary(m, beanClass)
+        return (bean != null) ? getBeanWrapper().convertIfNecessary(m, beanClass)
             : objectMapper.convertValue(m, beanClass);
     }
 
+    /**
+     * @return Mapped bean, or null if some value needs the Jackson conversion
+     */
+    protected T mapRowDirect(final ResultSet rs, final ColumnPlan plan) throws SQLException {
+        final T item = accessors.newInstance();
+        final int n = plan.columnIndexes.length;
+        for (int i = 0;i < n;i++) {
+            if (!plan.getters[i].set(rs, plan.columnIndexes[i], item, plan.writers[i])) {
+                return null;
+            }
+        }
+        return item;
+    }
+
     /**
      * See: SqlParameterSource.getParameterNames()
      */
@@ -114,7 +165,15 @@ public class TwoWaysJdbcBeanMapper<T> extends AbstractSqlParameterSource impleme
             throw new IllegalArgumentException("No bean property mapped for column/parameter: " + paramName);
         }
 
-        return beanWrapper.getPropertyValue(propName);
+        final BeanAccessors.Reader reader = accessors.getReader(propName);
+        return (reader != null) ? reader.read(bean) : getBeanWrapper().getPropertyValue(propName);
+    }
+
+    protected BeanWrapper getBeanWrapper() {
+        if (beanWrapper == null) {
+            beanWrapper = PropertyAccessorFactory.forBeanPropertyAccess(bean);
+        }
+        return beanWrapper;
     }
 
     public String getMappedName(final String propName) {
@@ -179,10 +238,270 @@ public class TwoWaysJdbcBeanMapper<T> extends AbstractSqlParameterSource impleme
                 invMap.remove(colName);
             }
         }
+        //Also invalidates LAST_PLAN of all threads
+        columnPlans.values().forEach((plan) -> plan.stale = true);
+        columnPlans.clear();
 
         return this;
     }
 
+    /**
+     * @return Plan of the mapped columns present in the ResultSet (computed once per label & type signature)
+     */
+    protected ColumnPlan getColumnPlan(final ResultSet rs) throws SQLException {
+        final ResultSetPlan last = LAST_PLAN.get();
+        if ((last != null) && (last.resultSet.get() == rs) && (last.columnPlans == columnPlans)
+            && (!last.plan.stale))
+        {
+            return last.plan;
+        }
+        final ResultSetMetaData rsmd = rs.getMetaData();
+        final int nCols = rsmd.getColumnCount();
+        final String[] labels = new String[nCols];
+        final int[] sqlTypes = new int[nCols];
+        final StringBuilder sigb = new StringBuilder(nCols * 20);
+        for (int i = 1;i <= nCols;i++) {
+            final String label = rsmd.getColumnLabel(i);
+            labels[i - 1] = label;
+            sqlTypes[i - 1] = rsmd.getColumnType(i);
+            sigb.append(label).append('\u0002').append(sqlTypes[i - 1]).append('\u0001');
+        }
+        final String sig = sigb.toString();
+        ColumnPlan plan = columnPlans.get(sig);
+        if (plan == null) {
+            plan = new ColumnPlan(labels, sqlTypes, invMap, accessors);
+            if (columnPlans.size() >= MAX_COLUMN_PLANS) {
+                columnPlans.clear();
+            }
+            columnPlans.put(sig, plan);
+        }
+        LAST_PLAN.set(new ResultSetPlan(rs, columnPlans, plan));
+        return plan;
+    }
+
+    /**
+     * Indexes of the mapped columns present in a ResultSet shape (missing ones skipped, as in
+     * limited/subset queries), with their properties
+     */
+    protected static class ColumnPlan {
+        protected final int[] columnIndexes;
+        protected final String[] propNames;
+        /** Writers of the properties, or null if the bean cannot be mapped directly */
+        protected final BeanAccessors.Writer[] writers;
+        /** Getters of the columns, along with the writers */
+        protected final ColumnGetter[] getters;
+        /** Set once the mapping changed */
+        protected volatile boolean stale;
+
+        /**
+         * @param sqlTypes java.sql.Types of the columns
+         */
+        protected ColumnPlan(final String[] labels, final int[] sqlTypes, final Map<String, String> invMap,
+            final BeanAccessors<?> accessors)
+        {
+            //1st column of each label (case-insensitive), as ResultSet.getObject(String)
+            final Map<String, Integer> indexesByLabel = new HashMap<>();
+            for (int i = 0;i < labels.length;i++) {
+                if (labels[i] != null) {
+                    indexesByLabel.putIfAbsent(labels[i].toLowerCase(), i + 1);
+                }
+            }
+            final List<Integer> indexes = new ArrayList<>();
+            final List<String> props = new ArrayList<>();
+            for (Map.Entry<String, String> e : invMap.entrySet()) {
+                final String colName = e.getKey();
+                final Integer idx = (colName != null) ? indexesByLabel.get(colName.toLowerCase()) : null;
+                if (idx == null) {
+                    continue;
+                }
+                indexes.add(idx);
+                props.add(e.getValue());
+            }
+            this.columnIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+            this.propNames = props.toArray(new String[props.size()]);
+            this.writers = (accessors.isInstantiable()) ? findWriters(propNames, accessors) : null;
+            this.getters = (writers != null) ? new ColumnGetter[writers.length] : null;
+            for (int i = 0;(getters != null) && (i < getters.length);i++) {
+                getters[i] = ColumnGetter.of(writers[i].getType(), sqlTypes[columnIndexes[i] - 1]);
+            }
+        }
+
+        protected static BeanAccessors.Writer[] findWriters(final String[] propNames,
+            final BeanAccessors<?> accessors)
+        {
+            final BeanAccessors.Writer[] writers = new BeanAccessors.Writer[propNames.length];
+            for (int i = 0;i < propNames.length;i++) {
+                writers[i] = accessors.getWriter(propNames[i]);
+                if (writers[i] == null) {
+                    return null;
+                }
+            }
+            return writers;
+        }
+    }
+
+    /**
+     * ResultSet getter of a column for a property type: typed ones for primitives & date-times from
+     * compatible column types (see of()), so that values are neither boxed nor converted by the driver
+     * (e.g. into BigDecimal) then by Spring; getObject() for others.
+     */
+    protected enum ColumnGetter {
+        LONG {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final long value = rs.getLong(idx);
+                if (!rs.wasNull()) {
+                    writer.writeLong(item, value);
+                }
+                return true;
+            }
+        },
+        INT {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final int value = rs.getInt(idx);
+                if (!rs.wasNull()) {
+                    writer.writeInt(item, value);
+                }
+                return true;
+            }
+        },
+        DOUBLE {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final double value = rs.getDouble(idx);
+                if (!rs.wasNull()) {
+                    writer.writeDouble(item, value);
+                }
+                return true;
+            }
+        },
+        BOOLEAN {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final boolean value = rs.getBoolean(idx);
+                if (!rs.wasNull()) {
+                    writer.writeBoolean(item, value);
+                }
+                return true;
+            }
+        },
+        INSTANT {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final Timestamp value = rs.getTimestamp(idx);
+                writer.write(item, (value != null) ? value.toInstant() : null);
+                return true;
+            }
+        },
+        LOCAL_DATE_TIME {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final Timestamp value = rs.getTimestamp(idx);
+                writer.write(item, (value != null) ? value.toLocalDateTime() : null);
+                return true;
+            }
+        },
+        LOCAL_DATE {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final java.sql.Date value = rs.getDate(idx);
+                writer.write(item, (value != null) ? value.toLocalDate() : null);
+                return true;
+            }
+        },
+        OBJECT {
+            @Override
+            protected boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+                throws SQLException
+            {
+                final Class<?> type = writer.getType();
+                Object value = rs.getObject(idx);
+                if (value == null) {
+                    if (type.isPrimitive()) {
+                        //Keep the default, as Jackson does
+                        return true;
+                    }
+                } else if (!ClassUtils.isAssignableValue(type, value)) {
+                    if (!CONVERSION_SERVICE.canConvert(value.getClass(), type)) {
+                        return false;
+                    }
+                    try {
+                        value = CONVERSION_SERVICE.convert(value, type);
+                    } catch (ConversionException ex) {
+                        return false;
+                    }
+                }
+                writer.write(item, value);
+                return true;
+            }
+        };
+
+        /**
+         * Sets the column value of the current row into the item (nulls keep primitives' defaults)
+         * @return False if the value needs the Jackson conversion
+         */
+        protected abstract boolean set(ResultSet rs, int idx, Object item, BeanAccessors.Writer writer)
+            throws SQLException;
+
+        /**
+         * @param sqlType java.sql.Types of the column
+         * @return Typed getter if the column type converts to the property type as ConversionService
+         *   would (e.g. integral/decimal columns to long, TIMESTAMP to Instant), else OBJECT
+         */
+        protected static ColumnGetter of(final Class<?> propType, final int sqlType) {
+            final boolean integral = (sqlType == Types.TINYINT) || (sqlType == Types.SMALLINT)
+                || (sqlType == Types.INTEGER) || (sqlType == Types.BIGINT);
+            final boolean decimal = (sqlType == Types.DECIMAL) || (sqlType == Types.NUMERIC);
+            if (propType == long.class) {
+                return ((integral) || (decimal)) ? LONG : OBJECT;
+            } else if (propType == int.class) {
+                return (((integral) && (sqlType != Types.BIGINT)) || (decimal)) ? INT : OBJECT;
+            } else if (propType == double.class) {
+                return ((integral) || (decimal) || (sqlType == Types.DOUBLE) || (sqlType == Types.FLOAT)
+                    || (sqlType == Types.REAL)) ? DOUBLE : OBJECT;
+            } else if (propType == boolean.class) {
+                return ((sqlType == Types.BOOLEAN) || (sqlType == Types.BIT)) ? BOOLEAN : OBJECT;
+            } else if (propType == Instant.class) {
+                return (sqlType == Types.TIMESTAMP) ? INSTANT : OBJECT;
+            } else if (propType == LocalDateTime.class) {
+                return (sqlType == Types.TIMESTAMP) ? LOCAL_DATE_TIME : OBJECT;
+            } else if (propType == LocalDate.class) {
+                return (sqlType == Types.DATE) ? LOCAL_DATE : OBJECT;
+            }
+            return OBJECT;
+        }
+    }
+
+    protected static class ResultSetPlan {
+        protected final WeakReference<ResultSet> resultSet;
+        /** Plans of the mapping it belongs to (see columnPlans) */
+        protected final Map<String, ColumnPlan> columnPlans;
+        protected final ColumnPlan plan;
+
+        protected ResultSetPlan(final ResultSet resultSet, final Map<String, ColumnPlan> columnPlans,
+            final ColumnPlan plan)
+        {
+            this.resultSet = new WeakReference<>(resultSet);
+            this.columnPlans = columnPlans;
+            this.plan = plan;
+        }
+    }
+
     protected Collection<String> getPropNames(final Collection<String> excludedProps) {
         Map<String, Class<?>> m = getPropNamesAndTypesMap(excludedProps);
         return m.keySet();
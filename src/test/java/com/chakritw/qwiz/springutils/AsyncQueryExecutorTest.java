@@ -0,0 +1,88 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ * AsyncQueryExecutor Unit Test
+ */
+public class AsyncQueryExecutorTest {
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final AsyncQueryExecutor executor = new AsyncQueryExecutor(AsyncQueryExecutor.newDefaultExecutor(8), 2);
+        final AtomicInteger nRunning = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0;i < 20;i++) {
+            final int n = i;
+            futures.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(nRunning.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                nRunning.decrementAndGet();
+                return n;
+            }));
+        }
+        int sum = 0;
+        for (CompletableFuture<Integer> f : futures) {
+            sum += f.get();
+        }
+        assertEquals(190, sum);
+        System.out.println("testConcurrencyLimit() => max. running: " + maxRunning.get());
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(2, executor.getAvailablePermits());
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        final AsyncQueryExecutor executor = new AsyncQueryExecutor(1);
+        final CompletableFuture<Object> f = executor.submit(() -> {
+            throw new IllegalStateException("Failed");
+        });
+        try {
+            f.get();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(f.isCompletedExceptionally());
+        assertEquals(1, executor.getAvailablePermits());
+    }
+
+    @Test
+    public void testForDataSource() {
+        final DataSource ds = Mockito.mock(DataSource.class);
+        final AsyncQueryExecutor executor = AsyncQueryExecutor.forDataSource(ds);
+        assertSame(executor, AsyncQueryExecutor.forDataSource(ds));
+        //Half of the (undetected) pool
+        assertEquals(AsyncQueryExecutor.DEFAULT_POOL_SIZE / 2, executor.getMaxConcurrent());
+
+        final AsyncQueryExecutor custom = new AsyncQueryExecutor(2);
+        AsyncQueryExecutor.setForDataSource(ds, custom);
+        assertSame(custom, AsyncQueryExecutor.forDataSource(ds));
+    }
+
+    @Test
+    public void testMaxConcurrentFor() {
+        assertEquals(5, AsyncQueryExecutor.maxConcurrentFor(10, 0.5));
+        //At least one connection left
+        assertEquals(9, AsyncQueryExecutor.maxConcurrentFor(10, 1.0));
+        assertEquals(1, AsyncQueryExecutor.maxConcurrentFor(2, 1.0));
+        assertEquals(1, AsyncQueryExecutor.maxConcurrentFor(1, 0.5));
+        assertEquals(1, AsyncQueryExecutor.maxConcurrentFor(3, 0.1));
+    }
+}
@@ -0,0 +1,136 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * BeanAccessors Unit Test
+ */
+public class BeanAccessorsTest {
+
+    @Test
+    public void testGeneratedAccessors() {
+        final BeanAccessors<PublicModel> accessors = BeanAccessors.of(PublicModel.class);
+        assertTrue(accessors == BeanAccessors.of(PublicModel.class));
+        assertTrue(accessors.isInstantiable());
+        final PublicModel item = accessors.newInstance();
+
+        accessors.getWriter("id").write(item, 7L);
+        accessors.getWriter("active").write(item, true);
+        accessors.getWriter("name").write(item, "A");
+        accessors.getWriter("code").write(item, 42);
+        assertEquals(7L, item.getId());
+        assertTrue(item.isActive());
+        assertEquals("A", item.name);
+        assertEquals(42, item.getCode());
+        //Setter taking the getter type wins over overloads
+        assertEquals(int.class, accessors.getWriter("code").getType());
+
+        assertEquals(7L, accessors.getReader("id").read(item));
+        assertEquals(true, accessors.getReader("active").read(item));
+        assertEquals("A", accessors.getReader("name").read(item));
+        assertEquals(long.class, accessors.getReader("id").getType());
+        //Generated with LambdaMetafactory
+        assertTrue(accessors.getWriter("id") instanceof BeanAccessors.PrimitiveLambdaWriter);
+        assertTrue(accessors.getReader("id") instanceof BeanAccessors.LambdaReader);
+
+        //Unboxed
+        accessors.getWriter("id").writeLong(item, 8L);
+        accessors.getWriter("active").writeBoolean(item, false);
+        accessors.getWriter("code").writeInt(item, 43);
+        accessors.getWriter("ratio").writeDouble(item, 0.5);
+        assertEquals(8L, item.getId());
+        assertFalse(item.isActive());
+        assertEquals(43, item.getCode());
+        assertEquals(0.5, item.getRatio());
+
+        assertNull(accessors.getReader("class"));
+        assertNull(accessors.getWriter("readOnly"));
+        assertEquals("r", accessors.getReader("readOnly").read(item));
+    }
+
+    @Test
+    public void testHandleAccessors() {
+        final BeanAccessors<PrivateModel> accessors = BeanAccessors.of(PrivateModel.class);
+        assertTrue(accessors.isInstantiable());
+        final PrivateModel item = accessors.newInstance();
+        accessors.getWriter("id").write(item, 3L);
+        assertEquals(3L, item.getId());
+        assertEquals(3L, accessors.getReader("id").read(item));
+        assertTrue(accessors.getWriter("id") instanceof BeanAccessors.HandleWriter);
+        accessors.getWriter("id").writeLong(item, 4L);
+        assertEquals(4L, item.getId());
+
+        assertFalse(BeanAccessors.of(NoDefaultConstructorModel.class).isInstantiable());
+    }
+
+    public static class PublicModel {
+        public String name;
+        private long id;
+        private boolean active;
+        private int code;
+        private double ratio;
+
+        public long getId() {
+            return id;
+        }
+
+        public PublicModel setId(long id) {
+            this.id = id;
+            return this;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = Integer.parseInt(code);
+        }
+
+        public void setCode(int code) {
+            this.code = code;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+
+        public String getReadOnly() {
+            return "r";
+        }
+    }
+
+    static class PrivateModel {
+        private long id;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+    }
+
+    public static class NoDefaultConstructorModel {
+        public NoDefaultConstructorModel(final long id) {
+        }
+    }
+}
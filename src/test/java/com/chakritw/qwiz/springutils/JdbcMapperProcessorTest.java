@@ -0,0 +1,190 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * JdbcMapperProcessor Unit Test
+ */
+public class JdbcMapperProcessorTest {
+    private static final String DB_URL = "jdbc:h2:mem:jmp_test;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE";
+    private static final String SELECT_SQL = "SELECT id, name, is_active, price, quantity, secret, extra"
+        + " FROM mapped_items ORDER BY id";
+
+    private static JdbcTemplate jdbc;
+
+    @BeforeAll
+    public static void setUpDatabase() {
+        jdbc = new JdbcTemplate(new SimpleDriverDataSource(new org.h2.Driver(), DB_URL, "sa", ""));
+        jdbc.execute("DROP TABLE IF EXISTS mapped_items");
+        jdbc.execute("CREATE TABLE mapped_items (id BIGINT PRIMARY KEY, name VARCHAR(50), is_active BOOLEAN,"
+            + " price DECIMAL(10, 2), quantity INT, secret VARCHAR(50), extra VARCHAR(50))");
+        jdbc.update("INSERT INTO mapped_items VALUES (1, 'A', TRUE, 1.50, 3, 's1', 'x')");
+        jdbc.update("INSERT INTO mapped_items VALUES (2, NULL, NULL, NULL, NULL, NULL, NULL)");
+    }
+
+    @Test
+    public void testMapRow() {
+        final GeneratedJdbcMapper<MappedModel> mapper = GeneratedJdbcMapper.of(MappedModel.class);
+        assertTrue(mapper instanceof JdbcMapperProcessorTest_MappedModel_JdbcMapper);
+        assertEquals(MappedModel.class, mapper.getBeanClass());
+        //Copies of the prototype looked up once
+        final GeneratedJdbcMapper<MappedModel> other = GeneratedJdbcMapper.of(MappedModel.class);
+        assertTrue((other != mapper) && (other.getClass() == mapper.getClass()));
+        assertNull(other.getBean());
+        final TwoWaysJdbcBeanMapper<MappedModel> reference = new TwoWaysJdbcBeanMapper<>(MappedModel.class)
+            .mapSameExcept("secret")
+            .map("active", "is_active");
+
+        final List<MappedModel> items = jdbc.query(SELECT_SQL, mapper);
+        final List<MappedModel> refItems = jdbc.query(SELECT_SQL, reference);
+        assertEquals(refItems, items);
+
+        assertEquals(2, items.size());
+        assertEquals(new MappedModel().setId(1L).setName("A").setActive(true)
+            .setPrice(new BigDecimal("1.50")).setQuantity(3), items.get(0));
+        //Nulls keep primitives' defaults
+        assertEquals(new MappedModel().setId(2L), items.get(1));
+        assertNull(items.get(0).getSecret());
+    }
+
+    @Test
+    public void testParameterSource() {
+        final MappedModel item = new MappedModel().setId(3L).setName("C").setActive(true)
+            .setPrice(new BigDecimal("10.00")).setQuantity(5).setSecret("s3");
+        final GeneratedJdbcMapper<MappedModel> mapper = new JdbcMapperProcessorTest_MappedModel_JdbcMapper()
+            .withBean(item);
+        final TwoWaysJdbcBeanMapper<MappedModel> reference = new TwoWaysJdbcBeanMapper<>(MappedModel.class)
+            .mapSameExcept("secret")
+            .map("active", "is_active")
+            .withBean(item);
+
+        assertEquals(new HashSet<>(Arrays.asList(reference.getParameterNames())),
+            new HashSet<>(Arrays.asList(mapper.getParameterNames())));
+        for (String paramName : reference.getParameterNames()) {
+            assertTrue(mapper.hasValue(paramName));
+            assertEquals(reference.getValue(paramName), mapper.getValue(paramName));
+        }
+        assertFalse(mapper.hasValue("secret"));
+        assertFalse(mapper.hasValue("active"));
+        assertThrows(IllegalArgumentException.class, () -> mapper.getValue("secret"));
+
+        new NamedParameterJdbcTemplate(jdbc).update("INSERT INTO mapped_items (id, name, is_active, price, quantity)"
+            + " VALUES (:id, :name, :is_active, :price, :quantity)", mapper);
+        try {
+            assertEquals(item.setSecret(null), jdbc.queryForObject(
+                SELECT_SQL.replace("ORDER BY", "WHERE id = 3 ORDER BY"),
+                GeneratedJdbcMapper.of(MappedModel.class)));
+        } finally {
+            jdbc.update("DELETE FROM mapped_items WHERE id = 3");
+        }
+    }
+
+    @Test
+    public void testNoGeneratedMapper() {
+        assertThrows(IllegalArgumentException.class, () -> GeneratedJdbcMapper.of(JdbcMapperProcessorTest.class));
+    }
+
+    @JdbcMapped
+    public static class MappedModel {
+        private long id;
+        private String name;
+        @JdbcColumn("is_active")
+        private boolean active;
+        public BigDecimal price;
+        private Integer quantity;
+        @JdbcTransient
+        private String secret;
+
+        public long getId() {
+            return id;
+        }
+
+        public MappedModel setId(long id) {
+            this.id = id;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MappedModel setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public MappedModel setActive(boolean active) {
+            this.active = active;
+            return this;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public MappedModel setPrice(BigDecimal price) {
+            this.price = price;
+            return this;
+        }
+
+        public Integer getQuantity() {
+            return quantity;
+        }
+
+        public MappedModel setQuantity(Integer quantity) {
+            this.quantity = quantity;
+            return this;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public MappedModel setSecret(String secret) {
+            this.secret = secret;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MappedModel)) {
+                return false;
+            }
+            final MappedModel other = (MappedModel) obj;
+            return (id == other.id) && (active == other.active) && (Objects.equals(name, other.name))
+                && (Objects.equals(price, other.price)) && (Objects.equals(quantity, other.quantity))
+                && (Objects.equals(secret, other.secret));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, name, active, price, quantity, secret);
+        }
+
+        @Override
+        public String toString() {
+            return "MappedModel[id=" + id + ",name=" + name + ",active=" + active + ",price=" + price
+                + ",quantity=" + quantity + ",secret=" + secret + "]";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * KeyRangePartitioner Unit Test
+ */
+public class KeyRangePartitionerTest {
+    @Test
+    public void testSplitLongs() {
+        final List<KeyRangePartitioner.Range> ranges = KeyRangePartitioner.split(1L, 10L, 4);
+        System.out.println("testSplitLongs() => " + ranges);
+        assertEquals(4, ranges.size());
+        assertEquals(1L, ranges.get(0).getLo());
+        assertEquals(ranges.get(0).getHi(), ranges.get(1).getLo());
+        assertEquals(10L, ranges.get(3).getHi());
+        assertTrue(ranges.get(3).isLast());
+        assertTrue(!ranges.get(2).isLast());
+
+        //Fewer distinct values than partitions
+        assertEquals(2, KeyRangePartitioner.split(5, 6, 8).size());
+        assertEquals(1, KeyRangePartitioner.split(5, 5, 8).size());
+    }
+
+    @Test
+    public void testSplitDecimalsAndDates() {
+        List<KeyRangePartitioner.Range> ranges = KeyRangePartitioner.split(new BigDecimal("0.5"), 2.5d, 2);
+        System.out.println("testSplitDecimalsAndDates() => " + ranges);
+        assertEquals(0, new BigDecimal("1.5").compareTo((BigDecimal) ranges.get(1).getLo()));
+
+        ranges = KeyRangePartitioner.split(LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 31), 12);
+        System.out.println("testSplitDecimalsAndDates() => " + ranges);
+        assertEquals(12, ranges.size());
+        assertEquals(LocalDate.of(2020, 12, 31), ranges.get(11).getHi());
+    }
+}
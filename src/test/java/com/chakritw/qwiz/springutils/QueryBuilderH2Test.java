@@ -0,0 +1,837 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * QueryBuilder Integration Test (with in-memory H2 DB)
+ */
+public class QueryBuilderH2Test {
+    private static final String SCHEMA = "public";
+    private static final String ITEMS_TABLE = "test_items";
+    private static final String DB_URL = "jdbc:h2:mem:qb_test;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE";
+
+    private final AtomicInteger nConnections = new AtomicInteger();
+    private DataSource dataSource;
+    private TableMetadataCache metadataCache;
+
+    @BeforeEach
+    public void init() {
+        final DataSource h2DataSource = new SimpleDriverDataSource(new org.h2.Driver(), DB_URL, "sa", "");
+        dataSource = new DelegatingDataSource(h2DataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                nConnections.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        metadataCache = new TableMetadataCache();
+        final JdbcTemplate jdbc = new JdbcTemplate(h2DataSource);
+        jdbc.execute("DROP TABLE IF EXISTS " + ITEMS_TABLE);
+        jdbc.execute("CREATE TABLE " + ITEMS_TABLE + " (id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+            + " name VARCHAR(50), is_active BOOLEAN, secret VARCHAR(50), remarks VARCHAR(200))");
+        jdbc.update("INSERT INTO " + ITEMS_TABLE + " (name, is_active, secret) VALUES ('A', TRUE, 's1')");
+        jdbc.update("INSERT INTO " + ITEMS_TABLE + " (name, is_active, secret) VALUES ('B', TRUE, 's2')");
+        jdbc.update("INSERT INTO " + ITEMS_TABLE + " (name, is_active, secret) VALUES ('X', FALSE, 's3')");
+    }
+
+    private QueryBuilder<TestModel, Long> newBuilder() {
+        return new QueryBuilder<TestModel, Long>()
+            .setDataSource(dataSource)
+            .setMetadataCache(metadataCache)
+            .setSchemaName(SCHEMA);
+    }
+
+    private TwoWaysJdbcBeanMapper<TestModel> newMapper() {
+        return new TwoWaysJdbcBeanMapper<>(TestModel.class)
+            .mapSameExcept("active")
+            .map("active", "is_active");
+    }
+
+    @Test
+    public void testExecQuerySingleConnection() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .select((s) -> {
+                s.except("secret")
+                    .from(ITEMS_TABLE)
+                    .where((w) -> w.add("is_active = :is_active"))
+                    .orderBy(new String[] { "id" });
+            });
+        final MapSqlParameterSource params = new MapSqlParameterSource("is_active", true);
+
+        nConnections.set(0);
+        final List<TestModel> items = qb.execQuery(params, newMapper());
+        assertEquals(2, items.size());
+        assertEquals("A", items.get(0).getName());
+        assertEquals(null, items.get(0).getSecret());
+        //Cold metadata: still only the one connection used for executing
+        assertEquals(1, nConnections.get());
+
+        nConnections.set(0);
+        qb.execQuery(params, newMapper());
+        assertEquals(1, nConnections.get());
+    }
+
+    @Test
+    public void testExec() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .delete(ITEMS_TABLE, (d) -> d.where("name = :name"));
+        nConnections.set(0);
+        final int n = qb.exec(new MapSqlParameterSource("name", "X"));
+        assertEquals(1, n);
+        assertEquals(1, nConnections.get());
+    }
+
+    @Test
+    public void testExecInsert() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setKeyType(Long.class)
+            .insert(ITEMS_TABLE, "id", (i) -> {});
+        final TestModel item = new TestModel().setName("C").setActive(true);
+        nConnections.set(0);
+        final Long id = qb.execInsert(item, newMapper(), item::setId);
+        assertEquals(4L, (long) id);
+        assertEquals(4L, item.getId());
+        assertEquals(1, nConnections.get());
+        assertEquals("C", new JdbcTemplate(dataSource)
+            .queryForObject("SELECT name FROM " + ITEMS_TABLE + " WHERE id = ?", String.class, id));
+    }
+
+    @Test
+    public void testExecInsertBatch() {
+        final int nItems = 1050;
+        final List<TestModel> items = new ArrayList<>(nItems);
+        for (int i = 0;i < nItems;i++) {
+            items.add(new TestModel().setName("N" + i).setActive((i % 2) == 0));
+        }
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .insert(ITEMS_TABLE, "id", (i) -> {});
+        nConnections.set(0);
+        final BatchResult<Long> result = qb.execInsertBatch(items, newMapper(), 100, 3);
+        System.out.println("testExecInsertBatch() => " + result);
+        assertEquals(nItems, result.getRowCount());
+        assertEquals(nItems, result.getTotalUpdateCount());
+        assertEquals(nItems, result.getGeneratedKeys().size());
+        assertEquals(nItems, new HashSet<>(result.getGeneratedKeys()).size());
+        assertEquals(1, nConnections.get());
+        final int nRows = new JdbcTemplate(dataSource)
+            .queryForObject("SELECT COUNT(*) FROM " + ITEMS_TABLE, Integer.class);
+        assertEquals(3 + nItems, nRows);
+    }
+
+    @Test
+    public void testExecInsertMultiRow() {
+        final int nItems = 95;
+        final List<TestModel> items = new ArrayList<>(nItems);
+        for (int i = 0;i < nItems;i++) {
+            items.add(new TestModel().setName("M" + i).setRemarks("r" + i));
+        }
+        //4 columns per row => 10 rows per statement
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setMaxBindParameters(40)
+            .insert(ITEMS_TABLE, "id", (i) -> {});
+        nConnections.set(0);
+        final BatchResult<Long> result = qb.execInsertMultiRow(items, newMapper());
+        System.out.println("testExecInsertMultiRow() => " + result);
+        assertEquals(nItems, result.getTotalUpdateCount());
+        assertEquals(nItems, new HashSet<>(result.getGeneratedKeys()).size());
+        assertEquals(1, nConnections.get());
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        assertEquals(3 + nItems, (int) jdbc.queryForObject("SELECT COUNT(*) FROM " + ITEMS_TABLE, Integer.class));
+        assertEquals("r94", jdbc.queryForObject("SELECT remarks FROM " + ITEMS_TABLE + " WHERE name = 'M94'",
+            String.class));
+    }
+
+    @Test
+    public void testExecUpsertBatch() {
+        final List<TestModel> items = Arrays.asList(
+            new TestModel().setId(1).setName("A2").setActive(false).setSecret("s1"),
+            new TestModel().setId(10).setName("N").setActive(true).setSecret("s10"));
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setDialect(QueryBuilder.H2)
+            .upsert(ITEMS_TABLE, new String[] { "id" }, (u) -> u.except("remarks"));
+        final BatchResult<Long> result = qb.execUpsertBatch(items, newMapper());
+        assertEquals(2, result.getTotalUpdateCount());
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        assertEquals(4, (int) jdbc.queryForObject("SELECT COUNT(*) FROM " + ITEMS_TABLE, Integer.class));
+        assertEquals("A2", jdbc.queryForObject("SELECT name FROM " + ITEMS_TABLE + " WHERE id = 1", String.class));
+        assertEquals("N", jdbc.queryForObject("SELECT name FROM " + ITEMS_TABLE + " WHERE id = 10", String.class));
+    }
+
+    @Test
+    public void testExecQueryAsync() throws Exception {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setAsyncExecutor(new AsyncQueryExecutor(2))
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.add("name = :name")))
+            .freeze();
+        final List<CompletableFuture<List<TestModel>>> futures = new ArrayList<>();
+        for (String name : new String[] { "A", "B", "X", "Z", "A" }) {
+            futures.add(qb.execQueryAsync(new MapSqlParameterSource("name", name), newMapper()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        assertEquals("B", futures.get(1).get().get(0).getName());
+        assertEquals(0, futures.get(3).get().size());
+        assertEquals(1, futures.get(4).get().size());
+    }
+
+    @Test
+    public void testExecPartitioned() throws Exception {
+        final List<TestModel> items = new ArrayList<>();
+        for (int i = 0;i < 100;i++) {
+            items.add(new TestModel().setName("P" + (char) ('a' + (i % 26))).setActive((i % 3) != 0));
+        }
+        newBuilder()
+            .insert(ITEMS_TABLE, "id", (i) -> {})
+            .execInsertBatch(items, newMapper());
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setAsyncExecutor(new AsyncQueryExecutor(3))
+            .select((s) -> {
+                s.from(ITEMS_TABLE)
+                    .where((w) -> w.add("is_active = :is_active"))
+                    .orderBy(new String[] { "name", "id" })
+                    .partitionBy("id", 4);
+            });
+        final MapSqlParameterSource params = new MapSqlParameterSource("is_active", true);
+        final List<TestModel> expected = newBuilder()
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active").orderBy(new String[] { "name", "id" }))
+            .execQuery(params, newMapper());
+
+        final List<TestModel> concatenated = qb.execPartitioned(params, newMapper());
+        assertEquals(expected.size(), concatenated.size());
+        final List<TestModel> merged = qb.execPartitioned(params, newMapper(),
+            Comparator.comparing(TestModel::getName).thenComparing(TestModel::getId));
+        assertEquals(expected.stream().map(TestModel::getId).collect(Collectors.toList()),
+            merged.stream().map(TestModel::getId).collect(Collectors.toList()));
+
+        assertEquals(0, qb.execPartitioned(new MapSqlParameterSource("is_active", null), newMapper()).size());
+
+        //From an async task of a single-permit executor: ranges run inline
+        final QueryBuilder<TestModel, Long> nested = newBuilder()
+            .setAsyncExecutor(new AsyncQueryExecutor(1))
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active").partitionBy("id", 4));
+        assertEquals(expected.size(), nested.getAsyncExecutor()
+            .submit(() -> nested.execPartitioned(params, newMapper()))
+            .get(30, TimeUnit.SECONDS).size());
+
+        //maxRows limits the whole result, not each range
+        final QueryBuilder<TestModel, Long> limited = newBuilder()
+            .setAsyncExecutor(new AsyncQueryExecutor(3))
+            .setStatementHints(StatementHints.NONE.withMaxRows(5))
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active").orderBy(new String[] { "name", "id" })
+                .partitionBy("id", 4));
+        assertEquals(expected.subList(0, 5).stream().map(TestModel::getId).collect(Collectors.toList()),
+            limited.execPartitioned(params, newMapper(), Comparator.comparing(TestModel::getName)
+                .thenComparing(TestModel::getId)).stream().map(TestModel::getId).collect(Collectors.toList()));
+
+        //Paging would apply per range
+        final QueryBuilder<TestModel, Long> paged = newBuilder()
+            .select((s) -> s.from(ITEMS_TABLE).orderBy(new String[] { "id" }).page(0, 10).partitionBy("id", 4));
+        assertThrows(IllegalStateException.class, () -> paged.execPartitioned(params, newMapper()));
+    }
+
+    @Test
+    public void testExecPartitionedSubMillisecondBounds() {
+        final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("DROP TABLE IF EXISTS ts_items");
+        jdbc.execute("CREATE TABLE ts_items (id BIGINT PRIMARY KEY, created_at TIMESTAMP(9))");
+        jdbc.update("INSERT INTO ts_items VALUES (1, TIMESTAMP '2020-01-01 00:00:00.000000001')");
+        jdbc.update("INSERT INTO ts_items VALUES (2, TIMESTAMP '2020-01-01 12:00:00')");
+        //MAX with nanoseconds: lost if the last range ended at its millisecond
+        jdbc.update("INSERT INTO ts_items VALUES (3, TIMESTAMP '2020-01-02 00:00:00.000000999')");
+        final QueryBuilder<Long, Long> qb = new QueryBuilder<Long, Long>()
+            .setDataSource(dataSource)
+            .setMetadataCache(metadataCache)
+            .setSchemaName(SCHEMA)
+            .setAsyncExecutor(new AsyncQueryExecutor(2))
+            .select((s) -> s.from("ts_items").partitionBy("created_at", 3));
+        final List<Long> ids = qb.execPartitioned(new MapSqlParameterSource(), (rs, rowNum) -> rs.getLong("id"));
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids);
+    }
+
+    @Test
+    public void testAddIn() {
+        final List<Long> ids = new ArrayList<>();
+        for (long id = 1;id <= 2000;id++) {
+            ids.add(id);
+        }
+        final MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        for (QueryBuilder.InStrategy strategy : QueryBuilder.InStrategy.values()) {
+            final QueryBuilder<TestModel, Long> qb = newBuilder()
+                .setInChunkSize(64)
+                .setAsyncExecutor(new AsyncQueryExecutor(3))
+                .select((s) -> {
+                    s.from(ITEMS_TABLE).where((w) -> w.add("is_active = TRUE").addIn("id", "ids", strategy));
+                });
+            final List<TestModel> result = qb.execQuery(params, newMapper());
+            assertEquals(Arrays.asList("A", "B"), result.stream().map(TestModel::getName).sorted()
+                .collect(Collectors.toList()), strategy.name());
+            assertEquals(0, qb.execQuery(new MapSqlParameterSource("ids", new Long[0]), newMapper()).size());
+        }
+
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setInChunkSize(64)
+            .update(ITEMS_TABLE, (u) -> {
+                u.setColumns(Arrays.asList("remarks")).where("remarks IS NULL",
+                    (w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED));
+            });
+        assertEquals(3, qb.exec(new MapSqlParameterSource("ids", ids).addValue("remarks", "chunked")));
+    }
+
+    @Test
+    public void testAddInPagedOrOrdered() {
+        final List<Long> ids = new ArrayList<>();
+        for (long id = 2000;id >= 1;id--) {
+            ids.add(id);
+        }
+        final MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        //AUTO never chunks: one statement, sorted & paged as a whole
+        final List<TestModel> ordered = newBuilder()
+            .setInChunkSize(64)
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids")).orderBy(new String[] { "id" }))
+            .execQuery(params, newMapper());
+        assertEquals(Arrays.asList("A", "B", "X"), ordered.stream().map(TestModel::getName)
+            .collect(Collectors.toList()));
+        final Page<TestModel> page = newBuilder()
+            .setDialect(QueryBuilder.H2)
+            .setInChunkSize(64)
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids")).orderBy(new String[] { "id" })
+                .page(0, 2))
+            .execPage(params, newMapper());
+        assertEquals(Arrays.asList("A", "B"), page.getContent().stream().map(TestModel::getName)
+            .collect(Collectors.toList()));
+        assertEquals(3, page.getTotalElements());
+
+        //CHUNKED: rejected where chunks would be sorted/paged each
+        final QueryBuilder<TestModel, Long> chunkedOrdered = newBuilder()
+            .setInChunkSize(64)
+            .select((s) -> s.from(ITEMS_TABLE)
+                .where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED))
+                .orderBy(new String[] { "id" }));
+        assertThrows(IllegalStateException.class, () -> chunkedOrdered.execQuery(params, newMapper()));
+        final QueryBuilder<TestModel, Long> chunkedPaged = newBuilder()
+            .setDialect(QueryBuilder.H2)
+            .setInChunkSize(64)
+            .select((s) -> s.from(ITEMS_TABLE)
+                .where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED))
+                .orderBy(new String[] { "id" })
+                .page(0, 2));
+        assertThrows(IllegalStateException.class, () -> chunkedPaged.execPage(params, newMapper()));
+        final QueryBuilder<TestModel, Long> chunkedOr = newBuilder()
+            .setInChunkSize(64)
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.setConj("OR").add("name = 'X'")
+                .addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED)));
+        assertThrows(IllegalStateException.class, () -> chunkedOr.execQuery(params, newMapper()));
+        //Unpaged: counted per chunk
+        final Page<TestModel> chunkedPage = newBuilder()
+            .setDialect(QueryBuilder.H2)
+            .setInChunkSize(64)
+            .setAsyncExecutor(new AsyncQueryExecutor(3))
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED)))
+            .execPage(params, newMapper(), QueryBuilder.CountStrategy.WINDOW);
+        assertEquals(3, chunkedPage.getNumberOfElements());
+        assertEquals(3, chunkedPage.getTotalElements());
+    }
+
+    @Test
+    public void testExecQueryChunkedInTransaction() {
+        final List<Long> ids = new ArrayList<>();
+        for (long id = 1;id <= 200;id++) {
+            ids.add(id);
+        }
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setInChunkSize(64)
+            .setAsyncExecutor(new AsyncQueryExecutor(3))
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED)));
+        final TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        tx.execute((status) -> {
+            new JdbcTemplate(dataSource).update("INSERT INTO " + ITEMS_TABLE + " (id, name) VALUES (150, 'T')");
+            //Chunks run on the transaction's connection, so see its uncommitted row
+            nConnections.set(0);
+            assertEquals(4, qb.execQuery(new MapSqlParameterSource("ids", ids), newMapper()).size());
+            assertEquals(0, nConnections.get());
+            status.setRollbackOnly();
+            return null;
+        });
+    }
+
+    @Test
+    public void testExecQueryChunkedFromAsyncTask() throws Exception {
+        final List<Long> ids = new ArrayList<>();
+        for (long id = 1;id <= 200;id++) {
+            ids.add(id);
+        }
+        //Single thread & permit, held by the outer task: chunks must run inline
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setInChunkSize(64)
+            .setAsyncExecutor(new AsyncQueryExecutor(1))
+            .select((s) -> {
+                s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED));
+            });
+        final List<TestModel> result = qb.execQueryAsync(new MapSqlParameterSource("ids", ids), newMapper())
+            .get(30, TimeUnit.SECONDS);
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    public void testExecPage() {
+        for (QueryBuilder.CountStrategy countStrategy : QueryBuilder.CountStrategy.values()) {
+            for (long offset : new long[] { 0, 2, 4 }) {
+                final Page<TestModel> page = newBuilder()
+                    .setDialect(QueryBuilder.H2)
+                    .select((s) -> {
+                        s.allFromMain()
+                            .from(ITEMS_TABLE, "t")
+                            .leftJoin(ITEMS_TABLE, "o", (j) -> j.on("o.id = t.id").toOne())
+                            .where("t.name <> :name")
+                            .orderBy(new String[] { "t.id" })
+                            .page(offset, 2);
+                    })
+                    .execPage(new MapSqlParameterSource("name", "Z"), newMapper(), countStrategy);
+                assertEquals(3, page.getTotalElements(), countStrategy + "@" + offset);
+                assertEquals(Math.max(Math.min(3 - offset, 2), 0), page.getNumberOfElements());
+                assertEquals(2, page.getTotalPages());
+            }
+        }
+    }
+
+    @Test
+    public void testStatementHints() {
+        //H2 ignores Connection.setReadOnly(): record calls instead
+        final List<Boolean> readOnlyCalls = new ArrayList<>();
+        final DataSource recordingDataSource = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                final Connection con = super.getConnection();
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        if ("setReadOnly".equals(method.getName())) {
+                            readOnlyCalls.add((Boolean) args[0]);
+                        }
+                        try {
+                            return method.invoke(con, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    });
+            }
+        };
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setDataSource(recordingDataSource)
+            .setStatementHints(StatementHints.NONE.withFetchSize(10).withQueryTimeout(30))
+            .select((s) -> {
+                s.except("secret")
+                    .from(ITEMS_TABLE)
+                    .orderBy(new String[] { "id" })
+                    .maxRows(2)
+                    .queryTimeout(5)
+                    .hints(s.hintsOrNone().withResultSetType(ResultSet.TYPE_SCROLL_INSENSITIVE))
+                    .readOnly();
+            });
+        assertEquals(10, (int) qb.getStatementHints().getFetchSize());
+        assertEquals(5, (int) qb.getStatementHints().getQueryTimeout());
+
+        final TwoWaysJdbcBeanMapper<TestModel> mapper = newMapper();
+        final List<String> applied = new ArrayList<>();
+        final List<TestModel> items = qb.execQuery(new MapSqlParameterSource(), (rs, i) -> {
+            final Statement stmt = rs.getStatement();
+            applied.add(stmt.getFetchSize() + "/" + stmt.getMaxRows() + "/" + stmt.getQueryTimeout()
+                + "/" + rs.getType() + "/" + readOnlyCalls);
+            return mapper.mapRow(rs, i);
+        });
+        assertEquals(Arrays.asList("A", "B"), items.stream().map(TestModel::getName).collect(Collectors.toList()));
+        //Fetch size capped at max rows
+        assertEquals("2/2/5/" + ResultSet.TYPE_SCROLL_INSENSITIVE + "/[true]", applied.get(0));
+        //Read-only flag reset after use
+        assertEquals(Arrays.asList(true, false), readOnlyCalls);
+
+        readOnlyCalls.clear();
+        try (Stream<TestModel> stream = qb.execStream(new MapSqlParameterSource(), mapper)) {
+            assertEquals(2, stream.count());
+        }
+        assertEquals(Arrays.asList(true, false), readOnlyCalls);
+    }
+
+    @Test
+    public void testQueryListeners() {
+        final QueryMetricsRegistry registry = new QueryMetricsRegistry();
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final List<QueryEvent> events = new ArrayList<>();
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setQueryName("activeItems")
+            .addListener(registry)
+            .addListener(new MicrometerQueryListener(meterRegistry))
+            .addListener(events::add)
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active"));
+        for (int i = 0;i < 3;i++) {
+            assertEquals(2, qb.execQuery(new MapSqlParameterSource("is_active", true), newMapper()).size());
+        }
+        assertEquals(3, events.size());
+        final QueryEvent event = events.get(0);
+        assertEquals(2, event.getRows());
+        assertTrue(event.getMappingNanos() > 0);
+        assertTrue(event.getSql().startsWith("SELECT "));
+        final QueryMetricsRegistry.QueryStats stats = registry.getStats("activeItems");
+        assertEquals(3, stats.getCount());
+        assertEquals(6, stats.getRows());
+        assertEquals(3, meterRegistry.get(MicrometerQueryListener.PREFIX + "execute").tag("query", "activeItems")
+            .timer().count());
+        System.out.println("testQueryListeners() =>\n" + registry.dump());
+
+        assertThrows(BadSqlGrammarException.class, () -> newBuilder()
+            .addListener(registry)
+            .select((s) -> s.from(ITEMS_TABLE).where("no_such_col = 1"))
+            .execQuery(new MapSqlParameterSource(), newMapper()));
+        assertEquals(1, registry.getAllStats().stream().mapToLong(QueryMetricsRegistry.QueryStats::getFailures).sum());
+    }
+
+    @Test
+    public void testBulkWriteListeners() {
+        final List<TestModel> items = new ArrayList<>();
+        for (int i = 0;i < 5;i++) {
+            items.add(new TestModel().setName("L" + i));
+        }
+        final List<QueryEvent> events = new ArrayList<>();
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setBatchSize(2)
+            .addListener(events::add)
+            .insert(ITEMS_TABLE, "id", (i) -> {});
+        //One event per JDBC batch
+        qb.execInsertBatch(items, newMapper());
+        assertEquals(Arrays.asList(2L, 2L, 1L), events.stream().map(QueryEvent::getRows).collect(Collectors.toList()));
+        assertTrue(events.get(0).getSql().startsWith("INSERT "));
+        assertEquals("L0", events.get(0).getParams().getValue("name"));
+        assertEquals("L2", events.get(1).getParams().getValue("name"));
+        //One event per multi-row statement
+        events.clear();
+        qb.execInsertMultiRow(items, newMapper());
+        assertEquals(Arrays.asList(2L, 2L, 1L), events.stream().map(QueryEvent::getRows).collect(Collectors.toList()));
+        assertTrue(events.stream().allMatch((e) -> (e.getFailure() == null) && (e.getExecuteNanos() > 0)));
+    }
+
+    @Test
+    public void testSlowQueryLogExplain() throws InterruptedException {
+        final SlowQueryLog slowLog = new SlowQueryLog(0).enableExplain(dataSource, QueryBuilder.H2);
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setQueryName("byIds")
+            .addListener(slowLog)
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids")));
+        qb.execQuery(new MapSqlParameterSource("ids", Arrays.asList(1L, 2L, 3L)), newMapper());
+        final SlowQueryLog.Entry entry = slowLog.getEntries().get(0);
+        assertEquals("byIds", entry.getQueryName());
+        assertEquals("[1, 2, 3]", entry.getParams().get("ids"));
+        for (int i = 0;(i < 100) && (entry.getPlan() == null);i++) {
+            Thread.sleep(50);
+        }
+        System.out.println("testSlowQueryLogExplain() => " + entry.getPlan());
+        assertTrue(entry.getPlan().toUpperCase().contains("SELECT"), entry.getPlan());
+    }
+
+    @Test
+    public void testExecPageFromAsyncTask() throws Exception {
+        //Single thread & permit, held by the outer task: the count must run inline
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setDialect(QueryBuilder.H2)
+            .setAsyncExecutor(new AsyncQueryExecutor(1))
+            .select((s) -> s.from(ITEMS_TABLE).orderBy(new String[] { "id" }).page(0, 2));
+        final Page<TestModel> page = qb.getAsyncExecutor()
+            .submit(() -> qb.execPage(new MapSqlParameterSource(), newMapper()))
+            .get(30, TimeUnit.SECONDS);
+        assertEquals(2, page.getNumberOfElements());
+        assertEquals(3, page.getTotalElements());
+    }
+
+    @Test
+    public void testResultCache() {
+        final QueryResultCache cache = new QueryResultCache();
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setResultCache(cache)
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active"));
+        final MapSqlParameterSource params = new MapSqlParameterSource("is_active", true);
+        assertEquals(2, qb.execQuery(params, newMapper()).size());
+        nConnections.set(0);
+        assertEquals(2, qb.execQuery(params, newMapper()).size());
+        assertEquals(0, nConnections.get());
+        assertEquals(1, cache.getHitCount());
+
+        newBuilder()
+            .update(ITEMS_TABLE, (u) -> u.setColumns(Arrays.asList("is_active")).where("name = :name"))
+            .exec(new MapSqlParameterSource("name", "X").addValue("is_active", true));
+        assertEquals(0, cache.size());
+        assertEquals(3, qb.execQuery(params, newMapper()).size());
+    }
+
+    @Test
+    public void testResultCacheQualifiedAndUnqualified() {
+        final QueryResultCache cache = new QueryResultCache();
+        final QueryBuilder<TestModel, Long> qualified = newBuilder()
+            .setResultCache(cache)
+            .select((s) -> s.from(ITEMS_TABLE));
+        final QueryBuilder<TestModel, Long> unqualified = newBuilder()
+            .setSchemaName(null)
+            .setResultCache(cache)
+            .select((s) -> s.from(ITEMS_TABLE.toUpperCase()));
+        final MapSqlParameterSource params = new MapSqlParameterSource();
+        assertEquals(3, qualified.execQuery(params, newMapper()).size());
+        assertEquals(3, unqualified.execQuery(params, newMapper()).size());
+        assertEquals(2, cache.size());
+
+        newBuilder()
+            .setSchemaName(null)
+            .delete(ITEMS_TABLE, (d) -> d.where("name = :name"))
+            .exec(new MapSqlParameterSource("name", "X"));
+        assertEquals(0, cache.size());
+        assertEquals(2, qualified.execQuery(params, newMapper()).size());
+        newBuilder()
+            .delete(ITEMS_TABLE, (d) -> d.where("name = :name"))
+            .exec(new MapSqlParameterSource("name", "B"));
+        assertEquals(1, qualified.execQuery(params, newMapper()).size());
+        assertEquals(1, unqualified.execQuery(params, newMapper()).size());
+    }
+
+    @Test
+    public void testResultCacheBypassedInTransaction() {
+        final QueryResultCache cache = new QueryResultCache();
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setResultCache(cache)
+            .select((s) -> s.from(ITEMS_TABLE));
+        final TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        tx.execute((status) -> {
+            newBuilder()
+                .delete(ITEMS_TABLE, (d) -> d.where("name = :name"))
+                .exec(new MapSqlParameterSource("name", "X"));
+            //Uncommitted: not to be served to others
+            assertEquals(2, qb.execQuery(new MapSqlParameterSource(), newMapper()).size());
+            assertEquals(0, cache.size());
+            status.setRollbackOnly();
+            return null;
+        });
+        assertEquals(0, cache.size());
+        assertEquals(3, qb.execQuery(new MapSqlParameterSource(), newMapper()).size());
+    }
+
+    @Test
+    public void testResultCacheTempTableIn() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setResultCache(new QueryResultCache())
+            .select((s) -> s.from(ITEMS_TABLE).where((w) -> w.addInTempTable("name", "names", "VARCHAR(50)")));
+        assertEquals(Arrays.asList("A"), qb.execQuery(new MapSqlParameterSource("names", Arrays.asList("A")),
+            newMapper()).stream().map(TestModel::getName).collect(Collectors.toList()));
+        //Same SQL, other list
+        assertEquals(Arrays.asList("B"), qb.execQuery(new MapSqlParameterSource("names", Arrays.asList("B")),
+            newMapper()).stream().map(TestModel::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testResultCacheMappingKeys() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setResultCache(new QueryResultCache())
+            .select((s) -> s.from(ITEMS_TABLE).where("is_active = :is_active").orderBy(new String[] { "id" }));
+        final MapSqlParameterSource params = new MapSqlParameterSource("is_active", true);
+
+        //Same class, different mapped classes
+        assertEquals(TestModel.class, qb.execQuery(params, new BeanPropertyRowMapper<>(TestModel.class))
+            .get(0).getClass());
+        assertEquals(SubModel.class, qb.execQuery(params, (RowMapper<TestModel>) (RowMapper<?>)
+            new BeanPropertyRowMapper<>(SubModel.class)).get(0).getClass());
+        nConnections.set(0);
+        qb.execQuery(params, new BeanPropertyRowMapper<>(TestModel.class));
+        assertEquals(0, nConnections.get());
+
+        //Lambdas of the same class capturing different state
+        for (String name : new String[] { "L1", "L2" }) {
+            assertEquals(name, qb.execQuery(params, (rs, i) -> new TestModel().setName(name)).get(0).getName());
+        }
+
+        //Remapped after its result was cached
+        final TwoWaysJdbcBeanMapper<TestModel> mapper = newMapper();
+        assertEquals("A", qb.execQuery(params, mapper).get(0).getName());
+        mapper.unmap("name");
+        assertEquals(null, qb.execQuery(params, mapper).get(0).getName());
+        nConnections.set(0);
+        assertEquals("A", qb.execQuery(params, newMapper()).get(0).getName());
+        assertEquals(0, nConnections.get());
+    }
+
+    @Test
+    public void testExecStream() {
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .select((s) -> s.from(ITEMS_TABLE).orderBy(new String[] { "id" }));
+        final TwoWaysJdbcBeanMapper<TestModel> mapper = newMapper();
+        final AtomicInteger nMapped = new AtomicInteger();
+        final MapSqlParameterSource params = new MapSqlParameterSource();
+
+        try (Stream<TestModel> stream = qb.execStream(params, (rs, i) -> {
+            nMapped.incrementAndGet();
+            return mapper.mapRow(rs, i);
+        }, 1)) {
+            assertEquals("A", stream.findFirst().get().getName());
+        }
+        //Rows are mapped only as consumed
+        assertEquals(1, nMapped.get());
+
+        try (Stream<TestModel> stream = qb.execStream(params, mapper)) {
+            assertEquals("A,B,X", stream.map(TestModel::getName).collect(Collectors.joining(",")));
+        }
+
+        final List<String> names = new ArrayList<>();
+        final long n = qb.forEach(params, mapper, (item) -> names.add(item.getName()));
+        assertEquals(3, n);
+        assertEquals(3, names.size());
+    }
+
+    @Test
+    public void testKeysetPaging() {
+        final QueryTemplate<TestModel, Long> template = newBuilder()
+            .select((s) -> {
+                s.except("secret")
+                    .from(ITEMS_TABLE)
+                    .orderBy(new String[] { "is_active", "id" }, new Boolean[] { true, true })
+                    .pageByKeyset(2);
+            })
+            .compile();
+        final List<String> names = new ArrayList<>();
+        String token = null;
+        do {
+            final MapSqlParameterSource params = new MapSqlParameterSource();
+            final PageCursor cursor = PageCursor.decode(token);
+            if (cursor != null) {
+                cursor.addTo(params);
+            }
+            final List<TestModel> page = template.execQuery(params, newMapper());
+            page.forEach((item) -> names.add(item.getName()));
+            final PageCursor next = PageCursor.after(page, (item) -> new Object[] { item.isActive(), item.getId() });
+            token = (next != null) ? next.encode() : null;
+        } while (token != null);
+        assertEquals(Arrays.asList("B", "A", "X"), names);
+        assertEquals(2, template.getShapesCount());
+    }
+
+    @Test
+    public void testBuildFromSnapshotWithoutConnection() throws SQLException {
+        final SchemaSnapshot snapshot = SchemaSnapshot.capture(dataSource, SCHEMA);
+        final QueryBuilder<TestModel, Long> qb = newBuilder()
+            .setMetadataCache(null)
+            .setSchemaSnapshot(snapshot)
+            .select((s) -> s.from(ITEMS_TABLE).except("secret"));
+        nConnections.set(0);
+        final String sql = qb.build(new MapSqlParameterSource());
+        System.out.println("testBuildFromSnapshotWithoutConnection() => " + sql);
+        assertEquals("SELECT id,name,is_active,remarks\nFROM " + SCHEMA + "." + ITEMS_TABLE, sql);
+        assertEquals(0, nConnections.get());
+    }
+
+    @Test
+    public void testSharedMetadataCachePerDataSource() throws SQLException {
+        //Same schema & table names, other columns
+        final DataSource otherDataSource = new SimpleDriverDataSource(new org.h2.Driver(),
+            "jdbc:h2:mem:qb_other_test;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE", "sa", "");
+        final JdbcTemplate otherJdbc = new JdbcTemplate(otherDataSource);
+        otherJdbc.execute("DROP TABLE IF EXISTS " + ITEMS_TABLE);
+        otherJdbc.execute("CREATE TABLE " + ITEMS_TABLE + " (id BIGINT PRIMARY KEY, code VARCHAR(10))");
+
+        final String sql = new QueryBuilder<TestModel, Long>()
+            .setDataSource(dataSource)
+            .setSchemaName(SCHEMA)
+            .select((s) -> s.from(ITEMS_TABLE).except("secret"))
+            .build(new MapSqlParameterSource());
+        assertEquals("SELECT id,name,is_active,remarks\nFROM " + SCHEMA + "." + ITEMS_TABLE, sql);
+        final String otherSql = new QueryBuilder<TestModel, Long>()
+            .setDataSource(otherDataSource)
+            .setSchemaName(SCHEMA)
+            .select((s) -> s.from(ITEMS_TABLE).except("secret"))
+            .build(new MapSqlParameterSource());
+        assertEquals("SELECT id,code\nFROM " + SCHEMA + "." + ITEMS_TABLE, otherSql);
+        assertTrue(TableMetadataCache.forDataSource(dataSource) != TableMetadataCache.forDataSource(otherDataSource));
+    }
+
+    protected static class TestModel {
+        private long id;
+        private String name;
+        private String secret;
+        private boolean active;
+        private String remarks;
+
+        public long getId() {
+            return id;
+        }
+
+        public TestModel setId(long id) {
+            this.id = id;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public TestModel setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public TestModel setSecret(String secret) {
+            this.secret = secret;
+            return this;
+        }
+
+        public String getRemarks() {
+            return remarks;
+        }
+
+        public TestModel setRemarks(String remarks) {
+            this.remarks = remarks;
+            return this;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public TestModel setActive(boolean active) {
+            this.active = active;
+            return this;
+        }
+
+    }
+
+    protected static class SubModel extends TestModel {
+    }
+}
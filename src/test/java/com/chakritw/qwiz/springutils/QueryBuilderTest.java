@@ -3,12 +3,20 @@ package com.chakritw.qwiz.springutils;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
@@ -18,6 +26,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.OngoingStubbing;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 
 /**
@@ -32,6 +41,7 @@ public class QueryBuilderTest {
     
     //@Mock
     private DataSource mockingDataSource;
+    private DatabaseMetaData mockingMetaData;
     private boolean initState;
 
     @PostConstruct
@@ -58,10 +68,11 @@ public class QueryBuilderTest {
                     "id", "t_id", "description"
                 }));
             Connection con = Mockito.mock(Connection.class);
-            Mockito.when(con.getMetaData()).thenReturn(metaData);
+            Mockito.lenient().when(con.getMetaData()).thenReturn(metaData);
             DataSource ds = Mockito.mock(DataSource.class);
-            Mockito.when(ds.getConnection()).thenReturn(con);
+            Mockito.lenient().when(ds.getConnection()).thenReturn(con);
             mockingDataSource = ds;
+            mockingMetaData = metaData;
         } catch (SQLException ex) {
            throw new RuntimeException(ex.getMessage(), ex);
         }
@@ -122,6 +133,10 @@ public class QueryBuilderTest {
             + DELIM + "AND (name = :name)";
         System.out.println("testBuildSelect() => " + sql);
         assertEquals(expected, sql);
+
+        final StringBuilder sb = new StringBuilder("EXPLAIN ");
+        qb.appendTo(sb, params, null);
+        assertEquals("EXPLAIN " + expected, sb.toString());
     }
 
     @Test
@@ -166,6 +181,104 @@ public class QueryBuilderTest {
         assertEquals(expected, sql);
     }
 
+    @Test
+    public void testBuildKeysetPagedSelect() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setDialect(QueryBuilder.POSTGRESQL)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select(new String[] { "id", "name" }, (s) -> {
+                s.from(ITEMS_TABLE)
+                    .where((w) -> w.add("is_active = :is_active").or("name = :name"))
+                    .orderBy(new String[] { "name", "id" })
+                    .pageByKeyset(20);
+            });
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("name", "Abc");
+        params.addValue("is_active", true);
+        final String firstSql = qb.build(params);
+        System.out.println("testBuildKeysetPagedSelect() => " + firstSql);
+        assertEquals("SELECT id,name" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE
+            + DELIM + "WHERE (is_active = :is_active)" + DELIM + "OR (name = :name)"
+            + DELIM + "ORDER BY name,id" + DELIM + "LIMIT 20", firstSql);
+
+        final PageCursor cursor = PageCursor.decode(PageCursor.of("Abc", 42).encode());
+        cursor.addTo(params);
+        String sql = qb.build(params);
+        System.out.println("testBuildKeysetPagedSelect() => " + sql);
+        assertEquals("SELECT id,name" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE
+            + DELIM + "WHERE ((is_active = :is_active)" + DELIM + "OR (name = :name))"
+            + DELIM + "AND ((name,id) > (:keyset_0,:keyset_1))"
+            + DELIM + "ORDER BY name,id" + DELIM + "LIMIT 20", sql);
+        assertEquals(42, params.getValue("keyset_1"));
+
+        //Mixed directions & MSSQL: OR-chain with TOP
+        qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setDialect(QueryBuilder.MSSQL)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select(new String[] { "id", "name" }, (s) -> {
+                s.from(ITEMS_TABLE)
+                    .orderBy(new String[] { "name", "id" }, new Boolean[] { true, false })
+                    .pageByKeyset(20);
+            });
+        sql = qb.build(params);
+        System.out.println("testBuildKeysetPagedSelect() => " + sql);
+        assertEquals("SELECT TOP 20 id,name" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE
+            + DELIM + "WHERE ((name < :keyset_0) OR (name = :keyset_0 AND id > :keyset_1))"
+            + DELIM + "ORDER BY name DESC,id", sql);
+    }
+
+    @Test
+    public void testBuildCountQuery() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.allFromMain()
+                    .allFrom("tj")
+                    .from(ITEMS_TABLE, "t")
+                    .leftJoin(ITEMS_JOIN_TABLE, "tj", (j) -> j.on("t.id = tj.t_id").toOne())
+                    .leftJoin(ITEMS_JOIN_TABLE, "tk", (j) -> j.on("t.id = tk.t_id").toOne())
+                    .where("is_active = :is_active")
+                    .where((w) -> w.add("tk.description = :description"))
+                    .orderBy(new String[] { "t.name", "t.id" }, new Boolean[] { true, false })
+                    .page(40, 20);
+            });
+        final QueryBuilder<TestModel, Long>.SelectClause select = (QueryBuilder<TestModel, Long>.SelectClause) qb.opClause;
+        final StringBuilder sqlb = new StringBuilder();
+        select.appendCountQueryTo(sqlb, new MapSqlParameterSource(), null);
+        System.out.println("testBuildCountQuery() => " + sqlb);
+        assertEquals("SELECT COUNT(*)" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE + " AS t"
+            + DELIM + "LEFT JOIN " + SCHEMA + "." + ITEMS_JOIN_TABLE + " AS tk ON (t.id = tk.t_id)"
+            + DELIM + "WHERE (tk.description = :description)", sqlb.toString());
+        assertEquals(2, select.getPageable().getPageNumber());
+        assertTrue(select.getPageable().getSort().getOrderFor("t.name").isDescending());
+
+        qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.add("is_active").add("COUNT(*)", "n")
+                    .from(ITEMS_TABLE)
+                    .groupBy(new String[] { "is_active" })
+                    .orderBy(new String[] { "is_active" })
+                    .page(0, 10);
+            });
+        sqlb.setLength(0);
+        ((QueryBuilder<TestModel, Long>.SelectClause) qb.opClause).appendCountQueryTo(sqlb, new MapSqlParameterSource(), null);
+        System.out.println("testBuildCountQuery() => " + sqlb);
+        assertEquals("SELECT COUNT(*) FROM (SELECT is_active,COUNT(*) AS n" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE
+            + DELIM + "GROUP BY is_active) AS cnt", sqlb.toString());
+    }
+
     @Test
     public void testBuildInsertVals() throws SQLException {
         init();
@@ -188,6 +301,175 @@ public class QueryBuilderTest {
          */
     }
 
+    @Test
+    public void testBuildInsertRows() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .insert(ITEMS_TABLE, "id", (i) -> i.except("secret"));
+        final StringBuilder sb = new StringBuilder();
+        ((QueryBuilder<TestModel, Long>.InsertClause) qb.opClause).appendRowsTo(sb, 2, mockingMetaData);
+        System.out.println("testBuildInsertRows() => " + sb);
+        assertEquals("INSERT INTO " + SCHEMA + "." + ITEMS_TABLE + DELIM + "(name,is_active,remarks)" + DELIM
+            + "VALUES (:name__0,:is_active__0,:remarks__0),(:name__1,:is_active__1,:remarks__1)", sb.toString());
+
+        final MultiRowParameterSource params = new MultiRowParameterSource(Arrays.asList(
+            new MapSqlParameterSource("name", "A"), new MapSqlParameterSource("name", "B")));
+        assertEquals("B", params.getValue("name__1"));
+        assertTrue(!params.hasValue("name__2"));
+        assertTrue(!params.hasValue("name"));
+
+        assertEquals(2098, QueryBuilder.maxBindParametersOf(QueryBuilder.MSSQL));
+        assertEquals(50, qb.setMaxBindParameters(50).getMaxBindParameters());
+    }
+
+    @Test
+    public void testRowsPerInsert() {
+        final QueryBuilder<TestModel, Long> mssql = new QueryBuilder<TestModel, Long>()
+            .setDialect(QueryBuilder.MSSQL);
+        for (int nCols : new int[] { 1, 2, 3, 5, 7, 10, 12, 2100, 3000 }) {
+            final int rows = mssql.getRowsPerInsert(nCols);
+            assertTrue((rows * nCols < 2100) || (rows == 1), nCols + " columns: " + rows + " rows");
+            assertTrue(rows <= 1000, nCols + " columns: " + rows + " rows");
+        }
+        //5 columns: 420 rows (the default batch size) would bind exactly 2100
+        assertEquals(419, mssql.getRowsPerInsert(5));
+        assertEquals(1000, mssql.setBatchSize(5000).getRowsPerInsert(1));
+        assertEquals(QueryBuilder.DEFAULT_BATCH_SIZE, new QueryBuilder<TestModel, Long>()
+            .setDialect(QueryBuilder.POSTGRESQL).getRowsPerInsert(5));
+        assertEquals(3, new QueryBuilder<TestModel, Long>().setMaxBindParameters(10).getRowsPerInsert(3));
+    }
+
+    @Test
+    public void testBuildInsertReturningKey() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setDialect(QueryBuilder.POSTGRESQL)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .insert(ITEMS_TABLE, "id", (i) -> i.except(new String[] { "secret", "remarks" }));
+        StringBuilder sb = new StringBuilder();
+        ((QueryBuilder<TestModel, Long>.InsertClause) qb.opClause).appendInsertTo(sb, null, mockingMetaData, -1, true);
+        System.out.println("testBuildInsertReturningKey() => " + sb);
+        assertEquals("INSERT INTO " + SCHEMA + "." + ITEMS_TABLE + DELIM + "(name,is_active)" + DELIM
+            + "VALUES (:name,:is_active)" + DELIM + "RETURNING id", sb.toString());
+
+        qb.setDialect(QueryBuilder.MSSQL);
+        sb = new StringBuilder();
+        ((QueryBuilder<TestModel, Long>.InsertClause) qb.opClause).appendRowsTo(sb, 2, mockingMetaData, true);
+        System.out.println("testBuildInsertReturningKey() => " + sb);
+        assertEquals("INSERT INTO " + SCHEMA + "." + ITEMS_TABLE + DELIM + "(name,is_active)" + DELIM
+            + "OUTPUT INSERTED.id" + DELIM
+            + "VALUES (:name__0,:is_active__0),(:name__1,:is_active__1)", sb.toString());
+    }
+
+    @Test
+    public void testBuildUpsert() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setDialect(QueryBuilder.POSTGRESQL)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .upsert(ITEMS_TABLE, new String[] { "id" }, (u) -> u.except(new String[] { "secret", "remarks" }));
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = qb.build(params);
+        System.out.println("testBuildUpsert() => " + sql);
+        assertEquals("INSERT INTO " + SCHEMA + "." + ITEMS_TABLE + DELIM + "(id,name,is_active)" + DELIM
+            + "VALUES (:id,:name,:is_active)" + DELIM
+            + "ON CONFLICT (id) DO UPDATE SET name=EXCLUDED.name,is_active=EXCLUDED.is_active", sql);
+
+        qb.setDialect(QueryBuilder.MSSQL);
+        sql = qb.build(params);
+        System.out.println("testBuildUpsert() => " + sql);
+        assertEquals("MERGE INTO " + SCHEMA + "." + ITEMS_TABLE + " AS tgt" + DELIM
+            + "USING (SELECT :id AS id,:name AS name,:is_active AS is_active) AS src" + DELIM
+            + "ON (tgt.id = src.id)" + DELIM
+            + "WHEN MATCHED THEN UPDATE SET name=src.name,is_active=src.is_active" + DELIM
+            + "WHEN NOT MATCHED THEN INSERT (id,name,is_active) VALUES (src.id,src.name,src.is_active);", sql);
+    }
+
+    @Test
+    public void testBuildIn() throws SQLException {
+        init();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .setInChunkSize(4)
+            .select((s) -> {
+                s.from(ITEMS_TABLE).where((w) -> w.addIn("id", "ids", QueryBuilder.InStrategy.CHUNKED));
+            });
+        final String prefix = "SELECT id,name,is_active,secret,remarks" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE
+            + DELIM + "WHERE ";
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", Arrays.asList(1L, 2L, 3L));
+        String sql = qb.build(params);
+        System.out.println("testBuildIn() => " + sql);
+        assertEquals(prefix + "(id IN (:ids__pad))", sql);
+        final ConditionSignature padded = qb.evalConditions(params);
+        //Chunked lists render each chunk as padded
+        params = new MapSqlParameterSource("ids", Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        assertEquals(prefix + "(id IN (:ids__pad))", qb.build(params));
+        assertTrue(!padded.equals(qb.evalConditions(params)));
+        assertEquals(2, qb.getInClauses().get(0).chunk(params).size());
+        assertEquals(prefix + "(1 = 0)", qb.build(new MapSqlParameterSource("ids", Collections.emptyList())));
+
+        final InListParameterSource inParams = new InListParameterSource(
+            new MapSqlParameterSource("ids", new long[] { 1L, 2L, 3L }));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 3L), inParams.getValue("ids__pad"));
+        assertTrue(inParams.getValue("ids__arr") instanceof Long[]);
+        assertEquals(8, InListParameterSource.paddedSize(5));
+
+        qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setDialect(QueryBuilder.POSTGRESQL)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.from(ITEMS_TABLE).where((w) -> {
+                    w.addIn("id", "ids").addInTempTable("name", "names", "VARCHAR(50)");
+                });
+            });
+        params = new MapSqlParameterSource("ids", Arrays.asList(1L, 2L, 3L))
+            .addValue("names", Arrays.asList("A", "B"));
+        sql = qb.build(params);
+        System.out.println("testBuildIn() => " + sql);
+        assertEquals(prefix + "(id = ANY(:ids__arr))" + DELIM + "AND (name IN (SELECT v FROM tmp_in_names))", sql);
+    }
+
+    @Test
+    public void testCloseStreamRestoresConnection() throws SQLException {
+        final Connection con = Mockito.mock(Connection.class);
+        final DataSource ds = Mockito.mock(DataSource.class);
+        //Only for the exception translator's metadata
+        Mockito.lenient().when(ds.getConnection()).thenReturn(Mockito.mock(Connection.class));
+        final QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>().setDataSource(ds);
+        final SQLException commitFailure = new SQLException("commit failed");
+        Mockito.doThrow(commitFailure).when(con).commit();
+
+        //Closing after a failure: kept, with the close failure suppressed
+        final SQLException rollbackFailure = new SQLException("rollback failed");
+        Mockito.doThrow(rollbackFailure).when(con).rollback();
+        final RuntimeException failure = new IllegalStateException("mapping failed");
+        qb.closeStream(con, null, null, true, true, failure);
+        assertEquals(rollbackFailure, failure.getSuppressed()[0]);
+        Mockito.verify(con).setAutoCommit(true);
+        Mockito.verify(con).setReadOnly(false);
+        Mockito.verify(con).close();
+
+        //Closing normally: the commit failure thrown, once the flags are restored
+        Mockito.clearInvocations(con);
+        final DataAccessException ex = assertThrows(DataAccessException.class,
+            () -> qb.closeStream(con, null, null, true, true, null));
+        assertEquals(commitFailure, ex.getCause());
+        Mockito.verify(con).setAutoCommit(true);
+        Mockito.verify(con).setReadOnly(false);
+        Mockito.verify(con).close();
+    }
+
     @Test
     public void testBuildInsertSelect() throws SQLException {
         init();
@@ -213,6 +495,166 @@ public class QueryBuilderTest {
          */
     }
 
+    @Test
+    public void testMetadataCached() throws SQLException {
+        init();
+        final TableMetadataCache cache = new TableMetadataCache();
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setMetadataCache(cache)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.allFromMain()
+                    .allFrom("tj")
+                    .except("t.secret");
+                s.from(ITEMS_TABLE, "t")
+                    .leftJoin(ITEMS_JOIN_TABLE, "tj", (j) -> j.on("t.id = tj.t_id"));
+            });
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        final String sql = qb.build(params);
+        for (int i = 0;i < 3;i++) {
+            assertEquals(sql, qb.build(params));
+        }
+        Mockito.verify(mockingMetaData, Mockito.times(1)).getColumns(null, SCHEMA, ITEMS_TABLE, null);
+        Mockito.verify(mockingMetaData, Mockito.times(1)).getColumns(null, SCHEMA, ITEMS_JOIN_TABLE, null);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(6, cache.getHitCount());
+
+        cache.invalidate(SCHEMA, ITEMS_TABLE);
+        assertEquals(sql, qb.build(params));
+        Mockito.verify(mockingMetaData, Mockito.times(2)).getColumns(null, SCHEMA, ITEMS_TABLE, null);
+    }
+
+    @Test
+    public void testBuildWithoutConnection() throws SQLException {
+        init();
+        final SchemaSnapshot snapshot = new SchemaSnapshot(SCHEMA, new HashMap<String, List<String>>() {{
+            put(ITEMS_TABLE, Arrays.asList("id", "name", "is_active", "secret", "remarks"));
+        }});
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setMetadataCache(null)
+            .setSchemaSnapshot(snapshot)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.except("secret").from(ITEMS_TABLE);
+            });
+        String sql = qb.build(new MapSqlParameterSource());
+        assertEquals("SELECT id,name,is_active,remarks" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE, sql);
+
+        //Explicit columns need no metadata at all
+        qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setMetadataCache(null)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select(new String[] { "id", "name" }, (s) -> s.from(ITEMS_TABLE));
+        sql = qb.build(new MapSqlParameterSource());
+        assertEquals("SELECT id,name" + DELIM + "FROM " + SCHEMA + "." + ITEMS_TABLE, sql);
+        Mockito.verify(mockingDataSource, Mockito.never()).getConnection();
+    }
+
+    @Test
+    public void testCompiledTemplate() throws SQLException {
+        init();
+        final int[] nCondEvals = new int[] { 0 };
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setMetadataCache(null)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.allFromMain().except("t.secret");
+                s.from(ITEMS_TABLE, "t");
+                s.where((w) -> {
+                    w.add("is_active = :is_active")
+                        .addIf((p) -> {
+                            nCondEvals[0]++;
+                            return (p.hasValue("name"));
+                        }, "name = :name");
+                });
+            });
+        final QueryTemplate<TestModel, Long> template = qb.compile();
+
+        final MapSqlParameterSource withName = new MapSqlParameterSource("is_active", true)
+            .addValue("name", "Abc");
+        final MapSqlParameterSource withoutName = new MapSqlParameterSource("is_active", true);
+        final String sql1 = template.render(withName);
+        final String sql2 = template.render(withoutName);
+        for (int i = 0;i < 3;i++) {
+            assertEquals(sql1, template.render(withName));
+            assertEquals(sql2, template.render(withoutName));
+        }
+        assertEquals(qb.build(withName), sql1);
+        assertEquals(qb.build(withoutName), sql2);
+        System.out.println("testCompiledTemplate() => " + sql1 + " / " + sql2);
+        assertTrue(sql1.endsWith("AND (name = :name)"));
+        assertTrue(!sql2.contains("name = :name"));
+        assertEquals(2, template.getShapesCount());
+        //Metadata read once per shape by the template, then once per direct build() above
+        Mockito.verify(mockingMetaData, Mockito.times(4)).getColumns(null, SCHEMA, ITEMS_TABLE, null);
+    }
+
+    @Test
+    public void testFrozen() throws Exception {
+        init();
+        final QueryBuilder<TestModel, Long>.WhereClause[] whereRef = new QueryBuilder.WhereClause[1];
+        QueryBuilder<TestModel, Long> qb = new QueryBuilder<TestModel, Long>()
+            .setDataSource(mockingDataSource)
+            .setSchemaName(SCHEMA)
+            .setClausesDelimiter(DELIM)
+            .select((s) -> {
+                s.allFromMain().except("t.secret");
+                s.from(ITEMS_TABLE, "t");
+                s.where((w) -> {
+                    w.add("is_active = :is_active")
+                        .addIfNotNull("name", "name = :name");
+                    whereRef[0] = w;
+                });
+            })
+            .freeze();
+        assertTrue(qb.isFrozen());
+        assertThrows(IllegalStateException.class, () -> qb.setSchemaName("other"));
+        assertThrows(IllegalStateException.class, () -> qb.select());
+        assertThrows(IllegalStateException.class, () -> whereRef[0].add("1 = 1"));
+        assertThrows(IllegalStateException.class, () -> whereRef[0].addIf(true, "1 = 1"));
+
+        final MapSqlParameterSource params = new MapSqlParameterSource("is_active", true)
+            .addValue("name", "Abc");
+        final String expected = qb.build(params);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0;i < 200;i++) {
+                results.add(executor.submit(() -> qb.build(params)));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConditionSignature() {
+        final ConditionSignature sig1 = new ConditionSignature();
+        final ConditionSignature sig2 = new ConditionSignature();
+        for (int i = 0;i < 100;i++) {
+            sig1.add((i % 3) == 0);
+            sig2.add((i % 3) == 0);
+        }
+        assertEquals(sig1, sig2);
+        assertEquals(sig1.hashCode(), sig2.hashCode());
+        assertTrue(sig1.get(99));
+        assertTrue(!sig1.get(98));
+        sig2.add(false);
+        assertTrue(!sig1.equals(sig2));
+    }
+
     protected static class TestModel {
         private long id;
         private String name;
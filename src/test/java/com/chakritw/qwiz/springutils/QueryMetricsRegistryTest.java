@@ -0,0 +1,49 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * QueryMetricsRegistry Unit Test
+ */
+public class QueryMetricsRegistryTest {
+    private static QueryEvent newEvent(final String name, final String sql, final long executeNanos, final long rows) {
+        final QueryEvent event = new QueryEvent(name, null);
+        event.sql = sql;
+        event.executeNanos = executeNanos;
+        event.rows = rows;
+        return event;
+    }
+
+    @Test
+    public void testRecordByKey() {
+        final QueryMetricsRegistry registry = new QueryMetricsRegistry(2);
+        for (int i = 1;i <= 100;i++) {
+            registry.onQuery(newEvent("byName", "SELECT 1", i * 1000L, 2));
+        }
+        final QueryEvent unnamed = newEvent(null, "SELECT 2", 5000L, 1);
+        registry.onQuery(unnamed);
+        assertEquals(16, unnamed.getFingerprint().length());
+        assertEquals(unnamed.getFingerprint(), newEvent(null, "SELECT 2", 0L, 0).getFingerprint());
+        //Over maxKeys
+        registry.onQuery(newEvent("3rd", "SELECT 3", 1000L, 0));
+
+        final QueryMetricsRegistry.QueryStats stats = registry.getStats("byName");
+        assertEquals(100, stats.getCount());
+        assertEquals(200, stats.getRows());
+        assertEquals(100_000L, stats.getExecute().getMax());
+        //Within 2x of the actual p50 (50us)
+        final long p50 = stats.getExecute().getPercentile(0.5);
+        assertTrue((p50 >= 50_000L) && (p50 < 100_000L), "p50=" + p50);
+        assertNotNull(registry.getStats(unnamed.getFingerprint()));
+        assertEquals(1, registry.getStats(QueryMetricsRegistry.OTHER_KEY).getCount());
+
+        final String dump = registry.dump();
+        System.out.println("testRecordByKey() =>\n" + dump);
+        assertTrue(dump.contains("byName"));
+        assertEquals("byName", registry.getAllStats().get(0).getKey());
+    }
+}
@@ -0,0 +1,65 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * QueryResultCache Unit Test
+ */
+public class QueryResultCacheTest {
+    private static final Set<String> TABLES = Collections.singleton(QueryResultCache.tableName("s.t"));
+
+    @Test
+    public void testHitAndInvalidate() {
+        final QueryResultCache cache = new QueryResultCache(100, 0);
+        final int[] nLoads = new int[] { 0 };
+        for (int i = 0;i < 3;i++) {
+            final List<String> rows = cache.get("SELECT 1", new Object[] { 1 }, String.class, TABLES, () -> {
+                nLoads[0]++;
+                return Arrays.asList("a", "b");
+            });
+            assertEquals(2, rows.size());
+        }
+        assertEquals(1, nLoads[0]);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getTotalWeight());
+
+        //Other params => other entry
+        cache.get("SELECT 1", new Object[] { 2 }, String.class, TABLES, () -> Arrays.asList("c"));
+        assertEquals(2, cache.size());
+
+        QueryResultCache.invalidateTablesEverywhere(Collections.singleton(QueryResultCache.tableName("T")));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalWeight());
+        assertEquals(2, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void testWeightEviction() {
+        final QueryResultCache cache = new QueryResultCache(10, 0);
+        for (int i = 0;i < 5;i++) {
+            cache.get("SELECT " + i, new Object[0], null, TABLES, () -> Arrays.asList(1, 2, 3));
+        }
+        System.out.println("testWeightEviction() => " + cache);
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.getTotalWeight());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testWriteDuringLoadNotCached() {
+        final QueryResultCache cache = new QueryResultCache(100, 0);
+        cache.get("SELECT 1", new Object[0], null, TABLES, () -> {
+            //Concurrent write while reading
+            cache.invalidateTables(TABLES);
+            return Arrays.asList("stale");
+        });
+        assertEquals(0, cache.size());
+    }
+}
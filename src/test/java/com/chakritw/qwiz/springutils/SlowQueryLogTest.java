@@ -0,0 +1,146 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * SlowQueryLog Unit Test
+ */
+public class SlowQueryLogTest {
+    private static QueryEvent newEvent(final String sql, final long executeMillis, final MapSqlParameterSource params) {
+        final QueryEvent event = new QueryEvent("q", params);
+        event.sql = sql;
+        event.executeNanos = TimeUnit.MILLISECONDS.toNanos(executeMillis);
+        return event;
+    }
+
+    @Test
+    public void testRingBuffer() {
+        final SlowQueryLog log = new SlowQueryLog(10, 3);
+        log.onQuery(newEvent("SELECT fast", 5, null));
+        assertEquals(0, log.getEntries().size());
+        for (int i = 0;i < 5;i++) {
+            log.onQuery(newEvent("SELECT " + i, 10 + i, null));
+        }
+        assertEquals(5, log.getTotalCount());
+        final List<SlowQueryLog.Entry> entries = log.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("SELECT 4", entries.get(0).getSql());
+        assertEquals("SELECT 2", entries.get(2).getSql());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(14), entries.get(0).getTotalNanos());
+        assertNull(entries.get(0).getPlan());
+    }
+
+    @Test
+    public void testRedaction() {
+        final SlowQueryLog log = new SlowQueryLog(0).redact("ssn");
+        final MapSqlParameterSource params = new MapSqlParameterSource("name", "abc")
+            .addValue("user_password", "p4ss")
+            .addValue("SSN", "123")
+            .addValue("ids", LongStream.range(0, 1000).boxed().collect(Collectors.toList()));
+        log.onQuery(newEvent("SELECT 1", 1, params));
+        final SlowQueryLog.Entry entry = log.getEntries().get(0);
+        System.out.println("testRedaction() => " + entry);
+        assertEquals("abc", entry.getParams().get("name"));
+        assertEquals(SlowQueryLog.REDACTED, entry.getParams().get("user_password"));
+        assertEquals(SlowQueryLog.REDACTED, entry.getParams().get("SSN"));
+        assertTrue(entry.getParams().get("ids").endsWith("...(1000 values)"));
+    }
+
+    private static DataSource newCountingDataSource(final AtomicInteger nConnections) {
+        return new DelegatingDataSource(new SimpleDriverDataSource(
+            new org.h2.Driver(), "jdbc:h2:mem:sql_test;DB_CLOSE_DELAY=-1", "sa", ""))
+        {
+            @Override
+            public Connection getConnection() throws SQLException {
+                nConnections.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+    }
+
+    private static void awaitPlans(final SlowQueryLog log) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while ((log.getEntries().stream().anyMatch((e) -> e.getPlan() == null))
+            && (System.currentTimeMillis() < deadline))
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testOneExplainInFlightPerFingerprint() throws Exception {
+        final AtomicInteger nConnections = new AtomicInteger();
+        final DataSource dataSource = newCountingDataSource(nConnections);
+        final AsyncQueryExecutor executor = new AsyncQueryExecutor(1);
+        AsyncQueryExecutor.setForDataSource(dataSource, executor);
+        final SlowQueryLog log = new SlowQueryLog(0).enableExplain(dataSource, QueryBuilder.H2);
+        //Keep the EXPLAIN queued while the same shape gets logged again
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            try {
+                return release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        for (int i = 0;i < 3;i++) {
+            log.onQuery(newEvent("SELECT 1", 1, null));
+        }
+        release.countDown();
+        awaitPlans(log);
+
+        assertEquals(1, nConnections.get());
+        final String plan = log.getEntries().get(0).getPlan();
+        assertTrue((plan != null) && (!plan.startsWith("EXPLAIN failed")), plan);
+        for (SlowQueryLog.Entry entry : log.getEntries()) {
+            assertEquals(plan, entry.getPlan());
+        }
+        //Later ones get the cached plan
+        log.onQuery(newEvent("SELECT 1", 1, null));
+        assertEquals(plan, log.getEntries().get(0).getPlan());
+        assertEquals(1, nConnections.get());
+    }
+
+    @Test
+    public void testFailedExplainCached() throws Exception {
+        final AtomicInteger nConnections = new AtomicInteger();
+        final DataSource dataSource = newCountingDataSource(nConnections);
+        final SlowQueryLog log = new SlowQueryLog(0).enableExplain(dataSource, QueryBuilder.H2);
+        log.onQuery(newEvent("SELECT * FROM no_such_table", 1, null));
+        awaitPlans(log);
+        assertTrue(log.getEntries().get(0).getPlan().startsWith("EXPLAIN failed"));
+        //(Incl. one by the exception translator)
+        final int nExplainConnections = nConnections.get();
+
+        //Not retried
+        log.onQuery(newEvent("SELECT * FROM no_such_table", 1, null));
+        assertTrue(log.getEntries().get(0).getPlan().startsWith("EXPLAIN failed"));
+        assertEquals(nExplainConnections, nConnections.get());
+
+        //Temp. tables exist only on the Connection of the statement
+        final QueryEvent event = newEvent("SELECT * FROM t WHERE id IN (SELECT v FROM tmp_in_ids)", 1, null);
+        event.usingTempTables = true;
+        log.onQuery(event);
+        assertNull(log.getEntries().get(0).getPlan());
+        assertTrue(log.explainsInFlight.isEmpty());
+        assertEquals(1, log.plansByFingerprint.size());
+    }
+}
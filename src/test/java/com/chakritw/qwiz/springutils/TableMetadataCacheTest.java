@@ -0,0 +1,102 @@
+package com.chakritw.qwiz.springutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * TableMetadataCache Unit Test
+ */
+public class TableMetadataCacheTest {
+    private static final String SCHEMA = "gg";
+
+    @Test
+    public void testHitsAndMisses() throws SQLException {
+        final TableMetadataCache cache = new TableMetadataCache();
+        final AtomicInteger nLoads = new AtomicInteger();
+        final TableMetadataCache.ColumnsLoader loader = () -> {
+            nLoads.incrementAndGet();
+            return Arrays.asList("id", "name");
+        };
+        for (int i = 0;i < 3;i++) {
+            final List<String> cols = cache.getColumns(SCHEMA, "test_items", loader);
+            assertEquals(Arrays.asList("id", "name"), cols);
+        }
+        assertEquals(1, nLoads.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertThrows(UnsupportedOperationException.class,
+            () -> cache.getIfPresent(SCHEMA, "test_items").add("x"));
+    }
+
+    @Test
+    public void testEmptyResultNotCached() throws SQLException {
+        final TableMetadataCache cache = new TableMetadataCache();
+        cache.getColumns(SCHEMA, "missing", () -> Collections.emptyList());
+        assertNull(cache.getIfPresent(SCHEMA, "missing"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws SQLException {
+        final TableMetadataCache cache = new TableMetadataCache();
+        cache.put(SCHEMA, "a", Arrays.asList("id"));
+        cache.put(SCHEMA, "b", Arrays.asList("id"));
+        cache.put("other", "a", Arrays.asList("id"));
+        cache.invalidate(SCHEMA, "a");
+        assertNull(cache.getIfPresent(SCHEMA, "a"));
+        assertEquals(2, cache.size());
+        cache.invalidateSchema(SCHEMA);
+        assertNull(cache.getIfPresent(SCHEMA, "b"));
+        assertEquals(1, cache.size());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLruEviction() {
+        final TableMetadataCache cache = new TableMetadataCache(2, 0);
+        cache.put(SCHEMA, "a", Arrays.asList("id"));
+        cache.put(SCHEMA, "b", Arrays.asList("id"));
+        //Touch "a", so "b" becomes eldest
+        cache.getIfPresent(SCHEMA, "a");
+        cache.put(SCHEMA, "c", Arrays.asList("id"));
+        assertNull(cache.getIfPresent(SCHEMA, "b"));
+        assertTrue(cache.getIfPresent(SCHEMA, "a") != null);
+        assertTrue(cache.getIfPresent(SCHEMA, "c") != null);
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTtl() throws SQLException {
+        final long[] now = new long[] { 0L };
+        final TableMetadataCache cache = new TableMetadataCache(10, 1000) {
+            @Override
+            protected long currentTimeNanos() {
+                return now[0];
+            }
+        };
+        final AtomicInteger nLoads = new AtomicInteger();
+        final TableMetadataCache.ColumnsLoader loader = () -> {
+            nLoads.incrementAndGet();
+            return Arrays.asList("id");
+        };
+        cache.getColumns(SCHEMA, "a", loader);
+        now[0] += TimeUnit.MILLISECONDS.toNanos(999);
+        cache.getColumns(SCHEMA, "a", loader);
+        assertEquals(1, nLoads.get());
+        now[0] += TimeUnit.MILLISECONDS.toNanos(1);
+        cache.getColumns(SCHEMA, "a", loader);
+        assertEquals(2, nLoads.get());
+    }
+}
@@ -11,24 +11,35 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
 import org.mockito.stubbing.OngoingStubbing;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 
@@ -65,6 +76,14 @@ public class TwoWaysJdbcBeanMapperTest {
 
         return rsmd;
     }
+    private ResultSetMetaData createMockingResultSetMetaData(final String[] cols, final int[] sqlTypes)
+        throws SQLException
+    {
+        final ResultSetMetaData rsmd = createMockingResultSetMetaData(cols);
+        Mockito.lenient().when(rsmd.getColumnType(Mockito.anyInt()))
+            .thenAnswer((inv) -> sqlTypes[(int) inv.getArgument(0) - 1]);
+        return rsmd;
+    }
     private ResultSet createMockingResultSet(final Collection<Map<String, ?>> rows,
         final ResultSetMetaData rsmd) throws SQLException
     {
@@ -87,6 +106,26 @@ public class TwoWaysJdbcBeanMapperTest {
         // OngoingStubbing<Object> getObjFn =
         Mockito.lenient().when(rs.getObject(Mockito.anyString()))
                 .thenAnswer((inv) -> row.get(0).get((String) inv.getArgument(0)));
+        Mockito.lenient().when(rs.getObject(Mockito.anyInt()))
+                .thenAnswer((inv) -> row.get(0).get(rsmd.getColumnLabel((int) inv.getArgument(0))));
+        //Typed getters, as drivers: 0/false/null for SQL NULL, flagged by wasNull()
+        final boolean[] lastNull = new boolean[1];
+        final Answer<Object> typedValue = (inv) -> {
+            final Object value = row.get(0).get(rsmd.getColumnLabel((int) inv.getArgument(0)));
+            lastNull[0] = (value == null);
+            return value;
+        };
+        Mockito.lenient().when(rs.getLong(Mockito.anyInt())).thenAnswer((inv) -> Optional
+            .ofNullable((Number) typedValue.answer(inv)).map(Number::longValue).orElse(0L));
+        Mockito.lenient().when(rs.getInt(Mockito.anyInt())).thenAnswer((inv) -> Optional
+            .ofNullable((Number) typedValue.answer(inv)).map(Number::intValue).orElse(0));
+        Mockito.lenient().when(rs.getDouble(Mockito.anyInt())).thenAnswer((inv) -> Optional
+            .ofNullable((Number) typedValue.answer(inv)).map(Number::doubleValue).orElse(0.0));
+        Mockito.lenient().when(rs.getBoolean(Mockito.anyInt())).thenAnswer((inv) -> Optional
+            .ofNullable((Boolean) typedValue.answer(inv)).orElse(false));
+        Mockito.lenient().when(rs.getTimestamp(Mockito.anyInt()))
+            .thenAnswer((inv) -> typedValue.answer(inv));
+        Mockito.lenient().when(rs.wasNull()).thenAnswer((inv) -> lastNull[0]);
         /*
          * for (int i = 0;i < n;i++) { getColNameFn = getColNameFn.thenReturn(cols[i]);
          * nextFn = nextFn.thenReturn(i < n-1); } nextFn = nextFn.thenReturn(false);
@@ -176,6 +215,174 @@ public class TwoWaysJdbcBeanMapperTest {
         }
     }
 
+    @Test
+    public void testMapRowColumnPlan() throws SQLException {
+        init();
+        final List<Map<String, ?>> rows = Arrays.asList(
+            new HashMap<String, Object>() {{
+                put("ID", 1);
+                put("NAME", "A");
+            }},
+            new HashMap<String, Object>() {{
+                put("ID", 2);
+                put("NAME", "B");
+            }}
+        );
+        final ResultSetMetaData rsmd = createMockingResultSetMetaData("ID", "NAME");
+        final TwoWaysJdbcBeanMapper<TestModel> mapper = new TwoWaysJdbcBeanMapper<>(TestModel.class);
+        mapper.mapSameExcept("active")
+            .map("active", "is_active");
+        for (int pass = 0;pass < 2;pass++) {
+            final ResultSet rs = createMockingResultSet(rows, rsmd);
+            int i = 0;
+            while (rs.next()) {
+                final TestModel item = mapper.mapRow(rs, i);
+                assertEquals(rows.get(i).get("ID"), (int) item.getId());
+                assertEquals(rows.get(i).get("NAME"), item.getName());
+                i++;
+            }
+            assertEquals(2, i);
+        }
+        //Labels read once per ResultSet, columns matched once per shape
+        Mockito.verify(rsmd, Mockito.times(2)).getColumnCount();
+        assertEquals(1, mapper.columnPlans.size());
+
+        //Remapping drops plans
+        mapper.unmap("name");
+        final ResultSet rs = createMockingResultSet(rows, rsmd);
+        rs.next();
+        assertEquals(null, mapper.mapRow(rs, 0).getName());
+    }
+
+    @Test
+    public void testMapRowColumnPlanPerThread() throws Exception {
+        init();
+        final List<Map<String, ?>> rows = new ArrayList<>();
+        for (int i = 0;i < 4;i++) {
+            final Map<String, Object> row = new HashMap<>();
+            row.put("ID", i);
+            row.put("NAME", "N" + i);
+            rows.add(row);
+        }
+        final ResultSetMetaData rsmd = createMockingResultSetMetaData("ID", "NAME");
+        final TwoWaysJdbcBeanMapper<TestModel> mapper = new TwoWaysJdbcBeanMapper<>(TestModel.class).mapSame();
+        final ResultSet rs1 = createMockingResultSet(rows, rsmd);
+        final ResultSet rs2 = createMockingResultSet(rows, rsmd);
+        final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            //Rows of both ResultSets mapped alternately, each on its own thread
+            for (int i = 0;i < rows.size();i++) {
+                final int rowNum = i;
+                rs1.next();
+                assertEquals("N" + i, mapper.mapRow(rs1, i).getName());
+                assertEquals("N" + i, otherThread.submit(() -> {
+                    rs2.next();
+                    return mapper.mapRow(rs2, rowNum).getName();
+                }).get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            otherThread.shutdown();
+        }
+        //Labels still read once per ResultSet
+        Mockito.verify(rsmd, Mockito.times(2)).getColumnCount();
+    }
+
+    @Test
+    public void testMapRowDirect() throws SQLException {
+        init();
+        final List<Map<String, ?>> rows = Collections.singletonList(
+            new HashMap<String, Object>() {{
+                put("id", 7);
+                put("name", "A");
+                put("is_active", null);
+                put("code", "42");
+            }}
+        );
+        final ResultSetMetaData rsmd = createMockingResultSetMetaData("id", "name", "is_active", "code");
+        final TwoWaysJdbcBeanMapper<FieldsModel> mapper = new TwoWaysJdbcBeanMapper<>(FieldsModel.class)
+            .mapSameExcept("active")
+            .map("active", "is_active");
+        final ResultSet rs = createMockingResultSet(rows, rsmd);
+        rs.next();
+        final FieldsModel item = mapper.mapRow(rs, 0);
+        assertEquals(7L, item.getId());
+        assertEquals("A", item.name);
+        assertEquals(false, item.isActive());
+        //Converted
+        assertEquals(42, item.code);
+        assertNotNull(mapper.columnPlans.values().iterator().next().writers);
+
+        //No no-args constructor: through Jackson
+        final TwoWaysJdbcBeanMapper<ImmutableModel> immutableMapper =
+            new TwoWaysJdbcBeanMapper<>(ImmutableModel.class).mapSame();
+        final ResultSet rs2 = createMockingResultSet(rows, rsmd);
+        rs2.next();
+        final ImmutableModel immutable = immutableMapper.mapRow(rs2, 0);
+        assertEquals(7L, immutable.getId());
+        assertEquals("A", immutable.getName());
+        assertEquals(null, immutableMapper.columnPlans.values().iterator().next().writers);
+    }
+
+    @Test
+    public void testMapRowTypedGetters() throws SQLException {
+        init();
+        final Timestamp ts = Timestamp.valueOf("2020-01-02 03:04:05");
+        final List<Map<String, ?>> rows = Arrays.asList(
+            new HashMap<String, Object>() {{
+                put("id", 7L);
+                put("code", 42);
+                put("ratio", new java.math.BigDecimal("0.5"));
+                put("active", true);
+                put("created_at", ts);
+                put("updated_at", ts);
+            }},
+            new HashMap<String, Object>() {{
+                put("id", 8L);
+                put("code", null);
+                put("ratio", null);
+                put("active", null);
+                put("created_at", null);
+                put("updated_at", null);
+            }}
+        );
+        final ResultSetMetaData rsmd = createMockingResultSetMetaData(
+            new String[] { "id", "code", "ratio", "active", "created_at", "updated_at" },
+            new int[] { Types.BIGINT, Types.INTEGER, Types.DECIMAL, Types.BOOLEAN, Types.TIMESTAMP, Types.TIMESTAMP });
+        final TwoWaysJdbcBeanMapper<TypedModel> mapper = new TwoWaysJdbcBeanMapper<>(TypedModel.class)
+            .mapSameExcept("createdAt", "updatedAt")
+            .map("createdAt", "created_at")
+            .map("updatedAt", "updated_at");
+        final ResultSet rs = createMockingResultSet(rows, rsmd);
+        rs.next();
+        final TypedModel item = mapper.mapRow(rs, 0);
+        assertEquals(7L, item.id);
+        assertEquals(42, item.code);
+        assertEquals(0.5, item.ratio);
+        assertEquals(true, item.active);
+        assertEquals(ts.toInstant(), item.createdAt);
+        assertEquals(ts.toLocalDateTime(), item.updatedAt);
+        //Nulls keep primitives' defaults
+        rs.next();
+        final TypedModel nullsItem = mapper.mapRow(rs, 1);
+        assertEquals(8L, nullsItem.id);
+        assertEquals(0, nullsItem.code);
+        assertEquals(0.0, nullsItem.ratio);
+        assertEquals(false, nullsItem.active);
+        assertEquals(null, nullsItem.createdAt);
+        assertEquals(null, nullsItem.updatedAt);
+        //No getObject() for typed properties
+        Mockito.verify(rs, Mockito.never()).getObject(Mockito.anyInt());
+        Mockito.verify(rs, Mockito.times(2)).getLong(Mockito.anyInt());
+
+        //Incompatible column type: through getObject() & conversion
+        assertEquals(TwoWaysJdbcBeanMapper.ColumnGetter.OBJECT,
+            TwoWaysJdbcBeanMapper.ColumnGetter.of(long.class, Types.VARCHAR));
+        assertEquals(TwoWaysJdbcBeanMapper.ColumnGetter.OBJECT,
+            TwoWaysJdbcBeanMapper.ColumnGetter.of(int.class, Types.BIGINT));
+        assertEquals(TwoWaysJdbcBeanMapper.ColumnGetter.LONG,
+            TwoWaysJdbcBeanMapper.ColumnGetter.of(long.class, Types.NUMERIC));
+    }
+
     @Test
     public void testParamsSrc() throws SQLException {
         init();
@@ -201,6 +408,58 @@ public class TwoWaysJdbcBeanMapperTest {
          */
     }
 
+    public static class TypedModel {
+        public long id;
+        public int code;
+        public double ratio;
+        public boolean active;
+        public Instant createdAt;
+        public LocalDateTime updatedAt;
+    }
+
+    public static class FieldsModel {
+        public String name;
+        public int code;
+        private long id;
+        private boolean active;
+
+        public long getId() {
+            return id;
+        }
+
+        public FieldsModel setId(long id) {
+            this.id = id;
+            return this;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+    }
+
+    public static class ImmutableModel {
+        private final long id;
+        private final String name;
+
+        @JsonCreator
+        public ImmutableModel(@JsonProperty("id") long id, @JsonProperty("name") String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
     protected static class TestModel {
         private long id;
         private String name;